@@ -0,0 +1,143 @@
+package org.yah.test.dag.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.LinuxPerfNormProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.yah.test.dag.AffinityScheduler;
+import org.yah.test.dag.DagExecutor;
+import org.yah.test.dag.DagSandbox;
+import org.yah.test.dag.DataflowScheduler;
+import org.yah.test.dag.DagSandbox.DependencySupplier;
+import org.yah.test.dag.DagSandbox.NodeGroup;
+import org.yah.test.dag.DagSandbox.NodeType;
+import org.yah.test.dag.NodeTask;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Execution time of a {@link GraphShape#TYPE_DEPENDENCIES} graph whose tasks update per type state, executed layer by
+ * layer by {@link DagExecutor}, or dispatched by {@link DataflowScheduler} or by {@link AffinityScheduler}.
+ * <p>
+ * Each type owns {@code stateKb} of state that all its groups read and write, a type kept on the same worker finds it
+ * in that core's cache. {@link #main(String[])} runs with {@code -prof perfnorm}, which needs Linux {@code perf}, to
+ * get the cache misses per operation, reported as {@code L1-dcache-load-misses} and {@code LLC-load-misses}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class AffinityBenchmark {
+
+    private static final long SEED = 42;
+
+    @Param({"1000", "10000"})
+    public int size;
+
+    @Param({"16", "256"})
+    public int stateKb;
+
+    @Param({"4"})
+    public int parallelism;
+
+    private List<NodeGroup> nodes;
+    private DependencySupplier dependencySupplier;
+    private Function<NodeType, NodeTask> tasks;
+    private NodeGroup[][] layers;
+    private DagExecutor dagExecutor;
+    private DataflowScheduler dataflowScheduler;
+    private AffinityScheduler typeAffinityScheduler;
+    private AffinityScheduler groupAffinityScheduler;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        GraphShape.Graph graph = GraphShape.TYPE_DEPENDENCIES.generate(SEED, size);
+        nodes = graph.nodes();
+        dependencySupplier = DependencySupplier.byType(nodes, graph.typesDependencies());
+        Map<NodeType, NodeTask> typeTasks = new HashMap<>();
+        for (NodeGroup node : nodes)
+            typeTasks.computeIfAbsent(node.type(), type -> new StateTask(stateKb * 1024 / Long.BYTES));
+        tasks = typeTasks::get;
+        layers = DagSandbox.parallelizedDag(nodes, dependencySupplier);
+        dagExecutor = new DagExecutor(parallelism);
+        dataflowScheduler = new DataflowScheduler(parallelism);
+        typeAffinityScheduler = new AffinityScheduler(AffinityScheduler.Affinity.NODE_TYPE, parallelism);
+        groupAffinityScheduler = new AffinityScheduler(AffinityScheduler.Affinity.NODE_GROUP, parallelism);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        dagExecutor.close();
+        dataflowScheduler.close();
+        typeAffinityScheduler.close();
+        groupAffinityScheduler.close();
+    }
+
+    @Benchmark
+    public DagExecutor.ExecutionReport layered() throws InterruptedException {
+        return dagExecutor.execute(layers, tasks);
+    }
+
+    @Benchmark
+    public DataflowScheduler.ExecutionReport dataflow() throws InterruptedException {
+        return dataflowScheduler.execute(nodes, dependencySupplier, tasks);
+    }
+
+    @Benchmark
+    public AffinityScheduler.ExecutionReport typeAffinity() throws InterruptedException {
+        return typeAffinityScheduler.execute(nodes, dependencySupplier, tasks);
+    }
+
+    @Benchmark
+    public AffinityScheduler.ExecutionReport groupAffinity() throws InterruptedException {
+        return groupAffinityScheduler.execute(nodes, dependencySupplier, tasks);
+    }
+
+    /**
+     * Touch one state entry per node of the group. Groups of a type can run concurrently, their racy updates only
+     * matter for the cache line traffic.
+     */
+    private static final class StateTask implements NodeTask {
+        private final long[] state;
+
+        private StateTask(int length) {
+            this.state = new long[length];
+        }
+
+        @Override
+        public void execute(NodeGroup group) {
+            long[] state = this.state;
+            int stride = Math.max(1, state.length / group.nodeCount());
+            for (int i = 0; i < state.length; i += stride)
+                state[i] = state[i] * 31 + i;
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(AffinityBenchmark.class.getSimpleName())
+                .addProfiler(LinuxPerfNormProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
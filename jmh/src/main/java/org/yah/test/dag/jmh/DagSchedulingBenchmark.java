@@ -0,0 +1,170 @@
+package org.yah.test.dag.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.yah.test.dag.CsrGraph;
+import org.yah.test.dag.DagExecutor;
+import org.yah.test.dag.DagSandbox;
+import org.yah.test.dag.DagSandbox.DependencySupplier;
+import org.yah.test.dag.DagSandbox.NodeGroup;
+import org.yah.test.dag.DagSandbox.NodeType;
+import org.yah.test.dag.DataflowScheduler;
+import org.yah.test.dag.NodeTask;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Schedule construction time of each {@link GraphShape}, from 1k to 1M groups.
+ * <p>
+ * The execution benchmarks run the same graphs with a skewed workload, one group in {@value #SLOW_GROUP_RATIO} is
+ * {@value #SLOW_GROUP_FACTOR} times slower than the others, through the layer by layer {@link DagExecutor} and the
+ * barrier-free {@link DataflowScheduler}.
+ * <p>
+ * Run with {@code -prof gc} (done by {@link #main(String[])}) to get the allocation rate, reported as
+ * {@code gc.alloc.rate.norm} bytes per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms8g", "-Xmx8g"})
+public class DagSchedulingBenchmark {
+
+    private static final long SEED = 42;
+    private static final int MAX_NODES_PER_LAYER = 64 * 1024;
+    private static final int SLOW_GROUP_RATIO = 16;
+    private static final int SLOW_GROUP_FACTOR = 64;
+
+    @Param({"CHAIN", "FAN_OUT", "DIAMONDS", "RANDOM_LAYERED", "TYPE_DEPENDENCIES"})
+    public GraphShape shape;
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int size;
+
+    private GraphShape.Graph graph;
+    private List<NodeGroup> nodes;
+    private DependencySupplier dependencySupplier;
+    private CsrGraph csrGraph;
+    private NodeGroup lastNode;
+    private NodeGroup[][] layers;
+    private Function<NodeType, NodeTask> skewedTasks;
+    private DagExecutor dagExecutor;
+    private DataflowScheduler dataflowScheduler;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        graph = shape.generate(SEED, size);
+        nodes = graph.nodes();
+        dependencySupplier = graph.typesDependencies().isEmpty()
+                ? NodeGroup::dependencies
+                : DependencySupplier.byType(nodes, graph.typesDependencies());
+        csrGraph = CsrGraph.of(nodes, dependencySupplier);
+        lastNode = nodes.getLast();
+        layers = DagSandbox.parallelizedDag(nodes, dependencySupplier);
+        NodeTask skewedTask = group -> Blackhole.consumeCPU(workload(group));
+        skewedTasks = type -> skewedTask;
+        dagExecutor = new DagExecutor();
+        dataflowScheduler = new DataflowScheduler();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        dagExecutor.close();
+        dataflowScheduler.close();
+    }
+
+    /**
+     * Node counts are uniform in [1, 1024), the groups in the top 1 / {@value #SLOW_GROUP_RATIO} are slow.
+     */
+    private static long workload(NodeGroup group) {
+        int tokens = group.nodeCount() / 16 + 1;
+        return group.nodeCount() >= 1024 - 1024 / SLOW_GROUP_RATIO ? tokens * SLOW_GROUP_FACTOR : tokens;
+    }
+
+    @Benchmark
+    public NodeGroup[] createDag() {
+        return DagSandbox.createDag(nodes);
+    }
+
+    @Benchmark
+    public NodeGroup[][] parallelizedDag() {
+        return DagSandbox.parallelizedDag(nodes, dependencySupplier);
+    }
+
+    @Benchmark
+    public NodeGroup[][] parallelizedDagParallel() {
+        return DagSandbox.parallelizedDag(nodes, dependencySupplier, ForkJoinPool.commonPool());
+    }
+
+    @Benchmark
+    public NodeGroup[][] parallelizedDagCapped() {
+        return DagSandbox.parallelizedDag(nodes, MAX_NODES_PER_LAYER);
+    }
+
+    @Benchmark
+    public int getDepth() {
+        return DagSandbox.getDepth(lastNode, dependencySupplier);
+    }
+
+    /**
+     * Only the type indexing, the supplier used by the other benchmarks is built once per trial.
+     */
+    @Benchmark
+    public DependencySupplier byTypeSupplier() {
+        return DependencySupplier.byType(nodes, graph.typesDependencies());
+    }
+
+    @Benchmark
+    public CsrGraph csrGraph() {
+        return CsrGraph.of(nodes, dependencySupplier);
+    }
+
+    @Benchmark
+    public CsrGraph.Layers csrLayers() {
+        return csrGraph.layers();
+    }
+
+    @Benchmark
+    public CsrGraph.Layers csrParallelLayers() {
+        return csrGraph.layers(ForkJoinPool.commonPool());
+    }
+
+    @Benchmark
+    public DagExecutor.ExecutionReport layeredExecution() throws InterruptedException {
+        return dagExecutor.execute(layers, skewedTasks);
+    }
+
+    @Benchmark
+    public DataflowScheduler.ExecutionReport dataflowExecution() throws InterruptedException {
+        return dataflowScheduler.execute(nodes, dependencySupplier, skewedTasks);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(DagSchedulingBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,174 @@
+package org.yah.test.dag.jmh;
+
+import org.yah.test.dag.DagSandbox.NodeGroup;
+import org.yah.test.dag.DagSandbox.NodeType;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Seeded synthetic graph generators, the same seed and size always produce the same graph.
+ * <p>
+ * Groups are created in dependency order, dependencies always point to a group created before.
+ */
+public enum GraphShape {
+
+    /**
+     * Each group depends on the previous one, depth is {@code size - 1}.
+     */
+    CHAIN {
+        @Override
+        Graph generate(Random random, int size) {
+            NodeType type = new BenchmarkNodeType(0);
+            List<NodeGroup> nodes = new ArrayList<>(size);
+            NodeGroup previous = null;
+            for (int i = 0; i < size; i++) {
+                previous = previous == null ? new NodeGroup(type, nodeCount(random)) : new NodeGroup(type, nodeCount(random), previous);
+                nodes.add(previous);
+            }
+            return new Graph(nodes, Map.of());
+        }
+    },
+
+    /**
+     * A single root, all other groups depend on it.
+     */
+    FAN_OUT {
+        @Override
+        Graph generate(Random random, int size) {
+            NodeType[] types = types(TYPE_COUNT);
+            List<NodeGroup> nodes = new ArrayList<>(size);
+            NodeGroup root = new NodeGroup(types[0], nodeCount(random));
+            nodes.add(root);
+            for (int i = 1; i < size; i++)
+                nodes.add(new NodeGroup(types[random.nextInt(TYPE_COUNT)], nodeCount(random), root));
+            return new Graph(nodes, Map.of());
+        }
+    },
+
+    /**
+     * A chain of diamonds, a source, {@link #DIAMOND_WIDTH} groups depending on it, and a sink depending on all of them.
+     */
+    DIAMONDS {
+        @Override
+        Graph generate(Random random, int size) {
+            NodeType[] types = types(TYPE_COUNT);
+            List<NodeGroup> nodes = new ArrayList<>(size);
+            NodeGroup sink = null;
+            while (nodes.size() < size) {
+                NodeGroup source = sink == null ? new NodeGroup(types[0], nodeCount(random)) : new NodeGroup(types[0], nodeCount(random), sink);
+                nodes.add(source);
+                int width = Math.min(DIAMOND_WIDTH, size - nodes.size() - 1);
+                if (width <= 0)
+                    break;
+                NodeGroup[] branches = new NodeGroup[width];
+                for (int i = 0; i < width; i++) {
+                    branches[i] = new NodeGroup(types[random.nextInt(TYPE_COUNT)], nodeCount(random), source);
+                    nodes.add(branches[i]);
+                }
+                sink = new NodeGroup(types[0], nodeCount(random), branches);
+                nodes.add(sink);
+            }
+            return new Graph(nodes, Map.of());
+        }
+    },
+
+    /**
+     * About {@code sqrt(size)} layers of equal width, each group depends on 1 to {@link #MAX_DEPENDENCIES} random
+     * groups of the previous layers.
+     */
+    RANDOM_LAYERED {
+        @Override
+        Graph generate(Random random, int size) {
+            NodeType[] types = types(TYPE_COUNT);
+            int width = Math.max(1, (int) Math.sqrt(size));
+            List<NodeGroup> nodes = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                int layerStart = i / width * width;
+                NodeGroup[] dependencies = new NodeGroup[layerStart == 0 ? 0 : random.nextInt(1, MAX_DEPENDENCIES + 1)];
+                for (int d = 0; d < dependencies.length; d++) {
+                    // mostly the previous layer, sometimes further up
+                    int from = random.nextInt(4) == 0 ? 0 : layerStart - width;
+                    dependencies[d] = nodes.get(random.nextInt(from, layerStart));
+                }
+                nodes.add(new NodeGroup(types[random.nextInt(TYPE_COUNT)], nodeCount(random), dependencies));
+            }
+            return new Graph(nodes, Map.of());
+        }
+    },
+
+    /**
+     * Groups are created ordered by type, {@link #GROUPS_PER_TYPE} groups per type. Each type depends on one or two
+     * earlier types, and groups have up to 2 explicit dependencies on groups of earlier types. The number of
+     * implicit edges is about {@code size * GROUPS_PER_TYPE * 1.5}.
+     */
+    TYPE_DEPENDENCIES {
+        @Override
+        Graph generate(Random random, int size) {
+            int typeCount = Math.max(1, size / GROUPS_PER_TYPE);
+            NodeType[] types = types(typeCount);
+            Map<NodeType, Set<NodeType>> typesDependencies = new HashMap<>();
+            for (int t = 1; t < typeCount; t++) {
+                Set<NodeType> dependencies = new HashSet<>();
+                dependencies.add(types[random.nextInt(Math.max(0, t - 8), t)]);
+                if (random.nextBoolean())
+                    dependencies.add(types[random.nextInt(t)]);
+                typesDependencies.put(types[t], dependencies);
+            }
+
+            List<NodeGroup> nodes = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                int typeStart = i / GROUPS_PER_TYPE * GROUPS_PER_TYPE;
+                NodeGroup[] dependencies = new NodeGroup[typeStart == 0 ? 0 : random.nextInt(3)];
+                for (int d = 0; d < dependencies.length; d++)
+                    dependencies[d] = nodes.get(random.nextInt(typeStart));
+                nodes.add(new NodeGroup(types[Math.min(i / GROUPS_PER_TYPE, typeCount - 1)], nodeCount(random), dependencies));
+            }
+            return new Graph(nodes, typesDependencies);
+        }
+    };
+
+    static final int TYPE_COUNT = 16;
+    static final int DIAMOND_WIDTH = 64;
+    static final int MAX_DEPENDENCIES = 4;
+    static final int GROUPS_PER_TYPE = 50;
+
+    abstract Graph generate(Random random, int size);
+
+    public Graph generate(long seed, int size) {
+        if (size <= 0)
+            throw new IllegalArgumentException("Invalid size " + size);
+        return generate(new Random(seed), size);
+    }
+
+    private static int nodeCount(Random random) {
+        return random.nextInt(1, 1024);
+    }
+
+    private static NodeType[] types(int count) {
+        NodeType[] types = new NodeType[count];
+        for (int i = 0; i < count; i++)
+            types[i] = new BenchmarkNodeType(i);
+        return types;
+    }
+
+    /**
+     * @param typesDependencies empty unless type dependencies are used
+     */
+    public record Graph(List<NodeGroup> nodes, Map<NodeType, Set<NodeType>> typesDependencies) {
+    }
+
+    public record BenchmarkNodeType(int id) implements NodeType {
+        @Override
+        public int compareTo(NodeType o) {
+            if (o instanceof BenchmarkNodeType bnt)
+                return Integer.compare(id, bnt.id);
+            return NodeType.super.compareTo(o);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+#include "dag_schedule.h"
+
+// stand-in for the native group work: a group is executed once per tick
+static void executeGroup(struct DagSchedule* schedule, int32_t node)
+{
+	schedule->executionCounts[node]++;
+}
+
+int32_t executeDagSchedule(struct DagSchedule* schedule)
+{
+	int32_t nodeCount = schedule->nodeCount;
+	int32_t* pending = schedule->pendingDependencies;
+	// walkOrder is the queue of released nodes
+	int32_t* queue = schedule->walkOrder;
+	int32_t head = 0, tail = 0;
+	for (int32_t node = 0; node < nodeCount; node++)
+	{
+		pending[node] = schedule->dependencyCounts[node];
+		if (pending[node] == 0)
+			queue[tail++] = node;
+	}
+
+	int32_t executed = 0;
+	while (head < tail)
+	{
+		int32_t node = queue[head++];
+		if (node < schedule->scheduledCount)
+		{
+			executeGroup(schedule, node);
+			executed++;
+		}
+		for (int32_t e = schedule->successorOffsets[node]; e < schedule->successorOffsets[node + 1]; e++)
+		{
+			int32_t successor = schedule->successors[e];
+			if (--pending[successor] == 0)
+				queue[tail++] = successor;
+		}
+	}
+	return tail == nodeCount ? executed : -1;
+}
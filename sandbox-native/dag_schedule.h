@@ -0,0 +1,39 @@
+#pragma once
+
+#include "jna_sandbox.h"
+
+/*
+ * Mirror of org.yah.test.dag.NativeSchedule.Schedule, arrays are indexed by node id unless noted otherwise.
+ * Node ids are the scheduled groups followed by their dependencies outside of the schedule, which order their
+ * dependents but have no data and are never executed.
+ */
+struct DagSchedule : BaseObject {
+	int32_t nodeCount;
+	int32_t scheduledCount;
+	int32_t layerCount;
+	int32_t* layerOffsets;        // layerCount + 1 offsets in layerNodes
+	int32_t* layerNodes;          // scheduled node ids, by layer
+	int32_t* typeIds;
+	int32_t* nodeCounts;
+	int32_t* dependencyCounts;
+	int32_t* successorOffsets;    // nodeCount + 1 offsets in successors
+	int32_t* successors;
+	void** nodeData;              // null for dependencies outside of the schedule
+	int32_t* pendingDependencies; // scratch
+	int32_t* walkOrder;           // output, node ids in release order
+	int32_t* executionCounts;     // output, incremented once per executed group
+};
+
+#ifdef __cplusplus
+extern "C" {
+#endif
+
+/*
+ * Execute one tick of the schedule: release the nodes through their dependency counters, execute the scheduled
+ * ones. Return the number of executed groups, or -1 if some nodes were never released (cycle).
+ */
+DLL_EXPORT int32_t executeDagSchedule(struct DagSchedule* schedule);
+
+#ifdef __cplusplus
+}
+#endif
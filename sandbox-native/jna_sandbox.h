@@ -60,6 +60,8 @@ struct TestObject : BaseObject {
 
 #ifdef _WIN32
 #define DLL_EXPORT __declspec(dllexport)
+#else
+#define DLL_EXPORT __attribute__((visibility("default")))
 #endif // _WIN32
 
 #ifdef __cplusplus
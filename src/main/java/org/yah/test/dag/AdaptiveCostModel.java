@@ -0,0 +1,205 @@
+package org.yah.test.dag;
+
+import org.yah.test.dag.DagSandbox.NodeGroup;
+import org.yah.test.dag.DagSandbox.NodeType;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * {@link CostModel} learning from measured run times, in nanoseconds.
+ * <p>
+ * Each measure updates an exponentially weighted moving average of the time per node of the group {@link NodeType},
+ * and with {@link Granularity#GROUP} of the group itself. Groups never measured are estimated from their type, then
+ * from the average time per node of all measured types, then one nanosecond per node.
+ * <p>
+ * Use it with {@link ListScheduler} for the dispatch order and {@link DagLayering#costCappedLayers} for layer
+ * splitting. Type estimates can be persisted with {@link #store(Writer, Function)} and {@link #load(Reader, Function)},
+ * group estimates are only kept in memory and dropped with their group.
+ */
+public final class AdaptiveCostModel implements CostModel {
+
+    public enum Granularity {
+        GROUP,
+        TYPE
+    }
+
+    private final double alpha;
+    private final Granularity granularity;
+    // nanoseconds per node
+    private final Map<NodeType, Double> typeEstimates = new ConcurrentHashMap<>();
+    // nanoseconds, NodeGroup uses identity equality
+    private final Map<NodeGroup, Double> groupEstimates = Collections.synchronizedMap(new WeakHashMap<>());
+
+    public AdaptiveCostModel() {
+        this(0.2, Granularity.GROUP);
+    }
+
+    /**
+     * @param alpha weight of a new measure, in {@code ]0, 1]}
+     */
+    public AdaptiveCostModel(double alpha, Granularity granularity) {
+        if (!(alpha > 0 && alpha <= 1))
+            throw new IllegalArgumentException("Invalid alpha " + alpha);
+        this.alpha = alpha;
+        this.granularity = granularity;
+    }
+
+    @Override
+    public double cost(NodeGroup group) {
+        if (granularity == Granularity.GROUP) {
+            Double estimate = groupEstimates.get(group);
+            if (estimate != null)
+                return estimate;
+        }
+        Double typeEstimate = typeEstimates.get(group.type());
+        if (typeEstimate == null)
+            typeEstimate = typeEstimates.values().stream().mapToDouble(Double::doubleValue).average().orElse(1);
+        return typeEstimate * group.nodeCount();
+    }
+
+    public void record(NodeGroup group, long nanos) {
+        if (nanos < 0)
+            throw new IllegalArgumentException("Invalid duration " + nanos);
+        typeEstimates.merge(group.type(), (double) nanos / Math.max(1, group.nodeCount()), this::average);
+        if (granularity == Granularity.GROUP)
+            groupEstimates.merge(group, (double) nanos, this::average);
+    }
+
+    /**
+     * @return tasks recording the run time of each group, chunked tasks record the sum of their chunks run times. The
+     * recording task of a type is reused while {@code tasks} returns the same task for it
+     */
+    public Function<NodeType, NodeTask> recording(Function<? super NodeType, ? extends NodeTask> tasks) {
+        Map<NodeType, Recording> recordings = new ConcurrentHashMap<>();
+        return type -> {
+            NodeTask task = tasks.apply(type);
+            if (task == null)
+                return null;
+            return recordings.compute(type, (t, recording) -> recording != null && recording.task == task
+                    ? recording
+                    : new Recording(task, recordingTask(task))).recordingTask();
+        };
+    }
+
+    private NodeTask recordingTask(NodeTask task) {
+        if (task instanceof ChunkedNodeTask chunkedTask)
+            return new RecordingChunkedTask(chunkedTask);
+        return group -> {
+            long start = System.nanoTime();
+            try {
+                task.execute(group);
+            } finally {
+                record(group, System.nanoTime() - start);
+            }
+        };
+    }
+
+    /**
+     * @return a copy of the nanoseconds per node estimate of each type
+     */
+    public Map<NodeType, Double> typeEstimates() {
+        return new HashMap<>(typeEstimates);
+    }
+
+    public void setTypeEstimate(NodeType type, double nanosPerNode) {
+        if (!(nanosPerNode >= 0))
+            throw new IllegalArgumentException("Invalid estimate " + nanosPerNode + " for " + type);
+        typeEstimates.put(type, nanosPerNode);
+    }
+
+    /**
+     * Write the type estimates as properties.
+     *
+     * @param typeKey key of a type, must be stable across runs and unique among the stored types. Types without key
+     *                (null) are not stored
+     * @throws IllegalArgumentException if two types have the same key
+     */
+    public void store(Writer writer, Function<? super NodeType, String> typeKey) throws IOException {
+        Properties properties = new Properties();
+        typeEstimates.forEach((type, estimate) -> {
+            String key = typeKey.apply(type);
+            if (key != null && properties.setProperty(key, Double.toString(estimate)) != null)
+                throw new IllegalArgumentException("Duplicate NodeType key " + key);
+        });
+        properties.store(writer, "nanoseconds per node of each NodeType");
+    }
+
+    /**
+     * Read type estimates written by {@link #store(Writer, Function)}, replacing the current ones. The current
+     * estimates are kept if the estimates can not be read.
+     *
+     * @param typeResolver resolve a type from its key, null for unknown types that are skipped
+     */
+    public void load(Reader reader, Function<String, ? extends NodeType> typeResolver) throws IOException {
+        Properties properties = new Properties();
+        properties.load(reader);
+        Map<NodeType, Double> estimates = new HashMap<>();
+        for (String key : properties.stringPropertyNames()) {
+            NodeType type = typeResolver.apply(key);
+            if (type == null)
+                continue;
+            double estimate;
+            try {
+                estimate = Double.parseDouble(properties.getProperty(key));
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid estimate of " + key + " : " + properties.getProperty(key), e);
+            }
+            if (!(estimate >= 0))
+                throw new IOException("Invalid estimate of " + key + " : " + estimate);
+            estimates.put(type, estimate);
+        }
+        typeEstimates.clear();
+        typeEstimates.putAll(estimates);
+    }
+
+    private double average(double estimate, double measure) {
+        return estimate + alpha * (measure - estimate);
+    }
+
+    private record Recording(NodeTask task, NodeTask recordingTask) {
+    }
+
+    private final class RecordingChunkedTask implements ChunkedNodeTask {
+        private final ChunkedNodeTask task;
+        // weak, completed is not called once a chunk failed
+        private final Map<NodeGroup, LongAdder> durations = Collections.synchronizedMap(new WeakHashMap<>());
+
+        private RecordingChunkedTask(ChunkedNodeTask task) {
+            this.task = task;
+        }
+
+        @Override
+        public void execute(NodeGroup group, int fromNode, int toNode) throws Exception {
+            long start = System.nanoTime();
+            try {
+                task.execute(group, fromNode, toNode);
+            } catch (Throwable e) {
+                // the group will not complete, a chunk of another group execution may still add to it
+                durations.remove(group);
+                throw e;
+            }
+            durations.computeIfAbsent(group, g -> new LongAdder()).add(System.nanoTime() - start);
+        }
+
+        @Override
+        public void completed(NodeGroup group) throws Exception {
+            long start = System.nanoTime();
+            try {
+                task.completed(group);
+            } finally {
+                LongAdder duration = durations.remove(group);
+                record(group, (duration == null ? 0 : duration.sum()) + System.nanoTime() - start);
+            }
+        }
+    }
+}
@@ -0,0 +1,410 @@
+package org.yah.test.dag;
+
+import org.yah.test.dag.DagSandbox.DependencySupplier;
+import org.yah.test.dag.DagSandbox.NodeGroup;
+import org.yah.test.dag.DagSandbox.NodeType;
+
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+/**
+ * Dataflow execution of {@link NodeGroup}s, dispatching each group to a preferred worker thread.
+ * <p>
+ * Each group has a home worker, chosen by {@link Affinity}, and released groups are pushed to the queue of their home
+ * worker. A worker runs its own queue newest first, and steals the oldest group of another worker only when its own
+ * queue is empty. Homes are kept across executions, so a type or a group keeps running on the same thread from one
+ * tick to the next.
+ * <p>
+ * Dependencies outside of the executed nodes are not executed, but still order their dependents like they do in
+ * {@link DataflowScheduler}. Once a group fails, no other task is started and the first error is thrown once the
+ * execution completes. {@link ChunkedNodeTask}s are executed as plain {@link NodeTask}s, groups are never split.
+ */
+public final class AffinityScheduler implements AutoCloseable {
+
+    public enum Affinity {
+        /**
+         * All groups of a {@link NodeType} share a home, types are assigned to workers round-robin in order of first
+         * execution.
+         */
+        NODE_TYPE,
+        /**
+         * Each group is homed on the worker that executed it last, new groups are assigned round-robin.
+         */
+        NODE_GROUP
+    }
+
+    private final Affinity affinity;
+    private final Worker[] workers;
+    private final Map<NodeType, Integer> typeHomes = new HashMap<>();
+    private final Map<NodeGroup, Integer> groupHomes = new WeakHashMap<>();
+    private int nextHome;
+    private volatile boolean closed;
+    @Nullable
+    private volatile Execution execution;
+
+    public AffinityScheduler(Affinity affinity) {
+        this(affinity, Runtime.getRuntime().availableProcessors());
+    }
+
+    public AffinityScheduler(Affinity affinity, int parallelism) {
+        if (parallelism <= 0)
+            throw new IllegalArgumentException("Invalid parallelism " + parallelism);
+        this.affinity = affinity;
+        this.workers = new Worker[parallelism];
+        for (int i = 0; i < parallelism; i++)
+            workers[i] = new Worker(i);
+        for (Worker worker : workers)
+            worker.thread.start();
+    }
+
+    public Affinity affinity() {
+        return affinity;
+    }
+
+    public int parallelism() {
+        return workers.length;
+    }
+
+    public ExecutionReport execute(Collection<NodeGroup> nodes, Function<? super NodeType, ? extends NodeTask> tasks) throws InterruptedException {
+        return execute(nodes, null, tasks);
+    }
+
+    /**
+     * Executions are serialized, concurrent calls wait for the running one to complete.
+     *
+     * @throws IllegalArgumentException if the dependency graph contains a cycle, or a {@link NodeType} has no task
+     * @throws IllegalStateException    if the scheduler is closed
+     */
+    public synchronized ExecutionReport execute(Collection<NodeGroup> nodes, @Nullable DependencySupplier dependencySupplier,
+                                                Function<? super NodeType, ? extends NodeTask> tasks) throws InterruptedException {
+        if (closed)
+            throw new IllegalStateException("Scheduler is closed");
+        CsrGraph graph = CsrGraph.of(nodes, dependencySupplier);
+        graph.depths(); // fail fast on cycles, would never complete otherwise
+        NodeTask[] nodeTasks = new NodeTask[graph.size()];
+        for (int i = 0; i < graph.scheduledCount(); i++)
+            nodeTasks[i] = DagExecutor.resolveTask(graph.group(i).type(), tasks);
+
+        long start = System.nanoTime();
+        Execution execution = new Execution(graph, nodeTasks, homes(graph));
+        this.execution = execution;
+        try {
+            execution.start();
+            execution.await();
+        } finally {
+            this.execution = null;
+        }
+        if (affinity == Affinity.NODE_GROUP) {
+            for (int node = 0; node < graph.scheduledCount(); node++)
+                groupHomes.put(graph.group(node), execution.executedBy[node]);
+        }
+        RuntimeException e = execution.error.get();
+        if (e != null)
+            throw e;
+        return new ExecutionReport(graph.scheduledCount(), execution.stolen.get(), System.nanoTime() - start);
+    }
+
+    private int[] homes(CsrGraph graph) {
+        int[] homes = new int[graph.size()];
+        for (int node = 0; node < graph.size(); node++) {
+            NodeGroup group = graph.group(node);
+            Integer home = affinity == Affinity.NODE_TYPE ? typeHomes.get(group.type()) : groupHomes.get(group);
+            if (home == null) {
+                home = nextHome;
+                nextHome = (nextHome + 1) % workers.length;
+                if (affinity == Affinity.NODE_TYPE) typeHomes.put(group.type(), home);
+                else groupHomes.put(group, home);
+            }
+            homes[node] = home;
+        }
+        return homes;
+    }
+
+    /**
+     * Stop the worker threads, waiting for them to exit. A running execution completes first.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        for (Worker worker : workers)
+            LockSupport.unpark(worker.thread);
+        for (Worker worker : workers) {
+            try {
+                worker.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private final class Execution {
+        private final long run = DagEvents.nextRun();
+        private final NodeGroup[] nodes;
+        private final NodeTask[] tasks;
+        private final int[] homes;
+        private final int[] successorOffsets;
+        private final int[] successors;
+        private final AtomicIntegerArray pendingDependencies;
+        // worker of each node, published to the caller by remaining
+        private final int[] executedBy;
+        private final CountDownLatch remaining;
+        private final AtomicInteger stolen = new AtomicInteger();
+        private final AtomicReference<RuntimeException> error = new AtomicReference<>();
+
+        Execution(CsrGraph graph, NodeTask[] tasks, int[] homes) {
+            this.nodes = graph.groups();
+            this.tasks = tasks;
+            this.homes = homes;
+            CsrGraph.Successors graphSuccessors = graph.successors();
+            this.successorOffsets = graphSuccessors.offsets();
+            this.successors = graphSuccessors.successors();
+            this.pendingDependencies = new AtomicIntegerArray(graph.size());
+            for (int i = 0; i < graph.size(); i++)
+                pendingDependencies.set(i, graph.dependencyCount(i));
+            this.executedBy = new int[graph.size()];
+            this.remaining = new CountDownLatch(graph.size());
+        }
+
+        void start() {
+            // collect roots first, a pushed root can release other nodes to 0 pending dependencies
+            int[] roots = new int[nodes.length];
+            int rootCount = 0;
+            for (int node = 0; node < nodes.length; node++) {
+                if (pendingDependencies.get(node) == 0)
+                    roots[rootCount++] = node;
+            }
+            for (int i = 0; i < rootCount; i++)
+                push(roots[i]);
+        }
+
+        /**
+         * Wait for all the nodes to run. Once interrupted, the remaining tasks are skipped but their nodes still
+         * released: queued nodes must not outlive their execution.
+         */
+        void await() throws InterruptedException {
+            try {
+                remaining.await();
+            } catch (InterruptedException e) {
+                error.compareAndSet(null, new RuntimeException("Execution interrupted", e));
+                boolean completed = false;
+                while (!completed) {
+                    try {
+                        remaining.await();
+                        completed = true;
+                    } catch (InterruptedException ignored) {
+                        // still waiting for the released nodes
+                    }
+                }
+                throw e;
+            }
+        }
+
+        private void push(int node) {
+            Worker home = workers[homes[node]];
+            int queued = home.queue.push(node);
+            if (home.parked)
+                LockSupport.unpark(home.thread);
+            if (queued == 1 && !home.busy)
+                return;
+            // the home worker has more than it can run right now, wake an idle one to steal
+            for (Worker worker : workers) {
+                if (worker != home && worker.parked) {
+                    LockSupport.unpark(worker.thread);
+                    break;
+                }
+            }
+        }
+
+        /**
+         * Run {@code node} and the chain of released successors homed on {@code worker}, other released successors
+         * are pushed to their home queue.
+         */
+        void run(Worker worker, int node, boolean stolenNode) {
+            while (node >= 0) {
+                execute(worker, node, stolenNode);
+                int next = -1;
+                for (int e = successorOffsets[node]; e < successorOffsets[node + 1]; e++) {
+                    int successor = successors[e];
+                    if (pendingDependencies.decrementAndGet(successor) == 0) {
+                        if (next < 0 && homes[successor] == worker.index) next = successor;
+                        else push(successor);
+                    }
+                }
+                // cleared before the last count down, no worker is busy once the execution completed
+                if (next < 0)
+                    worker.busy = false;
+                remaining.countDown();
+                node = next;
+                stolenNode = false;
+            }
+        }
+
+        private void execute(Worker worker, int node, boolean stolenNode) {
+            executedBy[node] = worker.index;
+            NodeTask task = tasks[node];
+            if (task == null || error.get() != null)
+                return;
+            if (stolenNode) {
+                stolen.incrementAndGet();
+                DagEvents.scheduled(run, nodes[node], "steal", 1);
+            }
+            try {
+                DagEvents.execute(run, -1, nodes[node], task);
+            } catch (Throwable e) {
+                error.compareAndSet(null, new RuntimeException("Error executing node group " + nodes[node], e));
+            }
+        }
+    }
+
+    private final class Worker implements Runnable {
+        private final int index;
+        private final Thread thread;
+        private final WorkQueue queue = new WorkQueue();
+        private volatile boolean parked;
+        // set from polling a node to the count down of the last node of its chain
+        private volatile boolean busy;
+
+        private Worker(int index) {
+            this.index = index;
+            this.thread = new Thread(this, "affinity-worker-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                if (runNext())
+                    continue;
+                parked = true;
+                // recheck after publishing parked, a push reads parked after queueing
+                if (!hasWork() && !closed)
+                    LockSupport.park(this);
+                parked = false;
+                if (closed && queue.size() == 0)
+                    return;
+            }
+        }
+
+        /**
+         * @return false if there was nothing to run, in any queue
+         */
+        private boolean runNext() {
+            int node = queue.pollNewest();
+            if (node >= 0) {
+                busy = true;
+                running().run(this, node, false);
+                return true;
+            }
+            for (int i = 1; i < workers.length; i++) {
+                Worker victim = workers[(index + i) % workers.length];
+                node = victim.queue.pollOldest(victim.stealThreshold());
+                if (node >= 0) {
+                    busy = true;
+                    running().run(this, node, true);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * The execution of a polled node. Read after polling, never before: queued nodes belong to the running
+         * execution, which is published before its roots are pushed and can not complete while one of its nodes is
+         * polled but not run. An execution read before polling may have completed since, and the node be one of the
+         * next execution.
+         */
+        private Execution running() {
+            Execution current = execution;
+            assert current != null;
+            return current;
+        }
+
+        private boolean hasWork() {
+            if (queue.size() > 0)
+                return true;
+            for (Worker worker : workers) {
+                if (worker != this && worker.queue.size() >= worker.stealThreshold())
+                    return true;
+            }
+            return false;
+        }
+
+        /**
+         * Only steal the single queued group of a worker busy running a task. An idle home, parked, starting or
+         * between two tasks, runs it next.
+         */
+        private int stealThreshold() {
+            return busy ? 1 : 2;
+        }
+    }
+
+    /**
+     * Growable ring buffer of node ids, the owner polls the newest node and thieves the oldest one.
+     */
+    private static final class WorkQueue {
+        private int[] nodes = new int[16];
+        private int head;
+        private int size;
+
+        /**
+         * @return the queue size after the push
+         */
+        synchronized int push(int node) {
+            if (size == nodes.length) {
+                int[] grown = new int[nodes.length * 2];
+                for (int i = 0; i < size; i++)
+                    grown[i] = nodes[(head + i) % nodes.length];
+                nodes = grown;
+                head = 0;
+            }
+            nodes[(head + size++) % nodes.length] = node;
+            return size;
+        }
+
+        synchronized int pollNewest() {
+            if (size == 0)
+                return -1;
+            return nodes[(head + --size) % nodes.length];
+        }
+
+        /**
+         * @return the oldest node, or -1 if the queue holds less than {@code minSize} nodes
+         */
+        synchronized int pollOldest(int minSize) {
+            if (size == 0 || size < minSize)
+                return -1;
+            int node = nodes[head];
+            head = (head + 1) % nodes.length;
+            size--;
+            return node;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+    }
+
+    /**
+     * @param stolenCount groups executed by another worker than their home, external dependencies are not counted
+     */
+    public record ExecutionReport(int groupCount, int stolenCount, long totalNanos) {
+        /**
+         * @return the ratio of groups executed on their home worker, in [0, 1]
+         */
+        public double affinityRatio() {
+            return groupCount == 0 ? 1 : 1 - (double) stolenCount / groupCount;
+        }
+    }
+}
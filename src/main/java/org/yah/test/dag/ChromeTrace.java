@@ -0,0 +1,191 @@
+package org.yah.test.dag;
+
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedThread;
+import jdk.jfr.consumer.RecordingFile;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Timeline of the {@link DagEvents} of a JFR recording, written in the Chrome trace event JSON format
+ * ({@code chrome://tracing}, Perfetto).
+ * <p>
+ * Each run is a process, each thread a lane: groups are complete events labelled with their node type, layers are
+ * drawn on the lane of the thread waiting for them, and scheduling decisions are instant events.
+ */
+public final class ChromeTrace {
+
+    private static final Set<String> EVENT_NAMES = Set.of(DagEvents.GROUP_EXECUTION, DagEvents.LAYER_BARRIER, DagEvents.SCHEDULING);
+
+    private final List<RecordedEvent> events;
+
+    private ChromeTrace(List<RecordedEvent> events) {
+        this.events = events;
+    }
+
+    /**
+     * Start a recording of the {@link DagEvents} only, without threshold.
+     */
+    public static Recording startRecording() {
+        Recording recording = new Recording();
+        recording.setName("dag");
+        for (String name : EVENT_NAMES)
+            recording.enable(name).withoutThreshold();
+        recording.start();
+        return recording;
+    }
+
+    /**
+     * Stop {@code recording} if still running, and read its events.
+     */
+    public static ChromeTrace of(Recording recording) throws IOException {
+        if (recording.getState() == RecordingState.RUNNING)
+            recording.stop();
+        Path file = Files.createTempFile("dag", ".jfr");
+        try {
+            recording.dump(file);
+            return read(file);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    public static ChromeTrace read(Path recordingFile) throws IOException {
+        List<RecordedEvent> events = new ArrayList<>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(recordingFile)) {
+            if (EVENT_NAMES.contains(event.getEventType().getName()))
+                events.add(event);
+        }
+        events.sort(Comparator.comparing(ChromeTrace::start));
+        return new ChromeTrace(events);
+    }
+
+    /**
+     * @return the recorded events, sorted by start time
+     */
+    public List<RecordedEvent> events() {
+        return events;
+    }
+
+    /**
+     * @return the distinct run ids, in order of first event
+     */
+    public long[] runs() {
+        Set<Long> seen = new HashSet<>();
+        return events.stream().mapToLong(e -> e.getLong("run")).filter(seen::add).toArray();
+    }
+
+    public void write(Writer writer) throws IOException {
+        write(events, writer);
+    }
+
+    /**
+     * Write the events of a single run.
+     */
+    public void write(long run, Writer writer) throws IOException {
+        write(events.stream().filter(e -> e.getLong("run") == run).toList(), writer);
+    }
+
+    private static void write(List<RecordedEvent> events, Writer writer) throws IOException {
+        Instant origin = events.isEmpty() ? Instant.EPOCH : start(events.getFirst());
+        Set<Long> processes = new HashSet<>();
+        Set<String> lanes = new HashSet<>();
+        writer.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+        boolean first = true;
+        for (RecordedEvent event : events) {
+            long run = event.getLong("run");
+            RecordedThread thread = event.getThread();
+            long tid = thread != null ? thread.getJavaThreadId() : 0;
+            if (processes.add(run)) {
+                first = separator(writer, first);
+                writer.write("{\"name\":\"process_name\",\"ph\":\"M\",\"pid\":" + run + ",\"args\":{\"name\":" + quote("run " + run) + "}}");
+            }
+            if (thread != null && lanes.add(run + ":" + tid)) {
+                first = separator(writer, first);
+                writer.write("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":" + run + ",\"tid\":" + tid + ",\"args\":{\"name\":" + quote(thread.getJavaName()) + "}}");
+            }
+            first = separator(writer, first);
+            String lane = ",\"pid\":" + run + ",\"tid\":" + tid;
+            switch (event.getEventType().getName()) {
+                case DagEvents.GROUP_EXECUTION -> writer.write("{\"name\":" + quote(event.getString("nodeType"))
+                        + ",\"cat\":\"group\",\"ph\":\"X\",\"ts\":" + micros(origin, start(event))
+                        + ",\"dur\":" + micros(event.getDuration()) + lane
+                        + ",\"args\":{\"group\":" + quote(event.getString("group"))
+                        + ",\"layer\":" + event.getInt("layer")
+                        + ",\"fromNode\":" + event.getInt("fromNode")
+                        + ",\"toNode\":" + event.getInt("toNode") + "}}");
+                case DagEvents.LAYER_BARRIER -> writer.write("{\"name\":\"layer " + event.getInt("layer")
+                        + "\",\"cat\":\"layer\",\"ph\":\"X\",\"ts\":" + micros(origin, start(event))
+                        + ",\"dur\":" + micros(event.getDuration("layerNanos")) + lane
+                        + ",\"args\":{\"groupCount\":" + event.getInt("groupCount")
+                        + ",\"unitCount\":" + event.getInt("unitCount")
+                        + ",\"waitUs\":" + micros(event.getDuration("waitNanos"))
+                        + ",\"idleUs\":" + micros(event.getDuration("idleNanos")) + "}}");
+                default -> writer.write("{\"name\":" + quote(event.getString("decision"))
+                        + ",\"cat\":\"scheduling\",\"ph\":\"i\",\"s\":\"t\",\"ts\":" + micros(origin, start(event)) + lane
+                        + ",\"args\":{\"group\":" + quote(event.getString("group"))
+                        + ",\"nodeType\":" + quote(event.getString("nodeType"))
+                        + ",\"units\":" + event.getInt("units") + "}}");
+            }
+        }
+        writer.write("]}");
+        writer.flush();
+    }
+
+    /**
+     * Layer barriers are committed when the layer completes, with the layer duration as a field.
+     */
+    private static Instant start(RecordedEvent event) {
+        if (event.getEventType().getName().equals(DagEvents.LAYER_BARRIER))
+            return event.getStartTime().minus(event.getDuration("layerNanos"));
+        return event.getStartTime();
+    }
+
+    private static boolean separator(Writer writer, boolean first) throws IOException {
+        if (!first)
+            writer.write(',');
+        return false;
+    }
+
+    private static String micros(Instant origin, Instant instant) {
+        return micros(Duration.between(origin, instant));
+    }
+
+    private static String micros(Duration duration) {
+        return String.format(Locale.ROOT, "%.3f", duration.toNanos() / 1000.0);
+    }
+
+    private static String quote(String s) {
+        if (s == null)
+            return "null";
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+                }
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
@@ -0,0 +1,24 @@
+package org.yah.test.dag;
+
+import org.yah.test.dag.DagSandbox.NodeGroup;
+
+/**
+ * {@link NodeTask} able to process a {@link NodeGroup} by ranges of nodes, so that large groups can be spread
+ * across workers.
+ * <p>
+ * Chunks of the same group can run concurrently, {@link #completed(NodeGroup)} is called once after all of them
+ * have finished, and before any dependent group starts.
+ */
+public interface ChunkedNodeTask extends NodeTask {
+
+    void execute(NodeGroup group, int fromNode, int toNode) throws Exception;
+
+    default void completed(NodeGroup group) throws Exception {
+    }
+
+    @Override
+    default void execute(NodeGroup group) throws Exception {
+        execute(group, 0, group.nodeCount());
+        completed(group);
+    }
+}
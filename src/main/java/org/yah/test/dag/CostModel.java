@@ -0,0 +1,29 @@
+package org.yah.test.dag;
+
+import org.yah.test.dag.DagSandbox.NodeGroup;
+import org.yah.test.dag.DagSandbox.NodeType;
+
+import java.util.Map;
+
+/**
+ * Estimated cost of executing a {@link NodeGroup}, in arbitrary but consistent units.
+ */
+@FunctionalInterface
+public interface CostModel {
+
+    double cost(NodeGroup group);
+
+    /**
+     * Default model, one unit per node.
+     */
+    static CostModel nodeCount() {
+        return NodeGroup::nodeCount;
+    }
+
+    /**
+     * @param nodeCosts cost of one node of each type, types not in the map cost one unit per node
+     */
+    static CostModel byType(Map<NodeType, Double> nodeCosts) {
+        return group -> nodeCosts.getOrDefault(group.type(), 1.0) * group.nodeCount();
+    }
+}
@@ -0,0 +1,606 @@
+package org.yah.test.dag;
+
+import org.yah.test.dag.DagSandbox.DependencySupplier;
+import org.yah.test.dag.DagSandbox.NodeGroup;
+import org.yah.test.dag.DagSandbox.NodeType;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Compressed sparse row dependency graph: nodes are int ids, the dependencies of node {@code i} are
+ * {@code dependencies[dependencyOffsets[i] .. dependencyOffsets[i + 1]]}.
+ * <p>
+ * The layering algorithms of {@link DagSandbox} run directly on it and return primitive arrays. A graph is either
+ * built from {@link NodeGroup}s with {@link #of(Collection, DependencySupplier)}, keeping the groups to map results
+ * back, or from ids only with a {@link Builder}.
+ * <p>
+ * Only the first {@link #scheduledCount()} nodes are scheduled, the following ones are dependencies outside of the
+ * scheduled nodes: they order their dependents but are never part of the layers.
+ */
+public final class CsrGraph {
+
+    // frontier nodes processed by a single task of the parallel layering
+    private static final int FRONTIER_GRAIN = 1024;
+
+    private final int scheduledCount;
+    final int[] dependencyOffsets;
+    final int[] dependencies;
+    private final int[] typeIds;
+    private final int[] nodeCounts;
+    @Nullable
+    private final NodeGroup[] groups;
+    @Nullable
+    private final Map<NodeGroup, Integer> indices;
+
+    private CsrGraph(int scheduledCount, int[] dependencyOffsets, int[] dependencies, int[] typeIds, int[] nodeCounts,
+                     @Nullable NodeGroup[] groups, @Nullable Map<NodeGroup, Integer> indices) {
+        this.scheduledCount = scheduledCount;
+        this.dependencyOffsets = dependencyOffsets;
+        this.dependencies = dependencies;
+        this.typeIds = typeIds;
+        this.nodeCounts = nodeCounts;
+        this.groups = groups;
+        this.indices = indices;
+    }
+
+    public static CsrGraph of(Collection<NodeGroup> nodes) {
+        return of(nodes, null);
+    }
+
+    /**
+     * Index {@code nodes} in iteration order (duplicates are ignored), followed by their transitive dependencies
+     * outside of {@code nodes}. The dependency supplier is queried once per group.
+     * <p>
+     * Type ids follow the {@link NodeType} natural order.
+     */
+    public static CsrGraph of(Collection<NodeGroup> nodes, @Nullable DependencySupplier dependencySupplier) {
+        if (dependencySupplier == null)
+            dependencySupplier = NodeGroup::dependencies;
+
+        Map<NodeGroup, Integer> indices = new IdentityHashMap<>(nodes.size() * 2);
+        List<NodeGroup> pending = new ArrayList<>(nodes.size());
+        for (NodeGroup node : nodes) {
+            if (indices.putIfAbsent(node, pending.size()) == null)
+                pending.add(node);
+        }
+        int scheduledCount = pending.size();
+
+        int[] offsets = new int[pending.size() + 1];
+        int[] edges = new int[pending.size()];
+        int edgeCount = 0;
+        // pending grows while walking dependencies that are not part of nodes
+        for (int i = 0; i < pending.size(); i++) {
+            Collection<NodeGroup> nodeDependencies = dependencySupplier.apply(pending.get(i));
+            if (edgeCount + nodeDependencies.size() > edges.length)
+                edges = Arrays.copyOf(edges, Math.max(edges.length * 2, edgeCount + nodeDependencies.size()));
+            for (NodeGroup dependency : nodeDependencies) {
+                Integer index = indices.putIfAbsent(dependency, pending.size());
+                if (index == null) {
+                    index = pending.size();
+                    pending.add(dependency);
+                }
+                edges[edgeCount++] = index;
+            }
+            if (i + 2 > offsets.length)
+                offsets = Arrays.copyOf(offsets, Math.max(offsets.length * 2, pending.size() + 1));
+            offsets[i + 1] = edgeCount;
+        }
+
+        NodeGroup[] groups = pending.toArray(NodeGroup[]::new);
+        Map<NodeType, Integer> typeIds = new TreeMap<>();
+        for (NodeGroup group : groups) typeIds.put(group.type(), 0);
+        int typeId = 0;
+        for (Map.Entry<NodeType, Integer> entry : typeIds.entrySet()) entry.setValue(typeId++);
+
+        int[] nodeTypeIds = new int[groups.length];
+        int[] nodeCounts = new int[groups.length];
+        for (int i = 0; i < groups.length; i++) {
+            nodeTypeIds[i] = typeIds.get(groups[i].type());
+            nodeCounts[i] = groups[i].nodeCount();
+        }
+        return new CsrGraph(scheduledCount, Arrays.copyOf(offsets, groups.length + 1), Arrays.copyOf(edges, edgeCount),
+                nodeTypeIds, nodeCounts, groups, indices);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public int size() {
+        return nodeCounts.length;
+    }
+
+    public int scheduledCount() {
+        return scheduledCount;
+    }
+
+    public int edgeCount() {
+        return dependencyOffsets[size()];
+    }
+
+    public int dependencyCount(int node) {
+        return dependencyOffsets[node + 1] - dependencyOffsets[node];
+    }
+
+    /**
+     * @return the dependency of a node at {@code index}, in {@code [0, dependencyCount(node)[}
+     */
+    public int dependency(int node, int index) {
+        return dependencies[dependencyOffsets[node] + index];
+    }
+
+    public int typeId(int node) {
+        return typeIds[node];
+    }
+
+    public int nodeCount(int node) {
+        return nodeCounts[node];
+    }
+
+    public boolean hasGroups() {
+        return groups != null;
+    }
+
+    /**
+     * @throws IllegalStateException if the graph was not built from {@link NodeGroup}s
+     */
+    public NodeGroup group(int node) {
+        return groups()[node];
+    }
+
+    /**
+     * @return the id of a group, or -1 if not in this graph
+     * @throws IllegalStateException if the graph was not built from {@link NodeGroup}s
+     */
+    public int indexOf(NodeGroup group) {
+        if (indices == null)
+            throw new IllegalStateException("Graph was not built from NodeGroups");
+        Integer index = indices.get(group);
+        return index == null ? -1 : index;
+    }
+
+    NodeGroup[] groups() {
+        if (groups == null)
+            throw new IllegalStateException("Graph was not built from NodeGroups");
+        return groups;
+    }
+
+    /**
+     * @return the depth of each node
+     * @throws IllegalArgumentException if the graph contains a cycle
+     */
+    public int[] depths() {
+        return depths((int[]) null);
+    }
+
+    /**
+     * Same as {@link #depths()}, the frontiers of the Kahn pass are processed in parallel in {@code pool}, with
+     * lock-free in-degree decrements. A frontier holds all the nodes of a depth, so the result does not depend on
+     * the order in which workers release the nodes of the next one.
+     *
+     * @throws IllegalArgumentException if the graph contains a cycle
+     */
+    public int[] depths(ForkJoinPool pool) {
+        return new ParallelDepths(this).compute(pool);
+    }
+
+    /**
+     * @return all node ids in a topological order, dependencies first
+     * @throws IllegalArgumentException if the graph contains a cycle
+     */
+    public int[] topologicalOrder() {
+        int[] order = new int[size()];
+        depths(order);
+        return order;
+    }
+
+    /**
+     * @return one layer per distinct depth of the scheduled nodes, sorted by depth, nodes sorted by id
+     */
+    public Layers layers() {
+        return layers(depths());
+    }
+
+    /**
+     * Same as {@link #layers()}, using {@link #depths(ForkJoinPool)}.
+     */
+    public Layers layers(ForkJoinPool pool) {
+        return layers(depths(pool));
+    }
+
+    private Layers layers(int[] depths) {
+        int maxDepth = -1;
+        for (int node = 0; node < scheduledCount; node++)
+            maxDepth = Math.max(maxDepth, depths[node]);
+
+        // counting sort of the scheduled nodes by depth
+        int[] depthOffsets = new int[maxDepth + 2];
+        for (int node = 0; node < scheduledCount; node++)
+            depthOffsets[depths[node] + 1]++;
+        int layerCount = 0;
+        for (int depth = 0; depth <= maxDepth; depth++) {
+            if (depthOffsets[depth + 1] > 0) layerCount++;
+            depthOffsets[depth + 1] += depthOffsets[depth];
+        }
+        int[] layerNodes = new int[scheduledCount];
+        int[] cursors = Arrays.copyOf(depthOffsets, maxDepth + 1);
+        for (int node = 0; node < scheduledCount; node++)
+            layerNodes[cursors[depths[node]]++] = node;
+
+        int[] layerDepths = new int[layerCount];
+        int[] layerOffsets = new int[layerCount + 1];
+        int layer = 0;
+        for (int depth = 0; depth <= maxDepth; depth++) {
+            if (depthOffsets[depth + 1] > depthOffsets[depth]) {
+                layerDepths[layer] = depth;
+                layerOffsets[++layer] = depthOffsets[depth + 1];
+            }
+        }
+        return new Layers(layerDepths, layerOffsets, layerNodes);
+    }
+
+    /**
+     * Same as {@link DagSandbox#parallelizedDag(Collection, Integer)}: layers with more than
+     * {@code maxNodesPerLayer} nodes are split, groups being packed by increasing node count. The depth of each
+     * resulting layer is its index.
+     */
+    public Layers cappedLayers(int maxNodesPerLayer) {
+        Layers layers = layers();
+        IntList cappedDepths = new IntList(layers.count());
+        IntList cappedOffsets = new IntList(layers.count() + 1);
+        cappedOffsets.add(0);
+        int[] cappedNodes = new int[layers.nodes().length];
+        int nodeCount = 0;
+        long[] sortKeys = new long[0];
+        for (int layer = 0; layer < layers.count(); layer++) {
+            int start = layers.offsets()[layer], end = layers.offsets()[layer + 1];
+            long layerNodeCount = 0;
+            for (int i = start; i < end; i++)
+                layerNodeCount += nodeCounts[layers.nodes()[i]];
+
+            if (layerNodeCount <= maxNodesPerLayer) {
+                System.arraycopy(layers.nodes(), start, cappedNodes, nodeCount, end - start);
+                nodeCount += end - start;
+                cappedDepths.add(cappedDepths.size());
+                cappedOffsets.add(nodeCount);
+                continue;
+            }
+
+            // stable sort by node count, position in layer breaks ties
+            int length = end - start;
+            if (sortKeys.length < length)
+                sortKeys = new long[length];
+            for (int i = 0; i < length; i++)
+                sortKeys[i] = (long) nodeCounts[layers.nodes()[start + i]] << 32 | i;
+            Arrays.sort(sortKeys, 0, length);
+
+            long cappedNodeCount = -1;
+            for (int i = 0; i < length; i++) {
+                int node = layers.nodes()[start + (int) sortKeys[i]];
+                if (cappedNodeCount < 0 || cappedNodeCount + nodeCounts[node] >= maxNodesPerLayer) {
+                    if (cappedNodeCount >= 0) {
+                        cappedDepths.add(cappedDepths.size());
+                        cappedOffsets.add(nodeCount);
+                    }
+                    cappedNodeCount = 0;
+                }
+                cappedNodes[nodeCount++] = node;
+                cappedNodeCount += nodeCounts[node];
+            }
+            cappedDepths.add(cappedDepths.size());
+            cappedOffsets.add(nodeCount);
+        }
+        return new Layers(cappedDepths.toArray(), cappedOffsets.toArray(), cappedNodes);
+    }
+
+    /**
+     * Same as {@link DagSandbox#createDag(Collection)}: scheduled nodes sorted by depth, then type id.
+     */
+    public int[] dagOrder() {
+        int[] depths = depths();
+        int typeCount = 0, maxDepth = 0;
+        for (int node = 0; node < scheduledCount; node++) {
+            typeCount = Math.max(typeCount, typeIds[node] + 1);
+            maxDepth = Math.max(maxDepth, depths[node]);
+        }
+        // LSD counting sorts, by type then by depth
+        int[] byType = new int[scheduledCount];
+        int[] offsets = new int[typeCount + 1];
+        for (int node = 0; node < scheduledCount; node++) offsets[typeIds[node] + 1]++;
+        for (int t = 0; t < typeCount; t++) offsets[t + 1] += offsets[t];
+        for (int node = 0; node < scheduledCount; node++) byType[offsets[typeIds[node]]++] = node;
+
+        int[] res = new int[scheduledCount];
+        offsets = new int[maxDepth + 2];
+        for (int node = 0; node < scheduledCount; node++) offsets[depths[node] + 1]++;
+        for (int d = 0; d <= maxDepth; d++) offsets[d + 1] += offsets[d];
+        for (int node : byType) res[offsets[depths[node]]++] = node;
+        return res;
+    }
+
+    /**
+     * @return the groups of each layer
+     * @throws IllegalStateException if the graph was not built from {@link NodeGroup}s
+     */
+    public NodeGroup[][] toGroups(Layers layers) {
+        NodeGroup[] nodeGroups = groups();
+        NodeGroup[][] res = new NodeGroup[layers.count()][];
+        for (int layer = 0; layer < res.length; layer++) {
+            int start = layers.offsets()[layer];
+            res[layer] = new NodeGroup[layers.offsets()[layer + 1] - start];
+            for (int i = 0; i < res[layer].length; i++)
+                res[layer][i] = nodeGroups[layers.nodes()[start + i]];
+        }
+        return res;
+    }
+
+    /**
+     * @param order if not null, receive the node ids in topological order
+     */
+    int[] depths(@Nullable int[] order) {
+        int size = size();
+        int[] pendingDependencies = new int[size];
+        for (int node = 0; node < size; node++)
+            pendingDependencies[node] = dependencyCount(node);
+        Successors graphSuccessors = successors();
+        int[] successorOffsets = graphSuccessors.offsets();
+        int[] successors = graphSuccessors.successors();
+
+        int[] depths = new int[size];
+        int[] queue = order != null ? order : new int[size];
+        int head = 0, tail = 0;
+        for (int node = 0; node < size; node++) {
+            if (pendingDependencies[node] == 0)
+                queue[tail++] = node;
+        }
+        while (head < tail) {
+            int node = queue[head++];
+            int successorDepth = depths[node] + 1;
+            for (int e = successorOffsets[node]; e < successorOffsets[node + 1]; e++) {
+                int successor = successors[e];
+                if (depths[successor] < successorDepth)
+                    depths[successor] = successorDepth;
+                if (--pendingDependencies[successor] == 0)
+                    queue[tail++] = successor;
+            }
+        }
+        if (tail < size)
+            throw new IllegalArgumentException("Dependency cycle detected between " + (size - tail) + " node groups");
+        return depths;
+    }
+
+    /**
+     * @return successors of node i in successors[successorOffsets[i] .. successorOffsets[i + 1]]
+     */
+    Successors successors() {
+        int size = size();
+        int[] successorOffsets = new int[size + 1];
+        for (int e = 0; e < dependencyOffsets[size]; e++)
+            successorOffsets[dependencies[e] + 1]++;
+        for (int node = 0; node < size; node++)
+            successorOffsets[node + 1] += successorOffsets[node];
+
+        int[] successors = new int[dependencyOffsets[size]];
+        int[] cursors = Arrays.copyOf(successorOffsets, size);
+        for (int node = 0; node < size; node++) {
+            for (int e = dependencyOffsets[node]; e < dependencyOffsets[node + 1]; e++)
+                successors[cursors[dependencies[e]]++] = node;
+        }
+        return new Successors(successorOffsets, successors);
+    }
+
+    record Successors(int[] offsets, int[] successors) {
+    }
+
+    /**
+     * Level synchronous Kahn pass, each frontier is split in {@link FrontierTask}s appending the nodes they release
+     * to the next frontier.
+     */
+    private static final class ParallelDepths {
+        private final int size;
+        private final int[] successorOffsets;
+        private final int[] successors;
+        private final AtomicIntegerArray pendingDependencies;
+        private final int[] depths;
+        private int[] frontier;
+        private int[] next;
+        private final AtomicInteger nextSize = new AtomicInteger();
+        private int depth;
+
+        ParallelDepths(CsrGraph graph) {
+            size = graph.size();
+            Successors graphSuccessors = graph.successors();
+            successorOffsets = graphSuccessors.offsets();
+            successors = graphSuccessors.successors();
+            pendingDependencies = new AtomicIntegerArray(size);
+            depths = new int[size];
+            frontier = new int[size];
+            next = new int[size];
+            int frontierSize = 0;
+            for (int node = 0; node < size; node++) {
+                int dependencyCount = graph.dependencyCount(node);
+                if (dependencyCount == 0) frontier[frontierSize++] = node;
+                else pendingDependencies.set(node, dependencyCount);
+            }
+            nextSize.set(frontierSize);
+        }
+
+        int[] compute(ForkJoinPool pool) {
+            int processed = 0;
+            for (int frontierSize = nextSize.get(); frontierSize > 0; frontierSize = nextSize.get()) {
+                processed += frontierSize;
+                // not worth a fork for small frontiers, long chains would only pay the submission
+                if (frontierSize <= FRONTIER_GRAIN) {
+                    nextSize.set(release(0, frontierSize, next, 0));
+                } else {
+                    nextSize.set(0);
+                    pool.invoke(new FrontierTask(0, frontierSize));
+                }
+                int[] swap = frontier;
+                frontier = next;
+                next = swap;
+                depth++;
+            }
+            if (processed < size)
+                throw new IllegalArgumentException("Dependency cycle detected between " + (size - processed) + " node groups");
+            return depths;
+        }
+
+        @SuppressWarnings("serial")
+        private final class FrontierTask extends RecursiveAction {
+            private final int from;
+            private final int to;
+
+            FrontierTask(int from, int to) {
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected void compute() {
+                if (to - from > FRONTIER_GRAIN) {
+                    int middle = (from + to) >>> 1;
+                    invokeAll(new FrontierTask(from, middle), new FrontierTask(middle, to));
+                    return;
+                }
+                int[] released = new int[64];
+                int releasedCount = 0;
+                for (int i = from; i < to; i++) {
+                    int node = frontier[i];
+                    depths[node] = depth;
+                    for (int e = successorOffsets[node]; e < successorOffsets[node + 1]; e++) {
+                        int successor = successors[e];
+                        if (pendingDependencies.decrementAndGet(successor) == 0) {
+                            if (releasedCount == released.length)
+                                released = Arrays.copyOf(released, releasedCount * 2);
+                            released[releasedCount++] = successor;
+                        }
+                    }
+                }
+                // one reservation per task in the next frontier
+                int offset = nextSize.getAndAdd(releasedCount);
+                System.arraycopy(released, 0, next, offset, releasedCount);
+            }
+        }
+
+        /**
+         * Process {@code frontier[from .. to]} on the current thread, appending released nodes to {@code target}.
+         *
+         * @return the new target size
+         */
+        private int release(int from, int to, int[] target, int targetSize) {
+            for (int i = from; i < to; i++) {
+                int node = frontier[i];
+                depths[node] = depth;
+                for (int e = successorOffsets[node]; e < successorOffsets[node + 1]; e++) {
+                    int successor = successors[e];
+                    if (pendingDependencies.decrementAndGet(successor) == 0)
+                        target[targetSize++] = successor;
+                }
+            }
+            return targetSize;
+        }
+    }
+
+    /**
+     * Nodes of layer {@code i} are {@code nodes[offsets[i] .. offsets[i + 1]]}.
+     */
+    public record Layers(int[] depths, int[] offsets, int[] nodes) {
+        public int count() {
+            return depths.length;
+        }
+
+        public int size(int layer) {
+            return offsets[layer + 1] - offsets[layer];
+        }
+    }
+
+    /**
+     * Build a graph from node ids, without {@link NodeGroup}s. All nodes are scheduled.
+     */
+    public static final class Builder {
+        private final IntList typeIds = new IntList(16);
+        private final IntList nodeCounts = new IntList(16);
+        private final IntList edgeNodes = new IntList(16);
+        private final IntList edgeDependencies = new IntList(16);
+
+        private Builder() {
+        }
+
+        /**
+         * @return the new node id
+         */
+        public int addNode(int typeId, int nodeCount) {
+            if (typeId < 0)
+                throw new IllegalArgumentException("Invalid type id " + typeId);
+            typeIds.add(typeId);
+            nodeCounts.add(nodeCount);
+            return typeIds.size() - 1;
+        }
+
+        public Builder addDependency(int node, int dependency) {
+            checkNode(node);
+            checkNode(dependency);
+            edgeNodes.add(node);
+            edgeDependencies.add(dependency);
+            return this;
+        }
+
+        public CsrGraph build() {
+            int size = typeIds.size();
+            int[] offsets = new int[size + 1];
+            for (int e = 0; e < edgeNodes.size(); e++)
+                offsets[edgeNodes.get(e) + 1]++;
+            for (int node = 0; node < size; node++)
+                offsets[node + 1] += offsets[node];
+            int[] dependencies = new int[edgeNodes.size()];
+            int[] cursors = Arrays.copyOf(offsets, size);
+            for (int e = 0; e < edgeNodes.size(); e++)
+                dependencies[cursors[edgeNodes.get(e)]++] = edgeDependencies.get(e);
+            return new CsrGraph(size, offsets, dependencies, typeIds.toArray(), nodeCounts.toArray(), null, null);
+        }
+
+        private void checkNode(int node) {
+            if (node < 0 || node >= typeIds.size())
+                throw new IllegalArgumentException("Invalid node id " + node);
+        }
+    }
+
+    private static final class IntList {
+        private int[] values;
+        private int size;
+
+        IntList(int capacity) {
+            values = new int[Math.max(1, capacity)];
+        }
+
+        void add(int value) {
+            if (size == values.length)
+                values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        int get(int index) {
+            return values[index];
+        }
+
+        int size() {
+            return size;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package org.yah.test.dag;
+
+import org.yah.test.dag.DagSandbox.NodeChunk;
+import org.yah.test.dag.DagSandbox.NodeGroup;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * JFR events emitted by {@link DagExecutor}, {@link DataflowScheduler} and {@link AffinityScheduler}.
+ * <p>
+ * Each execution gets a run id, shared by all its events. Events are only created while a recording enables them,
+ * a disabled event costs a flag check. {@link ChromeTrace} converts the recorded events to a timeline.
+ */
+public final class DagEvents {
+
+    public static final String GROUP_EXECUTION = "org.yah.test.dag.GroupExecution";
+    public static final String LAYER_BARRIER = "org.yah.test.dag.LayerBarrier";
+    public static final String SCHEDULING = "org.yah.test.dag.Scheduling";
+
+    private static final AtomicLong RUNS = new AtomicLong();
+
+    private static final EventType GROUP_EXECUTION_TYPE = EventType.getEventType(GroupExecution.class);
+    private static final EventType LAYER_BARRIER_TYPE = EventType.getEventType(LayerBarrier.class);
+    private static final EventType SCHEDULING_TYPE = EventType.getEventType(Scheduling.class);
+
+    private DagEvents() {
+    }
+
+    static long nextRun() {
+        return RUNS.incrementAndGet();
+    }
+
+    /**
+     * Execute a whole group.
+     *
+     * @param layer layer of the group, -1 if executed without layers
+     */
+    static void execute(long run, int layer, NodeGroup group, NodeTask task) throws Exception {
+        if (!GROUP_EXECUTION_TYPE.isEnabled()) {
+            task.execute(group);
+            return;
+        }
+        GroupExecution event = new GroupExecution();
+        event.begin();
+        try {
+            task.execute(group);
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.set(run, layer, group, 0, group.nodeCount());
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Execute a chunk of a group, {@link ChunkedNodeTask#completed(NodeGroup)} is not part of the event.
+     */
+    static void execute(long run, int layer, NodeChunk chunk, ChunkedNodeTask task) throws Exception {
+        if (!GROUP_EXECUTION_TYPE.isEnabled()) {
+            task.execute(chunk.group(), chunk.fromNode(), chunk.toNode());
+            return;
+        }
+        GroupExecution event = new GroupExecution();
+        event.begin();
+        try {
+            task.execute(chunk.group(), chunk.fromNode(), chunk.toNode());
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.set(run, layer, chunk.group(), chunk.fromNode(), chunk.toNode());
+                event.commit();
+            }
+        }
+    }
+
+    static boolean barrierEnabled() {
+        return LAYER_BARRIER_TYPE.isEnabled();
+    }
+
+    /**
+     * @param unitEnds completion time of each unit of the layer, {@link System#nanoTime()}
+     */
+    static void barrier(long run, int layer, int groupCount, long layerStart, long layerEnd, long[] unitEnds) {
+        LayerBarrier event = new LayerBarrier();
+        if (!event.shouldCommit())
+            return;
+        long firstEnd = layerEnd, idle = 0;
+        for (long unitEnd : unitEnds) {
+            firstEnd = Math.min(firstEnd, unitEnd);
+            idle += layerEnd - unitEnd;
+        }
+        event.run = run;
+        event.layer = layer;
+        event.groupCount = groupCount;
+        event.unitCount = unitEnds.length;
+        event.layerNanos = layerEnd - layerStart;
+        event.waitNanos = layerEnd - firstEnd;
+        event.idleNanos = idle;
+        event.commit();
+    }
+
+    /**
+     * @param decision how the group was dispatched : {@code submit}, {@code inline}, {@code split} or
+     *                 {@code steal}
+     * @param units    number of units the group was dispatched as
+     */
+    static void scheduled(long run, NodeGroup group, String decision, int units) {
+        if (!SCHEDULING_TYPE.isEnabled())
+            return;
+        Scheduling event = new Scheduling();
+        event.run = run;
+        event.nodeType = String.valueOf(group.type());
+        event.group = String.valueOf(group);
+        event.decision = decision;
+        event.units = units;
+        event.commit();
+    }
+
+    @Name(GROUP_EXECUTION)
+    @Label("Group Execution")
+    @Category("DAG")
+    @Description("Execution of a NodeGroup, or of a chunk of its nodes")
+    @StackTrace(false)
+    static final class GroupExecution extends Event {
+        @Label("Run")
+        long run;
+        @Label("Layer")
+        int layer;
+        @Label("Node Type")
+        String nodeType;
+        @Label("Group")
+        String group;
+        @Label("From Node")
+        int fromNode;
+        @Label("To Node")
+        int toNode;
+
+        void set(long run, int layer, NodeGroup group, int fromNode, int toNode) {
+            this.run = run;
+            this.layer = layer;
+            this.nodeType = String.valueOf(group.type());
+            this.group = String.valueOf(group);
+            this.fromNode = fromNode;
+            this.toNode = toNode;
+        }
+    }
+
+    @Name(LAYER_BARRIER)
+    @Label("Layer Barrier")
+    @Category("DAG")
+    @Description("Completion of a layer, with the time its workers spent waiting for the slowest unit")
+    @StackTrace(false)
+    static final class LayerBarrier extends Event {
+        @Label("Run")
+        long run;
+        @Label("Layer")
+        int layer;
+        @Label("Group Count")
+        int groupCount;
+        @Label("Unit Count")
+        int unitCount;
+        @Label("Layer Duration")
+        @Timespan
+        long layerNanos;
+        @Label("Barrier Wait")
+        @Description("Time between the first and the last unit completion")
+        @Timespan
+        long waitNanos;
+        @Label("Idle Time")
+        @Description("Sum of the time each unit waited for the last one")
+        @Timespan
+        long idleNanos;
+    }
+
+    @Name(SCHEDULING)
+    @Label("Scheduling Decision")
+    @Category("DAG")
+    @StackTrace(false)
+    static final class Scheduling extends Event {
+        @Label("Run")
+        long run;
+        @Label("Node Type")
+        String nodeType;
+        @Label("Group")
+        String group;
+        @Label("Decision")
+        String decision;
+        @Label("Units")
+        int units;
+    }
+}
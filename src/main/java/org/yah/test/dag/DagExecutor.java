@@ -0,0 +1,186 @@
+package org.yah.test.dag;
+
+import org.yah.test.dag.DagSandbox.NodeChunk;
+import org.yah.test.dag.DagSandbox.NodeGroup;
+import org.yah.test.dag.DagSandbox.NodeType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Execute the layers produced by {@link DagSandbox#parallelizedDag}, layer by layer.
+ * <p>
+ * All groups of a layer are submitted to the executor service, and the next layer starts only once they are all
+ * completed. A failing group stops the execution once its layer completes.
+ * <p>
+ * Groups with a {@link ChunkedNodeTask} and more than {@code grainSize} nodes are split in {@link NodeChunk}s, each
+ * chunk is submitted on its own so that idle workers can pick them up.
+ */
+public final class DagExecutor implements AutoCloseable {
+
+    private final ExecutorService executorService;
+    private final boolean ownsExecutorService;
+    private final int grainSize;
+
+    /**
+     * Create an executor backed by a {@link ForkJoinPool} using all available processors.
+     */
+    public DagExecutor() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public DagExecutor(int parallelism) {
+        this(parallelism, Integer.MAX_VALUE);
+    }
+
+    public DagExecutor(int parallelism, int grainSize) {
+        this(new ForkJoinPool(parallelism), true, grainSize);
+    }
+
+    /**
+     * @param executorService not closed by {@link #close()}
+     */
+    public DagExecutor(ExecutorService executorService) {
+        this(executorService, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param executorService not closed by {@link #close()}
+     * @param grainSize       maximum number of nodes per chunk for groups with a {@link ChunkedNodeTask}
+     */
+    public DagExecutor(ExecutorService executorService, int grainSize) {
+        this(executorService, false, grainSize);
+    }
+
+    private DagExecutor(ExecutorService executorService, boolean ownsExecutorService, int grainSize) {
+        if (grainSize <= 0)
+            throw new IllegalArgumentException("Invalid grain size " + grainSize);
+        this.executorService = Objects.requireNonNull(executorService, "executorService is null");
+        this.ownsExecutorService = ownsExecutorService;
+        this.grainSize = grainSize;
+    }
+
+    public ExecutionReport execute(NodeGroup[][] layers, Map<NodeType, ? extends NodeTask> tasks) throws InterruptedException {
+        return execute(layers, (Function<NodeType, NodeTask>) tasks::get);
+    }
+
+    /**
+     * @param tasks resolve the task of each {@link NodeType}, all tasks are resolved before starting
+     * @throws IllegalArgumentException if a {@link NodeType} has no task
+     */
+    public ExecutionReport execute(NodeGroup[][] layers, Function<? super NodeType, ? extends NodeTask> tasks) throws InterruptedException {
+        long run = DagEvents.nextRun();
+        List<LayerUnits> layerUnits = new ArrayList<>(layers.length);
+        for (int i = 0; i < layers.length; i++) {
+            NodeGroup[] layer = layers[i];
+            LayerUnits units = new LayerUnits(new ArrayList<>(layer.length), new ArrayList<>(layer.length));
+            for (NodeGroup group : layer) {
+                addUnits(run, i, group, resolveTask(group.type(), tasks), units);
+            }
+            layerUnits.add(units);
+        }
+
+        List<LayerTiming> timings = new ArrayList<>(layers.length);
+        long start = System.nanoTime();
+        for (int i = 0; i < layers.length; i++) {
+            long layerStart = System.nanoTime();
+            executeLayer(run, i, layers[i].length, layerUnits.get(i));
+            timings.add(new LayerTiming(i, layers[i].length, System.nanoTime() - layerStart));
+        }
+        return new ExecutionReport(timings, System.nanoTime() - start);
+    }
+
+    private void addUnits(long run, int layer, NodeGroup group, NodeTask task, LayerUnits units) {
+        if (task instanceof ChunkedNodeTask chunkedTask && group.nodeCount() > grainSize) {
+            List<NodeChunk> chunks = NodeChunk.split(group, grainSize);
+            DagEvents.scheduled(run, group, "split", chunks.size());
+            AtomicInteger remainingChunks = new AtomicInteger(chunks.size());
+            for (NodeChunk chunk : chunks) {
+                units.add(group, () -> {
+                    DagEvents.execute(run, layer, chunk, chunkedTask);
+                    if (remainingChunks.decrementAndGet() == 0)
+                        chunkedTask.completed(group);
+                    return System.nanoTime();
+                });
+            }
+        } else {
+            units.add(group, () -> {
+                DagEvents.execute(run, layer, group, task);
+                return System.nanoTime();
+            });
+        }
+    }
+
+    private void executeLayer(long run, int layer, int groupCount, LayerUnits units) throws InterruptedException {
+        if (units.callables.size() == 1) {
+            // nothing to parallelize, save the round trip to the pool
+            try {
+                units.callables.getFirst().call();
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new RuntimeException("Error executing node group " + units.groups.getFirst(), e);
+            }
+            return;
+        }
+
+        long layerStart = System.nanoTime();
+        List<Future<Long>> futures = executorService.invokeAll(units.callables);
+        long layerEnd = System.nanoTime();
+        // completion time of each unit, only read when the barrier is recorded
+        long[] unitEnds = DagEvents.barrierEnabled() ? new long[futures.size()] : null;
+        RuntimeException error = null;
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                long unitEnd = futures.get(i).get();
+                if (unitEnds != null) unitEnds[i] = unitEnd;
+            } catch (ExecutionException e) {
+                RuntimeException groupError = new RuntimeException("Error executing node group " + units.groups.get(i), e.getCause());
+                if (error == null) error = groupError;
+                else error.addSuppressed(groupError);
+            }
+        }
+        if (error != null)
+            throw error;
+        if (unitEnds != null)
+            DagEvents.barrier(run, layer, groupCount, layerStart, layerEnd, unitEnds);
+    }
+
+    static NodeTask resolveTask(NodeType type, Function<? super NodeType, ? extends NodeTask> tasks) {
+        NodeTask task = tasks.apply(type);
+        if (task == null)
+            throw new IllegalArgumentException("No task for NodeType " + type);
+        return task;
+    }
+
+    @Override
+    public void close() {
+        if (ownsExecutorService)
+            executorService.close();
+    }
+
+    /**
+     * Callables submitted for a layer, with the group of each callable. Callables return their completion time.
+     */
+    private record LayerUnits(List<NodeGroup> groups, List<Callable<Long>> callables) {
+        void add(NodeGroup group, Callable<Long> callable) {
+            groups.add(group);
+            callables.add(callable);
+        }
+    }
+
+    public record LayerTiming(int layer, int groupCount, long nanos) {
+    }
+
+    public record ExecutionReport(List<LayerTiming> layers, long totalNanos) {
+    }
+}
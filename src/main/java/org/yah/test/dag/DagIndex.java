@@ -0,0 +1,218 @@
+package org.yah.test.dag;
+
+import org.yah.test.dag.DagSandbox.DependencySupplier;
+import org.yah.test.dag.DagSandbox.NodeGroup;
+
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Frozen view of a set of {@link NodeGroup}, with precomputed depths and transitive dependencies.
+ * <p>
+ * Groups are indexed in topological order, so the ancestors of the group at index {@code i} all have an index
+ * {@code < i}, and are stored as a bitset of {@code i / 64 + 1} words. Memory grows as {@code size² / 16} bytes.
+ * <p>
+ * Later changes to {@link NodeGroup#dependencies()} are not reflected.
+ */
+public final class DagIndex {
+
+    private final NodeGroup[] nodes;
+    private final Map<NodeGroup, Integer> indices;
+    private final int[] depths;
+    // direct dependencies of node i are dependencies[dependencyOffsets[i] .. dependencyOffsets[i + 1]]
+    private final int[] dependencyOffsets;
+    private final int[] dependencies;
+    // ancestors bitset of node i starts at ancestors[ancestorOffsets[i]]
+    private final int[] ancestorOffsets;
+    private final long[] ancestors;
+
+    public static DagIndex create(Collection<NodeGroup> nodes) {
+        return create(nodes, null);
+    }
+
+    /**
+     * Index {@code nodes} and all their transitive dependencies.
+     *
+     * @throws IllegalArgumentException if the dependency graph contains a cycle, or is too large to be indexed
+     */
+    public static DagIndex create(Collection<NodeGroup> nodes, @Nullable DependencySupplier dependencySupplier) {
+        if (dependencySupplier == null)
+            dependencySupplier = NodeGroup::dependencies;
+        return new DagIndex(CsrGraph.of(nodes, dependencySupplier));
+    }
+
+    private DagIndex(CsrGraph graph) {
+        int size = graph.size();
+        int[] order = new int[size];
+        int[] graphDepths = graph.depths(order);
+
+        // remap graph indices to topological indices
+        int[] topologicalIndices = new int[size];
+        for (int i = 0; i < size; i++) topologicalIndices[order[i]] = i;
+
+        nodes = new NodeGroup[size];
+        indices = new IdentityHashMap<>(size * 2);
+        depths = new int[size];
+        dependencyOffsets = new int[size + 1];
+        dependencies = new int[graph.dependencyOffsets[size]];
+        ancestorOffsets = new int[size + 1];
+        for (int i = 0; i < size; i++) {
+            int graphIndex = order[i];
+            nodes[i] = graph.group(graphIndex);
+            indices.put(nodes[i], i);
+            depths[i] = graphDepths[graphIndex];
+            int offset = dependencyOffsets[i];
+            for (int e = graph.dependencyOffsets[graphIndex]; e < graph.dependencyOffsets[graphIndex + 1]; e++)
+                dependencies[offset++] = topologicalIndices[graph.dependencies[e]];
+            dependencyOffsets[i + 1] = offset;
+            try {
+                ancestorOffsets[i + 1] = Math.addExact(ancestorOffsets[i], rowLength(i));
+            } catch (ArithmeticException e) {
+                throw new IllegalArgumentException("Too many node groups to index : " + size);
+            }
+        }
+
+        ancestors = new long[ancestorOffsets[size]];
+        for (int i = 0; i < size; i++) {
+            int row = ancestorOffsets[i];
+            for (int e = dependencyOffsets[i]; e < dependencyOffsets[i + 1]; e++) {
+                int dependency = dependencies[e];
+                int dependencyRow = ancestorOffsets[dependency];
+                int dependencyRowLength = rowLength(dependency);
+                for (int w = 0; w < dependencyRowLength; w++)
+                    ancestors[row + w] |= ancestors[dependencyRow + w];
+                ancestors[row + (dependency >>> 6)] |= 1L << dependency;
+            }
+        }
+    }
+
+    public int size() {
+        return nodes.length;
+    }
+
+    public NodeGroup get(int index) {
+        return nodes[index];
+    }
+
+    /**
+     * @return the topological index of the node, or -1 if not indexed
+     */
+    public int indexOf(NodeGroup node) {
+        Integer index = indices.get(node);
+        return index == null ? -1 : index;
+    }
+
+    public boolean contains(NodeGroup node) {
+        return indices.containsKey(node);
+    }
+
+    public int depth(NodeGroup node) {
+        return depths[requireIndex(node)];
+    }
+
+    public int depth(int index) {
+        return depths[index];
+    }
+
+    public boolean dependsOn(NodeGroup node, NodeGroup other) {
+        return dependsOn(node, other, true);
+    }
+
+    public boolean dependsOn(NodeGroup node, NodeGroup other, boolean transitive) {
+        int index = requireIndex(node), otherIndex = requireIndex(other);
+        if (transitive)
+            return dependsOn(index, otherIndex);
+        for (int e = dependencyOffsets[index]; e < dependencyOffsets[index + 1]; e++) {
+            if (dependencies[e] == otherIndex)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the node at {@code index} transitively depends on the node at {@code otherIndex}
+     */
+    public boolean dependsOn(int index, int otherIndex) {
+        if (otherIndex >= index)
+            return false;
+        return (ancestors[ancestorOffsets[index] + (otherIndex >>> 6)] & (1L << otherIndex)) != 0;
+    }
+
+    /**
+     * @return true if neither node transitively depends on the other, so they can run concurrently
+     */
+    public boolean independent(NodeGroup node, NodeGroup other) {
+        int index = requireIndex(node), otherIndex = requireIndex(other);
+        return index != otherIndex && !dependsOn(index, otherIndex) && !dependsOn(otherIndex, index);
+    }
+
+    public int ancestorCount(NodeGroup node) {
+        int index = requireIndex(node);
+        int row = ancestorOffsets[index];
+        int count = 0;
+        for (int w = 0; w < rowLength(index); w++)
+            count += Long.bitCount(ancestors[row + w]);
+        return count;
+    }
+
+    /**
+     * Visit all transitive dependencies of {@code node}, in topological order.
+     */
+    public void forEachAncestor(NodeGroup node, Consumer<? super NodeGroup> consumer) {
+        int index = requireIndex(node);
+        int row = ancestorOffsets[index];
+        for (int w = 0; w < rowLength(index); w++) {
+            long word = ancestors[row + w];
+            while (word != 0) {
+                consumer.accept(nodes[(w << 6) + Long.numberOfTrailingZeros(word)]);
+                word &= word - 1;
+            }
+        }
+    }
+
+    /**
+     * Visit all groups transitively depending on {@code node}, in topological order.
+     */
+    public void forEachDescendant(NodeGroup node, Consumer<? super NodeGroup> consumer) {
+        int index = requireIndex(node);
+        for (int i = index + 1; i < nodes.length; i++) {
+            if (dependsOn(i, index))
+                consumer.accept(nodes[i]);
+        }
+    }
+
+    int dependencyCount(int index) {
+        return dependencyOffsets[index + 1] - dependencyOffsets[index];
+    }
+
+    /**
+     * @return topological index of the direct dependency at {@code i} of the node at {@code index}
+     */
+    int dependency(int index, int i) {
+        return dependencies[dependencyOffsets[index] + i];
+    }
+
+    /**
+     * Add the ancestors of the node at {@code index} to {@code bits}, {@code bits} must hold at least
+     * {@code index / 64 + 1} words.
+     */
+    void addAncestors(int index, long[] bits) {
+        int row = ancestorOffsets[index];
+        for (int w = 0; w < rowLength(index); w++)
+            bits[w] |= ancestors[row + w];
+    }
+
+    private int requireIndex(NodeGroup node) {
+        Integer index = indices.get(node);
+        if (index == null)
+            throw new IllegalArgumentException("NodeGroup " + node + " is not indexed");
+        return index;
+    }
+
+    private static int rowLength(int index) {
+        return (index >>> 6) + 1;
+    }
+}
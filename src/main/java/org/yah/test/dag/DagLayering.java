@@ -0,0 +1,128 @@
+package org.yah.test.dag;
+
+import org.yah.test.dag.DagSandbox.DependencySupplier;
+import org.yah.test.dag.DagSandbox.NodeGroup;
+import org.yah.test.dag.DagSandbox.ParallelizedLayer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Assign a depth to each {@link NodeGroup} in a single Kahn topological pass.
+ * <p>
+ * The dependency supplier is queried once per reachable group, dependencies outside of the requested nodes are
+ * still walked so that depths match {@link DagSandbox#getDepth(NodeGroup, DependencySupplier)}.
+ */
+public final class DagLayering {
+
+    private DagLayering() {
+    }
+
+    /**
+     * @return the depth of each node, in the iteration order of {@code nodes}
+     * @throws IllegalArgumentException if the dependency graph contains a cycle
+     */
+    public static int[] depths(Collection<NodeGroup> nodes, @Nonnull DependencySupplier dependencySupplier) {
+        return depths(nodes, dependencySupplier, null);
+    }
+
+    /**
+     * Same as {@link #depths(Collection, DependencySupplier)}, with {@link CsrGraph#depths(ForkJoinPool)} if a pool
+     * is given.
+     */
+    public static int[] depths(Collection<NodeGroup> nodes, @Nonnull DependencySupplier dependencySupplier,
+                               @Nullable ForkJoinPool pool) {
+        CsrGraph graph = CsrGraph.of(nodes, dependencySupplier);
+        int[] depths = pool != null ? graph.depths(pool) : graph.depths();
+        int[] res = new int[nodes.size()];
+        int i = 0;
+        for (NodeGroup node : nodes) {
+            res[i++] = depths[graph.indexOf(node)];
+        }
+        return res;
+    }
+
+    /**
+     * @return one {@link ParallelizedLayer} per distinct depth, sorted by depth, groups in {@code nodes} order
+     */
+    @Nonnull
+    public static List<ParallelizedLayer> layers(Collection<NodeGroup> nodes, @Nonnull DependencySupplier dependencySupplier) {
+        return layers(nodes, dependencySupplier, null);
+    }
+
+    /**
+     * Same as {@link #layers(Collection, DependencySupplier)}, depths being computed in parallel if a pool is given.
+     */
+    @Nonnull
+    public static List<ParallelizedLayer> layers(Collection<NodeGroup> nodes, @Nonnull DependencySupplier dependencySupplier,
+                                                 @Nullable ForkJoinPool pool) {
+        int[] depths = depths(nodes, dependencySupplier, pool);
+        int maxDepth = Arrays.stream(depths).max().orElse(-1);
+        ParallelizedLayer[] layersByDepth = new ParallelizedLayer[maxDepth + 1];
+        int i = 0;
+        for (NodeGroup node : nodes) {
+            int depth = depths[i++];
+            ParallelizedLayer layer = layersByDepth[depth];
+            if (layer == null)
+                layer = layersByDepth[depth] = new ParallelizedLayer(depth);
+            layer.add(node);
+        }
+
+        List<ParallelizedLayer> layers = new ArrayList<>(layersByDepth.length);
+        for (ParallelizedLayer layer : layersByDepth) {
+            if (layer != null)
+                layers.add(layer);
+        }
+        return layers;
+    }
+
+    /**
+     * Same as {@link DagSandbox#parallelizedDag(Collection, Integer)}, using a {@link CostModel} instead of node
+     * counts: layers costing more than {@code maxCostPerLayer} are split, groups being packed by increasing cost.
+     * A group costing more than {@code maxCostPerLayer} gets its own layer.
+     *
+     * @throws IllegalArgumentException if the dependency graph contains a cycle
+     */
+    public static NodeGroup[][] costCappedLayers(Collection<NodeGroup> nodes, @Nullable DependencySupplier dependencySupplier,
+                                                 CostModel costModel, double maxCostPerLayer) {
+        if (dependencySupplier == null)
+            dependencySupplier = NodeGroup::dependencies;
+        List<NodeGroup[]> res = new ArrayList<>();
+        for (ParallelizedLayer layer : layers(nodes, dependencySupplier)) {
+            NodeGroup[] groups = layer.toArray();
+            double[] costs = new double[groups.length];
+            double layerCost = 0;
+            for (int i = 0; i < groups.length; i++) {
+                costs[i] = costModel.cost(groups[i]);
+                layerCost += costs[i];
+            }
+            if (layerCost <= maxCostPerLayer) {
+                res.add(groups);
+                continue;
+            }
+
+            // stable sort by cost
+            Integer[] sorted = new Integer[groups.length];
+            for (int i = 0; i < sorted.length; i++) sorted[i] = i;
+            Arrays.sort(sorted, (a, b) -> Double.compare(costs[a], costs[b]));
+            List<NodeGroup> cappedLayer = new ArrayList<>();
+            double cappedCost = 0;
+            for (int i : sorted) {
+                if (!cappedLayer.isEmpty() && cappedCost + costs[i] > maxCostPerLayer) {
+                    res.add(cappedLayer.toArray(NodeGroup[]::new));
+                    cappedLayer.clear();
+                    cappedCost = 0;
+                }
+                cappedLayer.add(groups[i]);
+                cappedCost += costs[i];
+            }
+            res.add(cappedLayer.toArray(NodeGroup[]::new));
+        }
+        return res.toArray(NodeGroup[][]::new);
+    }
+}
@@ -3,6 +3,7 @@ package org.yah.test.dag;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -45,10 +46,13 @@ public class DagSandbox {
             return nodeCount;
         }
 
+        /**
+         * Walk the whole dependency tree, use a {@link DagIndex} for repeated queries.
+         */
         public int depth() {
             if (dependencies.isEmpty())
                 return 0;
-            return 1 + dependencies.stream().mapToInt(NodeGroup::depth).max().orElseThrow();
+            return DagLayering.depths(List.of(this), NodeGroup::dependencies)[0];
         }
 
         public boolean dependsOn(NodeGroup other) {
@@ -58,8 +62,19 @@ public class DagSandbox {
         public boolean dependsOn(NodeGroup other, boolean transitive) {
             if (dependencies.contains(other))
                 return true;
-            if (transitive)
-                return dependencies.stream().anyMatch(dep -> dep.dependsOn(other, true));
+            if (!transitive)
+                return false;
+
+            Set<NodeGroup> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+            Deque<NodeGroup> pending = new ArrayDeque<>(dependencies);
+            while (!pending.isEmpty()) {
+                NodeGroup dependency = pending.pop();
+                if (!visited.add(dependency))
+                    continue;
+                if (dependency.dependencies.contains(other))
+                    return true;
+                pending.addAll(dependency.dependencies);
+            }
             return false;
         }
 
@@ -95,31 +110,80 @@ public class DagSandbox {
         public void sortGroups() {
             nodeGroups.sort(Comparator.comparing(NodeGroup::nodeCount));
         }
+
+        /**
+         * @return the chunks of all groups of this layer, groups larger than {@code grainSize} nodes are split
+         */
+        public List<NodeChunk> chunks(int grainSize) {
+            List<NodeChunk> chunks = new ArrayList<>(nodeGroups.size());
+            for (NodeGroup nodeGroup : nodeGroups) {
+                chunks.addAll(NodeChunk.split(nodeGroup, grainSize));
+            }
+            return chunks;
+        }
+    }
+
+    /**
+     * Range of nodes {@code [fromNode, toNode[} of a {@link NodeGroup}.
+     */
+    public record NodeChunk(NodeGroup group, int fromNode, int toNode) {
+
+        public int nodeCount() {
+            return toNode - fromNode;
+        }
+
+        /**
+         * Split a group in chunks of {@code grainSize} nodes, the last chunk absorbs the remainder if smaller than
+         * half of the grain size.
+         */
+        public static List<NodeChunk> split(NodeGroup group, int grainSize) {
+            if (grainSize <= 0)
+                throw new IllegalArgumentException("Invalid grain size " + grainSize);
+            int count = chunkCount(group.nodeCount(), grainSize);
+            if (count == 1)
+                return List.of(new NodeChunk(group, 0, group.nodeCount()));
+
+            List<NodeChunk> chunks = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int toNode = i == count - 1 ? group.nodeCount() : (i + 1) * grainSize;
+                chunks.add(new NodeChunk(group, i * grainSize, toNode));
+            }
+            return chunks;
+        }
+
+        public static int chunkCount(int nodeCount, int grainSize) {
+            int count = nodeCount / grainSize;
+            if (nodeCount - count * grainSize >= (grainSize + 1) / 2)
+                count++;
+            return Math.max(1, count);
+        }
     }
 
     @FunctionalInterface
     public interface DependencySupplier extends Function<NodeGroup, Collection<NodeGroup>> {
         Collection<NodeGroup> apply(NodeGroup node);
 
+        /**
+         * Add a dependency from each group of a type to all groups of its dependency types.
+         * <p>
+         * Dependencies are resolved once, in O(nodes + edges).
+         */
         static DependencySupplier byType(Collection<NodeGroup> nodes, Map<NodeType, Set<NodeType>> typesDependencies) {
-            Map<NodeGroup, List<NodeGroup>> nodeDependencies = new HashMap<>();
-            for (NodeGroup node : nodes) {
-                List<NodeGroup> dependencies = new LinkedList<>(node.dependencies());
-                Collection<NodeType> nodeTypeDependencies = typesDependencies.get(node.type());
-                if (nodeTypeDependencies != null) {
-                    nodes.stream().filter(n -> nodeTypeDependencies.contains(n.type())).forEach(dependencies::add);
-                }
-                nodeDependencies.put(node, dependencies);
-            }
-
-            return nodeDependencies::get;
+            return new TypeDependencySupplier(nodes, typesDependencies);
         }
     }
 
     public static NodeGroup[] createDag(Collection<NodeGroup> nodes) {
-        List<NodeGroup> layers = new ArrayList<>(nodes);
-        layers.sort(Comparator.comparing(NodeGroup::depth).thenComparing(NodeGroup::type));
-        return layers.toArray(NodeGroup[]::new);
+        record DepthNode(int depth, NodeGroup node) {
+        }
+
+        int[] depths = DagLayering.depths(nodes, NodeGroup::dependencies);
+        List<DepthNode> layers = new ArrayList<>(nodes.size());
+        for (NodeGroup node : nodes) {
+            layers.add(new DepthNode(depths[layers.size()], node));
+        }
+        layers.sort(Comparator.comparingInt(DepthNode::depth).thenComparing(dn -> dn.node().type()));
+        return layers.stream().map(DepthNode::node).toArray(NodeGroup[]::new);
     }
 
     public static NodeGroup[][] parallelizedDag(Collection<NodeGroup> nodes) {
@@ -141,6 +205,23 @@ public class DagSandbox {
                 .toArray(NodeGroup[][]::new);
     }
 
+    /**
+     * Same as {@link #parallelizedDag(Collection, DependencySupplier)}, layering the groups in parallel in
+     * {@code pool}, for very large graphs.
+     */
+    public static NodeGroup[][] parallelizedDag(Collection<NodeGroup> nodes, @Nullable DependencySupplier dependencySupplier,
+                                                ForkJoinPool pool) {
+        if (nodes.isEmpty())
+            return new NodeGroup[0][];
+
+        if (dependencySupplier == null)
+            dependencySupplier = NodeGroup::dependencies;
+
+        return DagLayering.layers(nodes, dependencySupplier, Objects.requireNonNull(pool, "pool is null")).stream()
+                .map(ParallelizedLayer::toArray)
+                .toArray(NodeGroup[][]::new);
+    }
+
     public static NodeGroup[][] parallelizedDag(Collection<NodeGroup> nodes, @Nullable Integer maxNodesPerLayer) {
         if (nodes.isEmpty())
             return new NodeGroup[0][];
@@ -177,45 +258,19 @@ public class DagSandbox {
                 layers = cappedLayers;
         }
 
+        // capped layers are numbered by index while the following ones keep their depth, sorting would reorder them
         return layers.stream()
-                .sorted(Comparator.comparing(ParallelizedLayer::depth))
                 .map(ParallelizedLayer::toArray)
                 .toArray(NodeGroup[][]::new);
     }
 
     @Nonnull
     private static List<ParallelizedLayer> createParallelizedLayers(Collection<NodeGroup> nodes, @Nonnull DependencySupplier dependencySupplier) {
-        List<ParallelizedLayer> layers = new ArrayList<>();
-        for (NodeGroup node : nodes) {
-            int depth = getDepth(node, dependencySupplier);
-
-            ParallelizedLayer layer = layers.stream().filter(pl -> pl.depth == depth).findFirst().orElseGet(() -> {
-                ParallelizedLayer newLayer = new ParallelizedLayer(depth);
-                layers.add(newLayer);
-                return newLayer;
-            });
-
-            layer.add(node);
-        }
-        layers.sort(Comparator.comparing(ParallelizedLayer::depth));
-        return layers;
+        return DagLayering.layers(nodes, dependencySupplier);
     }
 
     public static int getDepth(NodeGroup node, DependencySupplier dependencySupplier) {
-        List<NodeGroup> dependencies = new ArrayList<>(dependencySupplier.apply(node));
-        List<NodeGroup> nextDependencies = new ArrayList<>();
-        int depth = 0;
-        while (!dependencies.isEmpty()) {
-            depth++;
-            nextDependencies.clear();
-            for (NodeGroup dependency : dependencies) {
-                nextDependencies.addAll(dependencySupplier.apply(dependency));
-            }
-            var swap = dependencies;
-            dependencies = nextDependencies;
-            nextDependencies = swap;
-        }
-        return depth;
+        return DagLayering.depths(List.of(node), dependencySupplier)[0];
     }
 
 }
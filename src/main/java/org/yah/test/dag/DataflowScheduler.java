@@ -0,0 +1,256 @@
+package org.yah.test.dag;
+
+import org.yah.test.dag.DagSandbox.DependencySupplier;
+import org.yah.test.dag.DagSandbox.NodeChunk;
+import org.yah.test.dag.DagSandbox.NodeGroup;
+import org.yah.test.dag.DagSandbox.NodeType;
+
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * Execute {@link NodeGroup}s without layer barriers: each group is released as soon as its last dependency completes.
+ * <p>
+ * Dependencies outside of the executed nodes are not executed, but still order their dependents like they do in
+ * {@link DagSandbox#parallelizedDag}. Once a group fails, no other task is started and the first error is thrown
+ * when the already running ones complete.
+ * <p>
+ * Groups with a {@link ChunkedNodeTask} and more than {@code grainSize} nodes are split in {@link NodeChunk}s that
+ * idle workers can pick up, the group completes and releases its dependents when its last chunk completes.
+ */
+public final class DataflowScheduler implements AutoCloseable {
+
+    private final ExecutorService executorService;
+    private final boolean ownsExecutorService;
+    private final int grainSize;
+
+    /**
+     * Create a scheduler backed by a {@link ForkJoinPool} using all available processors.
+     */
+    public DataflowScheduler() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public DataflowScheduler(int parallelism) {
+        this(parallelism, Integer.MAX_VALUE);
+    }
+
+    public DataflowScheduler(int parallelism, int grainSize) {
+        this(new ForkJoinPool(parallelism), true, grainSize);
+    }
+
+    /**
+     * @param executorService not closed by {@link #close()}
+     */
+    public DataflowScheduler(ExecutorService executorService) {
+        this(executorService, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param executorService not closed by {@link #close()}
+     * @param grainSize       maximum number of nodes per chunk for groups with a {@link ChunkedNodeTask}
+     */
+    public DataflowScheduler(ExecutorService executorService, int grainSize) {
+        this(executorService, false, grainSize);
+    }
+
+    private DataflowScheduler(ExecutorService executorService, boolean ownsExecutorService, int grainSize) {
+        if (grainSize <= 0)
+            throw new IllegalArgumentException("Invalid grain size " + grainSize);
+        this.executorService = Objects.requireNonNull(executorService, "executorService is null");
+        this.ownsExecutorService = ownsExecutorService;
+        this.grainSize = grainSize;
+    }
+
+    public ExecutionReport execute(Collection<NodeGroup> nodes, Map<NodeType, ? extends NodeTask> tasks) throws InterruptedException {
+        return execute(nodes, null, (Function<NodeType, NodeTask>) tasks::get);
+    }
+
+    public ExecutionReport execute(Collection<NodeGroup> nodes, Function<? super NodeType, ? extends NodeTask> tasks) throws InterruptedException {
+        return execute(nodes, null, tasks);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the dependency graph contains a cycle, or a {@link NodeType} has no task
+     */
+    public ExecutionReport execute(Collection<NodeGroup> nodes, @Nullable DependencySupplier dependencySupplier,
+                                   Function<? super NodeType, ? extends NodeTask> tasks) throws InterruptedException {
+        if (dependencySupplier == null)
+            dependencySupplier = NodeGroup::dependencies;
+
+        CsrGraph graph = CsrGraph.of(nodes, dependencySupplier);
+        graph.depths(); // fail fast on cycles, would never complete otherwise
+        NodeTask[] nodeTasks = new NodeTask[graph.size()];
+        for (int i = 0; i < graph.scheduledCount(); i++) {
+            nodeTasks[i] = DagExecutor.resolveTask(graph.group(i).type(), tasks);
+        }
+
+        long start = System.nanoTime();
+        Execution execution = new Execution(graph, nodeTasks);
+        execution.start();
+        execution.await();
+        return new ExecutionReport(graph.scheduledCount(), System.nanoTime() - start);
+    }
+
+    @Override
+    public void close() {
+        if (ownsExecutorService)
+            executorService.close();
+    }
+
+    private final class Execution {
+        private final NodeGroup[] nodes;
+        private final NodeTask[] tasks;
+        private final int[] successorOffsets;
+        private final int[] successors;
+        private final AtomicIntegerArray pendingDependencies;
+        private final CountDownLatch remaining;
+        private final AtomicReference<RuntimeException> error = new AtomicReference<>();
+        private final long run = DagEvents.nextRun();
+
+        Execution(CsrGraph graph, NodeTask[] tasks) {
+            this.nodes = graph.groups();
+            this.tasks = tasks;
+            CsrGraph.Successors graphSuccessors = graph.successors();
+            this.successorOffsets = graphSuccessors.offsets();
+            this.successors = graphSuccessors.successors();
+            this.pendingDependencies = new AtomicIntegerArray(graph.size());
+            for (int i = 0; i < graph.size(); i++)
+                pendingDependencies.set(i, graph.dependencyCount(i));
+            this.remaining = new CountDownLatch(graph.size());
+        }
+
+        void start() {
+            // collect roots first, submitted nodes concurrently release other nodes to 0 pending dependencies
+            int[] roots = new int[nodes.length];
+            int rootCount = 0;
+            for (int node = 0; node < nodes.length; node++) {
+                if (pendingDependencies.get(node) == 0)
+                    roots[rootCount++] = node;
+            }
+            for (int i = 0; i < rootCount; i++)
+                submit(roots[i]);
+        }
+
+        void await() throws InterruptedException {
+            remaining.await();
+            RuntimeException e = error.get();
+            if (e != null)
+                throw e;
+        }
+
+        private void submit(int node) {
+            DagEvents.scheduled(run, nodes[node], "submit", 1);
+            executorService.execute(() -> run(node));
+        }
+
+        private void run(int node) {
+            while (true) {
+                NodeGroup group = nodes[node];
+                if (tasks[node] instanceof ChunkedNodeTask chunkedTask && group.nodeCount() > grainSize) {
+                    node = executeChunks(node, chunkedTask);
+                } else {
+                    execute(node);
+                    node = complete(node);
+                }
+                if (node < 0)
+                    return;
+                DagEvents.scheduled(run, nodes[node], "inline", 1);
+            }
+        }
+
+        private void execute(int node) {
+            NodeTask task = tasks[node];
+            if (task == null || error.get() != null)
+                return;
+            try {
+                DagEvents.execute(run, -1, nodes[node], task);
+            } catch (Throwable e) {
+                failed(node, e);
+            }
+        }
+
+        /**
+         * Submit all chunks but the first one, executed on the current thread.
+         *
+         * @return the successor to run on the current thread if the first chunk completed the group, or -1
+         */
+        private int executeChunks(int node, ChunkedNodeTask task) {
+            List<NodeChunk> chunks = NodeChunk.split(nodes[node], grainSize);
+            DagEvents.scheduled(run, nodes[node], "split", chunks.size());
+            AtomicInteger remainingChunks = new AtomicInteger(chunks.size());
+            for (int i = 1; i < chunks.size(); i++) {
+                NodeChunk chunk = chunks.get(i);
+                executorService.execute(() -> {
+                    int next = runChunk(node, task, chunk, remainingChunks);
+                    if (next >= 0) {
+                        DagEvents.scheduled(run, nodes[next], "inline", 1);
+                        run(next);
+                    }
+                });
+            }
+            return runChunk(node, task, chunks.getFirst(), remainingChunks);
+        }
+
+        /**
+         * @return the successor to run on the current thread if this chunk completed the group, or -1. Returned
+         * rather than run here, so that a chain of chunked groups does not grow the stack
+         */
+        private int runChunk(int node, ChunkedNodeTask task, NodeChunk chunk, AtomicInteger remainingChunks) {
+            if (error.get() == null) {
+                try {
+                    DagEvents.execute(run, -1, chunk, task);
+                } catch (Throwable e) {
+                    failed(node, e);
+                }
+            }
+            if (remainingChunks.decrementAndGet() > 0)
+                return -1;
+
+            if (error.get() == null) {
+                try {
+                    task.completed(nodes[node]);
+                } catch (Throwable e) {
+                    failed(node, e);
+                }
+            }
+            return complete(node);
+        }
+
+        private void failed(int node, Throwable e) {
+            error.compareAndSet(null, new RuntimeException("Error executing node group " + nodes[node], e));
+        }
+
+        /**
+         * Release the successors of a completed node.
+         *
+         * @return one of the released successors to run on the current thread, or -1
+         */
+        private int complete(int node) {
+            int next = -1;
+            for (int e = successorOffsets[node]; e < successorOffsets[node + 1]; e++) {
+                int successor = successors[e];
+                if (pendingDependencies.decrementAndGet(successor) == 0) {
+                    if (next >= 0)
+                        submit(next);
+                    next = successor;
+                }
+            }
+            remaining.countDown();
+            return next;
+        }
+    }
+
+    public record ExecutionReport(int groupCount, long totalNanos) {
+    }
+}
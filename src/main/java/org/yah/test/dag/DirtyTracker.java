@@ -0,0 +1,185 @@
+package org.yah.test.dag;
+
+import org.yah.test.dag.DagSandbox.DependencySupplier;
+import org.yah.test.dag.DagSandbox.NodeGroup;
+import org.yah.test.dag.DagSandbox.NodeType;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Track the {@link NodeGroup}s whose inputs changed, so that only them and their downstream cone are executed.
+ * <p>
+ * Marking a group dirty also marks all the groups transitively depending on it. Dirty groups are executed by
+ * {@link #execute(DagExecutor, Function)} or {@link #execute(DataflowScheduler, Function)}, clean groups are
+ * skipped and are expected to reuse their previous outputs. All groups are dirty until their first successful
+ * execution.
+ * <p>
+ * Dependencies outside of the scheduled nodes can be marked to dirty their dependents, but are never executed.
+ * Not thread safe, groups must not be marked while executing.
+ */
+public final class DirtyTracker {
+
+    private final CsrGraph graph;
+    private final DependencySupplier dependencySupplier;
+    private final CsrGraph.Layers layers;
+    private final int[] successorOffsets;
+    private final int[] successors;
+    private final boolean[] dirty;
+
+    public DirtyTracker(Collection<NodeGroup> nodes) {
+        this(nodes, null);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the dependency graph contains a cycle
+     */
+    public DirtyTracker(Collection<NodeGroup> nodes, @Nullable DependencySupplier dependencySupplier) {
+        this.dependencySupplier = dependencySupplier == null ? NodeGroup::dependencies : dependencySupplier;
+        this.graph = CsrGraph.of(nodes, this.dependencySupplier);
+        this.layers = graph.layers();
+        CsrGraph.Successors graphSuccessors = graph.successors();
+        this.successorOffsets = graphSuccessors.offsets();
+        this.successors = graphSuccessors.successors();
+        this.dirty = new boolean[graph.size()];
+        markAllDirty();
+    }
+
+    /**
+     * Mark a group and its downstream cone dirty.
+     *
+     * @throws IllegalArgumentException if the group is neither scheduled nor a dependency of a scheduled group
+     */
+    public void markDirty(NodeGroup group) {
+        int node = graph.indexOf(group);
+        if (node < 0)
+            throw new IllegalArgumentException("NodeGroup " + group + " is not tracked");
+        if (dirty[node])
+            return;
+        // dirty nodes cones are already dirty, stop there
+        int[] pending = new int[16];
+        int pendingCount = 0;
+        pending[pendingCount++] = node;
+        dirty[node] = true;
+        while (pendingCount > 0) {
+            int current = pending[--pendingCount];
+            for (int e = successorOffsets[current]; e < successorOffsets[current + 1]; e++) {
+                int successor = successors[e];
+                if (dirty[successor])
+                    continue;
+                dirty[successor] = true;
+                if (pendingCount == pending.length)
+                    pending = Arrays.copyOf(pending, pendingCount * 2);
+                pending[pendingCount++] = successor;
+            }
+        }
+    }
+
+    public void markAllDirty() {
+        Arrays.fill(dirty, true);
+    }
+
+    public boolean isDirty(NodeGroup group) {
+        int node = graph.indexOf(group);
+        if (node < 0)
+            throw new IllegalArgumentException("NodeGroup " + group + " is not tracked");
+        return dirty[node];
+    }
+
+    /**
+     * @return the dirty scheduled groups
+     */
+    public List<NodeGroup> dirtyGroups() {
+        List<NodeGroup> res = new ArrayList<>();
+        for (int node = 0; node < graph.scheduledCount(); node++) {
+            if (dirty[node])
+                res.add(graph.group(node));
+        }
+        return res;
+    }
+
+    /**
+     * @return the layers of {@link DagSandbox#parallelizedDag(Collection, DependencySupplier)} restricted to the
+     * dirty groups, without the emptied layers
+     */
+    public NodeGroup[][] dirtyLayers() {
+        List<NodeGroup[]> res = new ArrayList<>(layers.count());
+        List<NodeGroup> layer = new ArrayList<>();
+        for (int l = 0; l < layers.count(); l++) {
+            layer.clear();
+            for (int i = layers.offsets()[l]; i < layers.offsets()[l + 1]; i++) {
+                int node = layers.nodes()[i];
+                if (dirty[node])
+                    layer.add(graph.group(node));
+            }
+            if (!layer.isEmpty())
+                res.add(layer.toArray(NodeGroup[]::new));
+        }
+        return res.toArray(NodeGroup[][]::new);
+    }
+
+    /**
+     * Execute the dirty layers, and mark all groups clean if no group failed.
+     */
+    public TickReport execute(DagExecutor executor, Function<? super NodeType, ? extends NodeTask> tasks) throws InterruptedException {
+        NodeGroup[][] dirtyLayers = dirtyLayers();
+        TickReport report = report(dirtyLayers.length);
+        long start = System.nanoTime();
+        executor.execute(dirtyLayers, tasks);
+        clean();
+        return report.withNanos(System.nanoTime() - start);
+    }
+
+    /**
+     * Execute the dirty groups, clean dependencies order them without being executed. All groups are marked clean if
+     * no group failed.
+     */
+    public TickReport execute(DataflowScheduler scheduler, Function<? super NodeType, ? extends NodeTask> tasks) throws InterruptedException {
+        TickReport report = report(0);
+        long start = System.nanoTime();
+        scheduler.execute(dirtyGroups(), dependencySupplier, tasks);
+        clean();
+        return report.withNanos(System.nanoTime() - start);
+    }
+
+    private TickReport report(int layerCount) {
+        int executedGroups = 0;
+        long executedNodes = 0, skippedNodes = 0;
+        for (int node = 0; node < graph.scheduledCount(); node++) {
+            if (dirty[node]) {
+                executedGroups++;
+                executedNodes += graph.nodeCount(node);
+            } else {
+                skippedNodes += graph.nodeCount(node);
+            }
+        }
+        return new TickReport(executedGroups, graph.scheduledCount() - executedGroups, executedNodes, skippedNodes,
+                layerCount, 0);
+    }
+
+    private void clean() {
+        Arrays.fill(dirty, false);
+    }
+
+    /**
+     * @param layerCount executed layers, 0 when executed without layers
+     */
+    public record TickReport(int executedGroups, int skippedGroups, long executedNodes, long skippedNodes,
+                             int layerCount, long totalNanos) {
+        /**
+         * @return the ratio of skipped nodes, in [0, 1]
+         */
+        public double skippedRatio() {
+            long total = executedNodes + skippedNodes;
+            return total == 0 ? 0 : (double) skippedNodes / total;
+        }
+
+        TickReport withNanos(long nanos) {
+            return new TickReport(executedGroups, skippedGroups, executedNodes, skippedNodes, layerCount, nanos);
+        }
+    }
+}
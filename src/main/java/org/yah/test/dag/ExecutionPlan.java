@@ -0,0 +1,299 @@
+package org.yah.test.dag;
+
+import org.yah.test.dag.DagSandbox.DependencySupplier;
+import org.yah.test.dag.DagSandbox.NodeGroup;
+import org.yah.test.dag.DagSandbox.NodeType;
+
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+/**
+ * Immutable flat execution plan of a DAG, compiled once and executed on every tick by a {@link Runner}.
+ * <p>
+ * The plan holds the groups, their resolved {@link NodeTask}s, dependency counts and successor lists as arrays
+ * indexed by node id. Dependencies outside of the scheduled nodes are part of the plan with no task, so that they
+ * still order their dependents like they do in {@link DataflowScheduler}.
+ * <p>
+ * {@link ChunkedNodeTask}s are executed as plain {@link NodeTask}s, groups are never split.
+ */
+public final class ExecutionPlan {
+
+    private final NodeGroup[] groups;
+    private final int scheduledCount;
+    private final NodeTask[] tasks;
+    private final int[] dependencyCounts;
+    private final int[] successorOffsets;
+    private final int[] successors;
+    private final int[] roots;
+
+    private ExecutionPlan(NodeGroup[] groups, int scheduledCount, NodeTask[] tasks, int[] dependencyCounts,
+                          int[] successorOffsets, int[] successors, int[] roots) {
+        this.groups = groups;
+        this.scheduledCount = scheduledCount;
+        this.tasks = tasks;
+        this.dependencyCounts = dependencyCounts;
+        this.successorOffsets = successorOffsets;
+        this.successors = successors;
+        this.roots = roots;
+    }
+
+    public static ExecutionPlan compile(Collection<NodeGroup> nodes, Function<? super NodeType, ? extends NodeTask> tasks) {
+        return compile(nodes, null, tasks);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the dependency graph contains a cycle, or a scheduled group has no task
+     */
+    public static ExecutionPlan compile(Collection<NodeGroup> nodes, @Nullable DependencySupplier dependencySupplier,
+                                       Function<? super NodeType, ? extends NodeTask> tasks) {
+        CsrGraph graph = CsrGraph.of(nodes, dependencySupplier);
+        // fail on cycles at compile time rather than dead locking the runner
+        graph.depths();
+
+        int size = graph.size();
+        NodeTask[] nodeTasks = new NodeTask[size];
+        for (int node = 0; node < graph.scheduledCount(); node++)
+            nodeTasks[node] = DagExecutor.resolveTask(graph.group(node).type(), tasks);
+
+        int[] dependencyCounts = new int[size];
+        int rootCount = 0;
+        for (int node = 0; node < size; node++) {
+            dependencyCounts[node] = graph.dependencyCount(node);
+            if (dependencyCounts[node] == 0) rootCount++;
+        }
+        int[] roots = new int[rootCount];
+        rootCount = 0;
+        for (int node = 0; node < size; node++) {
+            if (dependencyCounts[node] == 0) roots[rootCount++] = node;
+        }
+
+        CsrGraph.Successors graphSuccessors = graph.successors();
+        return new ExecutionPlan(graph.groups().clone(), graph.scheduledCount(), nodeTasks, dependencyCounts,
+                graphSuccessors.offsets(), graphSuccessors.successors(), roots);
+    }
+
+    /**
+     * @return number of nodes in the plan, including the dependencies outside of the scheduled nodes
+     */
+    public int size() {
+        return groups.length;
+    }
+
+    public int scheduledCount() {
+        return scheduledCount;
+    }
+
+    public NodeGroup group(int node) {
+        return groups[node];
+    }
+
+    /**
+     * Execute an {@link ExecutionPlan} on the calling thread and {@code parallelism - 1} dedicated worker threads.
+     * <p>
+     * All the tick state is allocated by the constructor, {@link #run()} allocates nothing unless a task fails or
+     * allocates itself. Each node is made ready exactly once per tick, so ready nodes are appended to a single array
+     * of {@link ExecutionPlan#size()} slots: workers claim the next slot with a counter and spin until it is published,
+     * then park until the publisher unparks them, so that a serial stretch of the plan does not burn the idle cores.
+     * Idle workers are parked between ticks.
+     * <p>
+     * Once a group fails, the remaining tasks are skipped and the first error is thrown at the end of the tick.
+     * Ticks must not be run concurrently.
+     */
+    public static final class Runner implements AutoCloseable {
+
+        // spins before yielding or parking while waiting for a slot or the workers
+        private static final int SPIN_COUNT = 64;
+        // yields before parking while waiting for a slot
+        private static final int YIELD_COUNT = 16;
+
+        private final ExecutionPlan plan;
+        private final Thread[] workers;
+        private final AtomicIntegerArray pendingDependencies;
+        // node + 1 of each claimed slot, 0 until published
+        private final AtomicIntegerArray ready;
+        // thread parked on each claimed slot, unparked by the publisher
+        private final AtomicReferenceArray<Thread> slotWaiters;
+        private final AtomicInteger readyHead = new AtomicInteger();
+        private final AtomicInteger readyTail = new AtomicInteger();
+        private final AtomicInteger activeWorkers = new AtomicInteger();
+        private final AtomicReference<RuntimeException> error = new AtomicReference<>();
+        private volatile int generation;
+        private volatile boolean closed;
+        @Nullable
+        private volatile Thread caller;
+
+        public Runner(ExecutionPlan plan) {
+            this(plan, Runtime.getRuntime().availableProcessors());
+        }
+
+        public Runner(ExecutionPlan plan, int parallelism) {
+            if (parallelism <= 0)
+                throw new IllegalArgumentException("Invalid parallelism " + parallelism);
+            this.plan = plan;
+            this.pendingDependencies = new AtomicIntegerArray(plan.size());
+            this.ready = new AtomicIntegerArray(plan.size());
+            this.slotWaiters = new AtomicReferenceArray<>(plan.size());
+            this.workers = new Thread[parallelism - 1];
+            for (int i = 0; i < workers.length; i++) {
+                workers[i] = new Thread(this::work, "plan-runner-" + i);
+                workers[i].setDaemon(true);
+                workers[i].start();
+            }
+        }
+
+        public ExecutionPlan plan() {
+            return plan;
+        }
+
+        /**
+         * Execute one tick of the plan, and wait for its completion.
+         *
+         * @throws RuntimeException      wrapping the first task error
+         * @throws IllegalStateException if the runner is closed
+         */
+        public void run() {
+            if (closed)
+                throw new IllegalStateException("Runner is closed");
+            reset();
+            caller = Thread.currentThread();
+            activeWorkers.set(workers.length);
+            generation++;
+            for (Thread worker : workers)
+                LockSupport.unpark(worker);
+
+            executeReady();
+            awaitWorkers();
+
+            RuntimeException e = error.get();
+            if (e != null) {
+                error.set(null);
+                throw e;
+            }
+        }
+
+        private void reset() {
+            ExecutionPlan plan = this.plan;
+            for (int node = 0; node < plan.size(); node++) {
+                pendingDependencies.set(node, plan.dependencyCounts[node]);
+                ready.set(node, 0);
+            }
+            for (int i = 0; i < plan.roots.length; i++)
+                ready.set(i, plan.roots[i] + 1);
+            readyHead.set(0);
+            readyTail.set(plan.roots.length);
+        }
+
+        private void work() {
+            int seenGeneration = 0;
+            while (true) {
+                int spins = 0;
+                while (generation == seenGeneration && !closed) {
+                    if (++spins < SPIN_COUNT) Thread.onSpinWait();
+                    else LockSupport.park(this);
+                }
+                if (closed)
+                    return;
+                seenGeneration = generation;
+                executeReady();
+                if (activeWorkers.decrementAndGet() == 0)
+                    LockSupport.unpark(caller);
+            }
+        }
+
+        private void awaitWorkers() {
+            int spins = 0;
+            while (activeWorkers.get() > 0) {
+                if (++spins < SPIN_COUNT) Thread.onSpinWait();
+                else LockSupport.park(this);
+            }
+        }
+
+        /**
+         * Claim and execute ready slots until all the slots of the tick are claimed.
+         */
+        private void executeReady() {
+            ExecutionPlan plan = this.plan;
+            int size = plan.size();
+            int slot;
+            while ((slot = readyHead.getAndIncrement()) < size) {
+                int node = awaitSlot(slot) - 1;
+                execute(node);
+                for (int e = plan.successorOffsets[node]; e < plan.successorOffsets[node + 1]; e++) {
+                    int successor = plan.successors[e];
+                    if (pendingDependencies.decrementAndGet(successor) == 0)
+                        publish(readyTail.getAndIncrement(), successor);
+                }
+            }
+        }
+
+        private void publish(int slot, int node) {
+            ready.set(slot, node + 1);
+            Thread waiter = slotWaiters.get(slot);
+            if (waiter != null)
+                LockSupport.unpark(waiter);
+        }
+
+        private int awaitSlot(int slot) {
+            int spins = 0;
+            int value;
+            while ((value = ready.get(slot)) == 0) {
+                if (++spins < SPIN_COUNT) {
+                    Thread.onSpinWait();
+                } else if (spins < SPIN_COUNT + YIELD_COUNT) {
+                    Thread.yield();
+                } else {
+                    // registered before the check, either the publisher sees the waiter or the waiter sees the node
+                    slotWaiters.set(slot, Thread.currentThread());
+                    if ((value = ready.get(slot)) != 0)
+                        break;
+                    LockSupport.park(this);
+                }
+            }
+            if (spins >= SPIN_COUNT + YIELD_COUNT)
+                slotWaiters.set(slot, null);
+            return value;
+        }
+
+        private void execute(int node) {
+            NodeTask task = plan.tasks[node];
+            if (task == null || error.get() != null)
+                return;
+            try {
+                task.execute(plan.groups[node]);
+            } catch (Throwable e) {
+                error.compareAndSet(null, new RuntimeException("Error executing node group " + plan.groups[node], e));
+            }
+        }
+
+        /**
+         * Stop the worker threads, waiting for them to exit.
+         */
+        @Override
+        public void close() {
+            closed = true;
+            for (Thread worker : workers)
+                LockSupport.unpark(worker);
+            for (Thread worker : workers) {
+                try {
+                    worker.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+
+        long[] workerThreadIds() {
+            long[] ids = new long[workers.length];
+            for (int i = 0; i < workers.length; i++)
+                ids[i] = workers[i].threadId();
+            return ids;
+        }
+    }
+}
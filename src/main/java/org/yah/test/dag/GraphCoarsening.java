@@ -0,0 +1,256 @@
+package org.yah.test.dag;
+
+import org.yah.test.dag.DagSandbox.DependencySupplier;
+import org.yah.test.dag.DagSandbox.NodeGroup;
+import org.yah.test.dag.DagSandbox.NodeType;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Fuse groups into {@link FusedGroup}s executed back-to-back on one thread, to save a layer barrier or a task
+ * submission per fused group.
+ * <p>
+ * A group is only fused into the group of its single dependency, so the incoming edges of a fused group all target
+ * its first member and the coarse graph stays acyclic. Members keep a topological order and are executed in that
+ * order.
+ * <p>
+ * Dependencies outside of the scheduled nodes are never fused.
+ */
+public final class GraphCoarsening {
+
+    /**
+     * Type of all {@link FusedGroup}s, use {@link #tasks(Function)} to execute them.
+     */
+    public static final NodeType FUSED = new FusedType();
+
+    private GraphCoarsening() {
+    }
+
+    public static CoarseGraph fuseChains(Collection<NodeGroup> nodes) {
+        return fuseChains(nodes, null);
+    }
+
+    /**
+     * Fuse chains: groups having a single dependency, itself having a single dependent.
+     *
+     * @throws IllegalArgumentException if the dependency graph contains a cycle
+     */
+    public static CoarseGraph fuseChains(Collection<NodeGroup> nodes, @Nullable DependencySupplier dependencySupplier) {
+        return fuse(nodes, dependencySupplier, null, 0);
+    }
+
+    /**
+     * Same as {@link #fuseChains(Collection, DependencySupplier)}, also fusing a group with a single dependency when
+     * the cost of the resulting fused group is at most {@code costThreshold}, even if that dependency has other
+     * dependents. Those dependents then wait for the whole fused group.
+     *
+     * @throws IllegalArgumentException if the dependency graph contains a cycle, or a cost is negative
+     */
+    public static CoarseGraph coarsen(Collection<NodeGroup> nodes, @Nullable DependencySupplier dependencySupplier,
+                                      CostModel costModel, double costThreshold) {
+        return fuse(nodes, dependencySupplier, costModel, costThreshold);
+    }
+
+    /**
+     * @return tasks executing each member of a {@link FusedGroup} with its own task, other groups with
+     * {@code tasks}
+     */
+    public static Function<NodeType, NodeTask> tasks(Function<? super NodeType, ? extends NodeTask> tasks) {
+        NodeTask fusedTask = group -> {
+            for (NodeGroup member : ((FusedGroup) group).groups())
+                DagExecutor.resolveTask(member.type(), tasks).execute(member);
+        };
+        return type -> type == FUSED ? fusedTask : tasks.apply(type);
+    }
+
+    private static CoarseGraph fuse(Collection<NodeGroup> nodes, @Nullable DependencySupplier dependencySupplier,
+                                    @Nullable CostModel costModel, double costThreshold) {
+        CsrGraph graph = CsrGraph.of(nodes, dependencySupplier);
+        int size = graph.size(), scheduledCount = graph.scheduledCount();
+        int[] order = new int[size];
+        graph.depths(order);
+        int[] successorOffsets = graph.successors().offsets();
+
+        // cluster of each scheduled node is the id of its first member, clusters costs are indexed by first member
+        int[] clusters = new int[scheduledCount];
+        double[] clusterCosts = costModel != null ? new double[scheduledCount] : null;
+        List<List<NodeGroup>> members = new ArrayList<>(Collections.nCopies(scheduledCount, null));
+        for (int node : order) {
+            if (node >= scheduledCount)
+                continue;
+            double cost = 0;
+            if (clusterCosts != null) {
+                cost = costModel.cost(graph.group(node));
+                if (cost < 0 || Double.isNaN(cost))
+                    throw new IllegalArgumentException("Invalid cost " + cost + " for node group " + graph.group(node));
+            }
+            int cluster = node;
+            if (graph.dependencyCount(node) == 1) {
+                int dependency = graph.dependency(node, 0);
+                if (dependency < scheduledCount) {
+                    boolean chain = successorOffsets[dependency + 1] - successorOffsets[dependency] == 1;
+                    if (chain || clusterCosts != null && clusterCosts[clusters[dependency]] + cost <= costThreshold)
+                        cluster = clusters[dependency];
+                }
+            }
+            clusters[node] = cluster;
+            if (clusterCosts != null)
+                clusterCosts[cluster] += cost;
+            if (members.get(cluster) == null)
+                members.set(cluster, new ArrayList<>());
+            members.get(cluster).add(graph.group(node));
+        }
+
+        NodeGroup[] coarseGroups = new NodeGroup[size];
+        List<NodeGroup> coarseNodes = new ArrayList<>();
+        Map<NodeGroup, NodeGroup> originalToCoarse = new IdentityHashMap<>(scheduledCount * 2);
+        for (int node = 0; node < size; node++) {
+            if (node >= scheduledCount) {
+                coarseGroups[node] = graph.group(node);
+                continue;
+            }
+            int cluster = clusters[node];
+            if (coarseGroups[cluster] == null) {
+                List<NodeGroup> clusterMembers = members.get(cluster);
+                coarseGroups[cluster] = clusterMembers.size() == 1 ? clusterMembers.getFirst() : new FusedGroup(clusterMembers);
+                coarseNodes.add(coarseGroups[cluster]);
+            }
+            coarseGroups[node] = coarseGroups[cluster];
+            originalToCoarse.put(graph.group(node), coarseGroups[cluster]);
+        }
+
+        Map<NodeGroup, List<NodeGroup>> coarseDependencies = new IdentityHashMap<>(size * 2);
+        for (int node = 0; node < size; node++) {
+            NodeGroup coarseGroup = coarseGroups[node];
+            List<NodeGroup> dependencies = coarseDependencies.computeIfAbsent(coarseGroup, g -> new ArrayList<>());
+            for (int i = 0; i < graph.dependencyCount(node); i++) {
+                NodeGroup dependency = coarseGroups[graph.dependency(node, i)];
+                if (dependency != coarseGroup && !containsInstance(dependencies, dependency))
+                    dependencies.add(dependency);
+            }
+        }
+        for (Map.Entry<NodeGroup, List<NodeGroup>> entry : coarseDependencies.entrySet()) {
+            entry.setValue(Collections.unmodifiableList(entry.getValue()));
+            if (entry.getKey() instanceof FusedGroup fusedGroup)
+                fusedGroup.dependencies().addAll(entry.getValue());
+        }
+        return new CoarseGraph(Collections.unmodifiableList(coarseNodes), originalToCoarse, coarseDependencies);
+    }
+
+    private static boolean containsInstance(List<NodeGroup> groups, NodeGroup group) {
+        for (NodeGroup g : groups) {
+            if (g == group)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Result of a coarsening pass.
+     */
+    public static final class CoarseGraph {
+        private final List<NodeGroup> nodes;
+        private final Map<NodeGroup, NodeGroup> originalToCoarse;
+        private final Map<NodeGroup, List<NodeGroup>> dependencies;
+
+        private CoarseGraph(List<NodeGroup> nodes, Map<NodeGroup, NodeGroup> originalToCoarse,
+                            Map<NodeGroup, List<NodeGroup>> dependencies) {
+            this.nodes = nodes;
+            this.originalToCoarse = originalToCoarse;
+            this.dependencies = dependencies;
+        }
+
+        /**
+         * @return coarse groups, ordered by first member in the original nodes order
+         */
+        public List<NodeGroup> nodes() {
+            return nodes;
+        }
+
+        /**
+         * Dependencies between coarse groups, dependencies outside of the scheduled nodes are kept. Unknown groups
+         * have no dependency.
+         */
+        public DependencySupplier dependencySupplier() {
+            return node -> dependencies.getOrDefault(node, List.of());
+        }
+
+        public int fusedGroupCount() {
+            int count = 0;
+            for (NodeGroup node : nodes) {
+                if (node instanceof FusedGroup)
+                    count++;
+            }
+            return count;
+        }
+
+        /**
+         * @return the coarse group executing {@code original}, {@code original} itself if it was not fused
+         * @throws IllegalArgumentException if {@code original} was not scheduled
+         */
+        public NodeGroup coarseGroup(NodeGroup original) {
+            NodeGroup coarse = originalToCoarse.get(original);
+            if (coarse == null)
+                throw new IllegalArgumentException("NodeGroup " + original + " was not scheduled");
+            return coarse;
+        }
+
+        /**
+         * @return the original groups of a coarse group, in execution order
+         */
+        public List<NodeGroup> originals(NodeGroup coarse) {
+            if (coarse instanceof FusedGroup fusedGroup)
+                return fusedGroup.groups();
+            return List.of(coarse);
+        }
+
+        /**
+         * @return the original groups of each coarse group of {@code coarseGroups}, in execution order
+         */
+        public List<NodeGroup> expand(NodeGroup[] coarseGroups) {
+            List<NodeGroup> res = new ArrayList<>(coarseGroups.length);
+            for (NodeGroup coarse : coarseGroups)
+                res.addAll(originals(coarse));
+            return res;
+        }
+
+        public NodeGroup[][] parallelizedDag() {
+            return DagSandbox.parallelizedDag(nodes, dependencySupplier());
+        }
+    }
+
+    /**
+     * Groups executed back-to-back, in order. The node count is the sum of the members node counts.
+     */
+    public static final class FusedGroup extends NodeGroup {
+        private final List<NodeGroup> groups;
+
+        private FusedGroup(List<NodeGroup> groups) {
+            super(FUSED, groups.stream().mapToInt(NodeGroup::nodeCount).sum());
+            this.groups = Collections.unmodifiableList(groups);
+        }
+
+        public List<NodeGroup> groups() {
+            return groups;
+        }
+
+        @Override
+        public String toString() {
+            return "FusedGroup" + groups;
+        }
+    }
+
+    private static final class FusedType implements NodeType {
+        @Override
+        public String toString() {
+            return "FUSED";
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package org.yah.test.dag;
+
+import org.yah.test.dag.DagSandbox.DependencySupplier;
+import org.yah.test.dag.DagSandbox.NodeGroup;
+import org.yah.test.dag.DagSandbox.ParallelizedLayer;
+
+import javax.annotation.Nullable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Mutable parallelized schedule, maintained incrementally while {@link NodeGroup}s and dependencies are edited.
+ * <p>
+ * Each edit only recomputes the depths of the downstream cone of the edited groups, and only the layers whose
+ * content changed are rebuilt by {@link #toArray()}. Layers hold the same groups as
+ * {@link DagSandbox#parallelizedDag(Collection, DependencySupplier)} with {@link #dependencies(NodeGroup)} as
+ * supplier.
+ * <p>
+ * The schedule keeps its own copy of the dependencies: {@link NodeGroup#dependencies()} is read when a group is
+ * added, but never modified. All dependencies must be part of the schedule.
+ */
+public final class IncrementalSchedule {
+
+    // NodeGroup and Entry use identity equality, linked collections keep the layers order stable
+    private final Map<NodeGroup, Entry> entries = new LinkedHashMap<>();
+    private final List<Layer> layers = new ArrayList<>();
+
+    public IncrementalSchedule() {
+    }
+
+    public IncrementalSchedule(Collection<NodeGroup> nodes) {
+        this(nodes, null);
+    }
+
+    /**
+     * @throws IllegalArgumentException if a dependency is not in {@code nodes}, or if the dependencies contain a cycle
+     */
+    public IncrementalSchedule(Collection<NodeGroup> nodes, @Nullable DependencySupplier dependencySupplier) {
+        if (dependencySupplier == null)
+            dependencySupplier = NodeGroup::dependencies;
+        for (NodeGroup node : nodes) {
+            if (!entries.containsKey(node))
+                entries.put(node, new Entry(node));
+        }
+        for (Entry entry : entries.values()) {
+            for (NodeGroup dependency : dependencySupplier.apply(entry.group))
+                link(entry, requireEntry(dependency));
+        }
+        updateDepths(entries.values());
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public boolean contains(NodeGroup node) {
+        return entries.containsKey(node);
+    }
+
+    public int depth(NodeGroup node) {
+        return requireEntry(node).depth;
+    }
+
+    /**
+     * @return the dependencies of a scheduled group
+     */
+    public List<NodeGroup> dependencies(NodeGroup node) {
+        List<Entry> dependencies = requireEntry(node).dependencies;
+        List<NodeGroup> res = new ArrayList<>(dependencies.size());
+        for (Entry dependency : dependencies) res.add(dependency.group);
+        return res;
+    }
+
+    public void add(NodeGroup node) {
+        add(node, node.dependencies());
+    }
+
+    /**
+     * @throws IllegalArgumentException if the node is already scheduled, or a dependency is not
+     */
+    public void add(NodeGroup node, Collection<NodeGroup> dependencies) {
+        if (entries.containsKey(node))
+            throw new IllegalArgumentException("NodeGroup " + node + " is already scheduled");
+        List<Entry> dependencyEntries = new ArrayList<>(dependencies.size());
+        for (NodeGroup dependency : dependencies)
+            dependencyEntries.add(requireEntry(dependency));
+
+        Entry entry = new Entry(node);
+        entries.put(node, entry);
+        for (Entry dependency : dependencyEntries)
+            link(entry, dependency);
+        // a new group has no dependent, its cone is itself
+        updateDepths(List.of(entry));
+    }
+
+    /**
+     * @throws IllegalStateException if other groups still depend on {@code node}
+     */
+    public void remove(NodeGroup node) {
+        Entry entry = requireEntry(node);
+        if (!entry.dependents.isEmpty())
+            throw new IllegalStateException("Can not remove " + node + ", " + entry.dependents.size() + " groups depend on it");
+        for (Entry dependency : entry.dependencies)
+            removeFirst(dependency.dependents, entry);
+        entries.remove(node);
+        if (entry.depth >= 0)
+            layer(entry.depth).remove(node);
+        trimLayers();
+    }
+
+    /**
+     * @throws IllegalArgumentException if the dependency would create a cycle
+     */
+    public void addDependency(NodeGroup node, NodeGroup dependency) {
+        Entry entry = requireEntry(node), dependencyEntry = requireEntry(dependency);
+        if (entry == dependencyEntry || dependsOn(dependencyEntry, entry))
+            throw new IllegalArgumentException("Dependency from " + node + " to " + dependency + " would create a cycle");
+        link(entry, dependencyEntry);
+        updateDepths(List.of(entry));
+    }
+
+    /**
+     * @return false if {@code node} did not depend on {@code dependency}
+     */
+    public boolean removeDependency(NodeGroup node, NodeGroup dependency) {
+        Entry entry = requireEntry(node), dependencyEntry = requireEntry(dependency);
+        if (!removeFirst(entry.dependencies, dependencyEntry))
+            return false;
+        removeFirst(dependencyEntry.dependents, entry);
+        updateDepths(List.of(entry));
+        trimLayers();
+        return true;
+    }
+
+    public int layerCount() {
+        return layers.size();
+    }
+
+    /**
+     * @return the groups of each depth, unchanged layers arrays are reused from the previous call and must not be
+     * modified
+     */
+    public NodeGroup[][] toArray() {
+        NodeGroup[][] res = new NodeGroup[layers.size()][];
+        for (int depth = 0; depth < res.length; depth++)
+            res[depth] = layers.get(depth).toArray();
+        return res;
+    }
+
+    public List<ParallelizedLayer> layers() {
+        List<ParallelizedLayer> res = new ArrayList<>(layers.size());
+        for (int depth = 0; depth < layers.size(); depth++)
+            res.add(new ParallelizedLayer(depth, new ArrayList<>(layers.get(depth).groups)));
+        return res;
+    }
+
+    /**
+     * Recompute the depth of all groups depending on {@code roots}, in topological order of the cone.
+     */
+    private void updateDepths(Collection<Entry> roots) {
+        Set<Entry> cone = new LinkedHashSet<>();
+        Deque<Entry> pending = new ArrayDeque<>(roots);
+        while (!pending.isEmpty()) {
+            Entry entry = pending.pop();
+            if (cone.add(entry))
+                pending.addAll(entry.dependents);
+        }
+
+        Deque<Entry> queue = new ArrayDeque<>();
+        for (Entry entry : cone) {
+            entry.pendingDependencies = 0;
+            for (Entry dependency : entry.dependencies) {
+                if (cone.contains(dependency))
+                    entry.pendingDependencies++;
+            }
+            if (entry.pendingDependencies == 0)
+                queue.add(entry);
+        }
+
+        int processed = 0;
+        while (!queue.isEmpty()) {
+            Entry entry = queue.poll();
+            processed++;
+            int depth = 0;
+            for (Entry dependency : entry.dependencies)
+                depth = Math.max(depth, dependency.depth + 1);
+            setDepth(entry, depth);
+            for (Entry dependent : entry.dependents) {
+                if (--dependent.pendingDependencies == 0)
+                    queue.add(dependent);
+            }
+        }
+        if (processed < cone.size())
+            throw new IllegalArgumentException("Dependency cycle detected between " + (cone.size() - processed) + " node groups");
+    }
+
+    private void setDepth(Entry entry, int depth) {
+        if (entry.depth == depth)
+            return;
+        if (entry.depth >= 0)
+            layer(entry.depth).remove(entry.group);
+        entry.depth = depth;
+        layer(depth).add(entry.group);
+    }
+
+    private Layer layer(int depth) {
+        while (layers.size() <= depth)
+            layers.add(new Layer());
+        return layers.get(depth);
+    }
+
+    private void trimLayers() {
+        while (!layers.isEmpty() && layers.getLast().groups.isEmpty())
+            layers.removeLast();
+    }
+
+    /**
+     * @return true if {@code entry} transitively depends on {@code other}
+     */
+    private static boolean dependsOn(Entry entry, Entry other) {
+        // only groups deeper than other can depend on it
+        Set<Entry> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<Entry> pending = new ArrayDeque<>();
+        pending.push(entry);
+        while (!pending.isEmpty()) {
+            Entry current = pending.pop();
+            if (current.depth <= other.depth || !visited.add(current))
+                continue;
+            for (Entry dependency : current.dependencies) {
+                if (dependency == other)
+                    return true;
+                pending.push(dependency);
+            }
+        }
+        return false;
+    }
+
+    private static void link(Entry entry, Entry dependency) {
+        entry.dependencies.add(dependency);
+        dependency.dependents.add(entry);
+    }
+
+    private static boolean removeFirst(List<Entry> entries, Entry entry) {
+        for (int i = 0; i < entries.size(); i++) {
+            if (entries.get(i) == entry) {
+                entries.remove(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Entry requireEntry(NodeGroup node) {
+        Entry entry = entries.get(node);
+        if (entry == null)
+            throw new IllegalArgumentException("NodeGroup " + node + " is not scheduled");
+        return entry;
+    }
+
+    private static final class Entry {
+        private final NodeGroup group;
+        private final List<Entry> dependencies = new ArrayList<>();
+        private final List<Entry> dependents = new ArrayList<>();
+        private int depth = -1;
+        // scratch counter of updateDepths
+        private int pendingDependencies;
+
+        private Entry(NodeGroup group) {
+            this.group = group;
+        }
+    }
+
+    private static final class Layer {
+        private final Set<NodeGroup> groups = new LinkedHashSet<>();
+        @Nullable
+        private NodeGroup[] array;
+
+        void add(NodeGroup group) {
+            groups.add(group);
+            array = null;
+        }
+
+        void remove(NodeGroup group) {
+            groups.remove(group);
+            array = null;
+        }
+
+        NodeGroup[] toArray() {
+            if (array == null)
+                array = groups.toArray(NodeGroup[]::new);
+            return array;
+        }
+    }
+}
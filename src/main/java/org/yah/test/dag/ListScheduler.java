@@ -0,0 +1,135 @@
+package org.yah.test.dag;
+
+import org.yah.test.dag.DagSandbox.DependencySupplier;
+import org.yah.test.dag.DagSandbox.NodeGroup;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Cost weighted list scheduling of {@link NodeGroup}s on a fixed number of identical workers.
+ * <p>
+ * Groups are prioritized by upward rank (HEFT): their own cost plus the most expensive path to an exit group, so
+ * groups on the critical path are dispatched first. Each group is then assigned to the worker where it finishes
+ * the earliest.
+ * <p>
+ * Dependencies outside of the scheduled nodes cost nothing and are not assigned, but still order their dependents.
+ */
+public final class ListScheduler {
+
+    private ListScheduler() {
+    }
+
+    public static Schedule schedule(Collection<NodeGroup> nodes, int workerCount) {
+        return schedule(nodes, null, CostModel.nodeCount(), workerCount);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the dependency graph contains a cycle, or a cost is negative
+     */
+    public static Schedule schedule(Collection<NodeGroup> nodes, @Nullable DependencySupplier dependencySupplier,
+                                    CostModel costModel, int workerCount) {
+        if (workerCount <= 0)
+            throw new IllegalArgumentException("Invalid worker count " + workerCount);
+        if (dependencySupplier == null)
+            dependencySupplier = NodeGroup::dependencies;
+
+        CsrGraph graph = CsrGraph.of(nodes, dependencySupplier);
+        int size = graph.size();
+        int[] order = new int[size];
+        graph.depths(order);
+
+        double[] costs = new double[size];
+        for (int node = 0; node < graph.scheduledCount(); node++) {
+            double cost = costModel.cost(graph.group(node));
+            if (cost < 0 || Double.isNaN(cost))
+                throw new IllegalArgumentException("Invalid cost " + cost + " for node group " + graph.group(node));
+            costs[node] = cost;
+        }
+
+        double[] ranks = upwardRanks(graph, order, costs);
+        int[] topologicalPositions = new int[size];
+        for (int i = 0; i < size; i++) topologicalPositions[order[i]] = i;
+
+        // rank of a dependency is never lower than its dependents rank, ties are broken by topological order
+        Integer[] priorities = IntStream.range(0, size).boxed().toArray(Integer[]::new);
+        Arrays.sort(priorities, Comparator.<Integer>comparingDouble(node -> -ranks[node])
+                .thenComparingInt(node -> topologicalPositions[node]));
+
+        double[] workerAvailable = new double[workerCount];
+        double[] finishes = new double[size];
+        List<ScheduledGroup> scheduledGroups = new ArrayList<>(graph.scheduledCount());
+        double makespan = 0;
+        for (int node : priorities) {
+            double ready = 0;
+            for (int e = graph.dependencyOffsets[node]; e < graph.dependencyOffsets[node + 1]; e++)
+                ready = Math.max(ready, finishes[graph.dependencies[e]]);
+
+            if (node >= graph.scheduledCount()) {
+                finishes[node] = ready;
+                continue;
+            }
+
+            int worker = 0;
+            double start = Math.max(ready, workerAvailable[0]);
+            for (int w = 1; w < workerCount && start > ready; w++) {
+                double workerStart = Math.max(ready, workerAvailable[w]);
+                if (workerStart < start) {
+                    start = workerStart;
+                    worker = w;
+                }
+            }
+            double finish = start + costs[node];
+            workerAvailable[worker] = finish;
+            finishes[node] = finish;
+            makespan = Math.max(makespan, finish);
+            scheduledGroups.add(new ScheduledGroup(graph.group(node), worker, start, finish, ranks[node]));
+        }
+        return new Schedule(workerCount, scheduledGroups, makespan);
+    }
+
+    private static double[] upwardRanks(CsrGraph graph, int[] order, double[] costs) {
+        CsrGraph.Successors successors = graph.successors();
+        double[] ranks = new double[graph.size()];
+        for (int i = order.length - 1; i >= 0; i--) {
+            int node = order[i];
+            double successorsRank = 0;
+            for (int e = successors.offsets()[node]; e < successors.offsets()[node + 1]; e++)
+                successorsRank = Math.max(successorsRank, ranks[successors.successors()[e]]);
+            ranks[node] = costs[node] + successorsRank;
+        }
+        return ranks;
+    }
+
+    /**
+     * @param rank upward rank, the estimated cost of the longest path from this group to an exit group
+     */
+    public record ScheduledGroup(NodeGroup group, int worker, double start, double finish, double rank) {
+    }
+
+    /**
+     * @param groups all scheduled groups in dispatch order
+     */
+    public record Schedule(int workerCount, List<ScheduledGroup> groups, double makespan) {
+
+        /**
+         * @return the groups assigned to a worker, in execution order
+         */
+        public List<ScheduledGroup> worker(int worker) {
+            return groups.stream().filter(sg -> sg.worker() == worker).toList();
+        }
+
+        public NodeGroup[][] workerGroups() {
+            NodeGroup[][] res = new NodeGroup[workerCount][];
+            for (int w = 0; w < workerCount; w++) {
+                res[w] = worker(w).stream().map(ScheduledGroup::group).toArray(NodeGroup[]::new);
+            }
+            return res;
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package org.yah.test.dag;
+
+import org.yah.test.dag.DagSandbox.DependencySupplier;
+import org.yah.test.dag.DagSandbox.NodeGroup;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * Layering aware of the lifetime of each {@link NodeGroup} output.
+ * <p>
+ * The output of a group is alive from the layer executing it to the layer executing its last dependent, and can
+ * be released once that layer completed. Groups without dependents release their output after their own layer.
+ * Live bytes of a layer are the outputs alive while it runs: produced by it or by a previous layer, and not yet
+ * released.
+ * <p>
+ * Dependencies outside of the scheduled nodes are not executed, have no output, and order their dependents.
+ */
+public final class LivenessLayering {
+
+    private LivenessLayering() {
+    }
+
+    /**
+     * Compute release points and live bytes of existing layers.
+     *
+     * @param outputSize estimated output bytes of a group
+     */
+    public static Schedule analyze(NodeGroup[][] layers, @Nullable DependencySupplier dependencySupplier,
+                                   ToLongFunction<NodeGroup> outputSize) {
+        return analyze(layers, dependencySupplier, outputSize, Long.MAX_VALUE);
+    }
+
+    /**
+     * Layers of {@link DagSandbox#parallelizedDag(Collection, DependencySupplier)}, split and reordered to keep the
+     * live bytes of each layer under {@code budget}.
+     * <p>
+     * Ready groups are added to the current layer while they fit in the budget, groups releasing the most bytes
+     * relatively to their own output first. A layer always gets at least one group, so a group that can not fit
+     * alone still runs: {@link Schedule#withinBudget()} is then false. Without budget ({@link Long#MAX_VALUE}) and
+     * when all dependencies are scheduled, the layers are the ones of {@code parallelizedDag}.
+     *
+     * @throws IllegalArgumentException if the dependency graph contains a cycle, or an output size is negative
+     */
+    public static Schedule schedule(Collection<NodeGroup> nodes, @Nullable DependencySupplier dependencySupplier,
+                                    ToLongFunction<NodeGroup> outputSize, long budget) {
+        if (budget < 0)
+            throw new IllegalArgumentException("Invalid budget " + budget);
+        if (nodes.isEmpty())
+            return new Schedule(new NodeGroup[0][], new NodeGroup[0][], new long[0], budget);
+
+        CsrGraph graph = CsrGraph.of(nodes, dependencySupplier);
+        int size = graph.size(), scheduledCount = graph.scheduledCount();
+        int[] depths = graph.depths();
+        CsrGraph.Successors graphSuccessors = graph.successors();
+        int[] successorOffsets = graphSuccessors.offsets();
+        int[] successors = graphSuccessors.successors();
+
+        long[] sizes = new long[scheduledCount];
+        // scheduled dependents not executed yet, the output is released when it reaches 0
+        int[] remainingConsumers = new int[scheduledCount];
+        for (int node = 0; node < scheduledCount; node++) {
+            sizes[node] = requireSize(graph.group(node), outputSize);
+            for (int e = successorOffsets[node]; e < successorOffsets[node + 1]; e++) {
+                if (successors[e] < scheduledCount)
+                    remainingConsumers[node]++;
+            }
+        }
+
+        // net bytes of each ready group: its output minus the outputs it is the last consumer of
+        long[] priorities = new long[scheduledCount];
+        // lower net bytes first, then lower depth, then nodes order
+        NodeHeap ready = new NodeHeap(scheduledCount, (a, b) -> {
+            int c = Long.compare(priorities[a], priorities[b]);
+            if (c == 0) c = Integer.compare(depths[a], depths[b]);
+            return c != 0 ? c : Integer.compare(a, b);
+        });
+        // the same groups, smallest output first: once it does not fit, no other group does
+        NodeHeap bySize = new NodeHeap(scheduledCount, (a, b) -> {
+            int c = Long.compare(sizes[a], sizes[b]);
+            return c != 0 ? c : Integer.compare(a, b);
+        });
+
+        int[] pendingDependencies = new int[size];
+        int[] released = new int[scheduledCount];
+        int releasedCount = 0;
+        int[] externals = new int[size - scheduledCount];
+        int externalCount = 0;
+        for (int node = 0; node < size; node++) {
+            pendingDependencies[node] = graph.dependencyCount(node);
+            if (pendingDependencies[node] == 0) {
+                if (node < scheduledCount) released[releasedCount++] = node;
+                else externals[externalCount++] = node;
+            }
+        }
+
+        List<NodeGroup[]> layers = new ArrayList<>();
+        boolean[] executed = new boolean[scheduledCount];
+        int[] layer = new int[scheduledCount];
+        int[] skipped = new int[scheduledCount];
+        long live = 0;
+        int scheduled = 0;
+        while (true) {
+            // externals complete as soon as their dependencies did
+            while (externalCount > 0) {
+                int external = externals[--externalCount];
+                for (int e = successorOffsets[external]; e < successorOffsets[external + 1]; e++) {
+                    int successor = successors[e];
+                    if (--pendingDependencies[successor] == 0) {
+                        if (successor < scheduledCount) released[releasedCount++] = successor;
+                        else externals[externalCount++] = successor;
+                    }
+                }
+            }
+            for (int i = 0; i < releasedCount; i++) {
+                int node = released[i];
+                long freed = 0;
+                for (int d = 0; d < graph.dependencyCount(node); d++) {
+                    int dependency = graph.dependency(node, d);
+                    if (dependency < scheduledCount && remainingConsumers[dependency] == 1)
+                        freed += sizes[dependency];
+                }
+                priorities[node] = sizes[node] - freed;
+                ready.add(node);
+                bySize.add(node);
+            }
+            releasedCount = 0;
+            if (ready.isEmpty())
+                break;
+
+            int layerSize = 0, skippedCount = 0;
+            long layerBytes = 0;
+            while (!ready.isEmpty() && (layerSize == 0 || live + layerBytes + sizes[bySize.peek()] <= budget)) {
+                int node = ready.poll();
+                bySize.remove(node);
+                if (layerSize == 0 || live + layerBytes + sizes[node] <= budget) {
+                    layer[layerSize++] = node;
+                    layerBytes += sizes[node];
+                } else {
+                    skipped[skippedCount++] = node;
+                }
+            }
+            for (int i = 0; i < skippedCount; i++) {
+                ready.add(skipped[i]);
+                bySize.add(skipped[i]);
+            }
+            Arrays.sort(layer, 0, layerSize);
+            scheduled += layerSize;
+
+            live += layerBytes;
+            for (int i = 0; i < layerSize; i++)
+                executed[layer[i]] = true;
+            for (int i = 0; i < layerSize; i++) {
+                int node = layer[i];
+                for (int d = 0; d < graph.dependencyCount(node); d++) {
+                    int dependency = graph.dependency(node, d);
+                    if (dependency >= scheduledCount)
+                        continue;
+                    int consumers = --remainingConsumers[dependency];
+                    if (consumers == 0) {
+                        live -= sizes[dependency];
+                    } else if (consumers == 1) {
+                        // the last consumer now frees the dependency, only its priority changes
+                        int consumer = lastConsumer(dependency, successorOffsets, successors, scheduledCount, executed);
+                        if (consumer >= 0 && ready.contains(consumer)) {
+                            priorities[consumer] -= sizes[dependency];
+                            ready.update(consumer);
+                        }
+                    }
+                }
+                if (remainingConsumers[node] == 0)
+                    live -= sizes[node];
+            }
+            for (int i = 0; i < layerSize; i++) {
+                int node = layer[i];
+                for (int e = successorOffsets[node]; e < successorOffsets[node + 1]; e++) {
+                    int successor = successors[e];
+                    if (--pendingDependencies[successor] == 0) {
+                        if (successor < scheduledCount) released[releasedCount++] = successor;
+                        else externals[externalCount++] = successor;
+                    }
+                }
+            }
+
+            NodeGroup[] groups = new NodeGroup[layerSize];
+            for (int i = 0; i < groups.length; i++) groups[i] = graph.group(layer[i]);
+            layers.add(groups);
+        }
+        if (scheduled < scheduledCount)
+            throw new IllegalArgumentException("Dependency cycle detected between " + (scheduledCount - scheduled) + " node groups");
+        return analyze(layers.toArray(NodeGroup[][]::new), graph, sizes, budget);
+    }
+
+    /**
+     * @return the scheduled dependent of {@code node} not executed yet, -1 if the last one is in the current layer
+     */
+    private static int lastConsumer(int node, int[] successorOffsets, int[] successors, int scheduledCount,
+                                    boolean[] executed) {
+        for (int e = successorOffsets[node]; e < successorOffsets[node + 1]; e++) {
+            int successor = successors[e];
+            if (successor < scheduledCount && !executed[successor])
+                return successor;
+        }
+        return -1;
+    }
+
+    private static Schedule analyze(NodeGroup[][] layers, @Nullable DependencySupplier dependencySupplier,
+                                    ToLongFunction<NodeGroup> outputSize, long budget) {
+        if (dependencySupplier == null)
+            dependencySupplier = NodeGroup::dependencies;
+        Map<NodeGroup, Integer> layerIndices = new IdentityHashMap<>();
+        for (int layer = 0; layer < layers.length; layer++) {
+            for (NodeGroup group : layers[layer]) {
+                if (layerIndices.put(group, layer) != null)
+                    throw new IllegalArgumentException("NodeGroup " + group + " is scheduled twice");
+            }
+        }
+
+        Map<NodeGroup, Integer> lastUses = new IdentityHashMap<>(layerIndices);
+        for (int layer = 0; layer < layers.length; layer++) {
+            for (NodeGroup group : layers[layer]) {
+                for (NodeGroup dependency : dependencySupplier.apply(group)) {
+                    Integer dependencyLayer = layerIndices.get(dependency);
+                    if (dependencyLayer == null)
+                        continue;
+                    if (dependencyLayer >= layer)
+                        throw new IllegalArgumentException("NodeGroup " + group + " is not scheduled after its dependency " + dependency);
+                    lastUses.merge(dependency, layer, Math::max);
+                }
+            }
+        }
+
+        List<List<NodeGroup>> releases = new ArrayList<>(layers.length);
+        for (int layer = 0; layer < layers.length; layer++) releases.add(new ArrayList<>());
+        long[] liveBytes = new long[layers.length + 1];
+        for (NodeGroup[] layer : layers) {
+            for (NodeGroup group : layer) {
+                long bytes = requireSize(group, outputSize);
+                int lastUse = lastUses.get(group);
+                releases.get(lastUse).add(group);
+                liveBytes[layerIndices.get(group)] += bytes;
+                liveBytes[lastUse + 1] -= bytes;
+            }
+        }
+        for (int layer = 1; layer < layers.length; layer++) liveBytes[layer] += liveBytes[layer - 1];
+
+        NodeGroup[][] releaseArrays = new NodeGroup[layers.length][];
+        for (int layer = 0; layer < layers.length; layer++)
+            releaseArrays[layer] = releases.get(layer).toArray(NodeGroup[]::new);
+        return new Schedule(layers, releaseArrays, Arrays.copyOf(liveBytes, layers.length), budget);
+    }
+
+    private static Schedule analyze(NodeGroup[][] layers, CsrGraph graph, long[] sizes, long budget) {
+        Map<NodeGroup, Long> groupSizes = new IdentityHashMap<>(sizes.length * 2);
+        for (int node = 0; node < sizes.length; node++) groupSizes.put(graph.group(node), sizes[node]);
+        return analyze(layers, node -> {
+            int index = graph.indexOf(node);
+            List<NodeGroup> res = new ArrayList<>(graph.dependencyCount(index));
+            for (int i = 0; i < graph.dependencyCount(index); i++) res.add(graph.group(graph.dependency(index, i)));
+            return res;
+        }, groupSizes::get, budget);
+    }
+
+    private static long requireSize(NodeGroup group, ToLongFunction<NodeGroup> outputSize) {
+        long bytes = outputSize.applyAsLong(group);
+        if (bytes < 0)
+            throw new IllegalArgumentException("Invalid output size " + bytes + " for node group " + group);
+        return bytes;
+    }
+
+    /**
+     * @param layers    groups executed by each layer
+     * @param releases  groups whose output can be released once the layer completed
+     * @param liveBytes estimated live output bytes while each layer runs
+     * @param budget    requested live bytes budget, {@link Long#MAX_VALUE} if none
+     */
+    public record Schedule(NodeGroup[][] layers, NodeGroup[][] releases, long[] liveBytes, long budget) {
+        public long peakBytes() {
+            return Arrays.stream(liveBytes).max().orElse(0);
+        }
+
+        public boolean withinBudget() {
+            return peakBytes() <= budget;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package org.yah.test.dag;
+
+import org.yah.test.dag.DagSandbox.DependencySupplier;
+import org.yah.test.dag.DagSandbox.NodeGroup;
+import org.yah.test.marshall.DefaultTypeIntrospector;
+import org.yah.test.marshall.MemoryAllocation;
+import org.yah.test.marshall.MemoryAllocator;
+import org.yah.test.marshall.NativeInstances;
+import org.yah.test.marshall.NativeObjectMarshaller;
+import org.yah.test.marshall.NativeObjectUnmarshaller;
+import org.yah.test.marshall.NativeObjectsRegistry;
+import org.yah.test.marshall.NativeTypeIntrospector;
+import org.yah.test.marshall.TypeIntrospector;
+import org.yah.test.marshall.annotations.NativeOrder;
+
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * A schedule of {@link NodeGroup}s and the data of each group, marshalled by {@link NativeObjectMarshaller} in a
+ * single {@link NativeInstances} allocation: native code walks a whole tick from {@link #address()} in one downcall,
+ * instead of one downcall per group.
+ * <p>
+ * The root instance is a {@link Schedule}, mirrored by {@code struct DagSchedule} in
+ * {@code sandbox-native/dag_schedule.h}. Node ids are the {@link CsrGraph} ids: the scheduled groups in iteration
+ * order, followed by their dependencies outside of the scheduled nodes, which order their dependents but have no data
+ * and must not be executed. Native code can execute the layers in order, or release groups through the dependency
+ * counters.
+ * <p>
+ * Node data are marshalled with the fields of the {@link TypeIntrospector} given on creation, the data written by
+ * native code are read back by {@link #unmarshall()}.
+ */
+public final class NativeSchedule<A extends MemoryAllocation> implements AutoCloseable {
+
+    private final CsrGraph graph;
+    private final Schedule schedule;
+    private final NativeObjectsRegistry objectsRegistry;
+    private final NativeInstances<A> instances;
+
+    private NativeSchedule(CsrGraph graph, Schedule schedule, NativeObjectsRegistry objectsRegistry, NativeInstances<A> instances) {
+        this.graph = graph;
+        this.schedule = schedule;
+        this.objectsRegistry = objectsRegistry;
+        this.instances = instances;
+    }
+
+    public static <A extends MemoryAllocation> NativeSchedule<A> marshall(Collection<NodeGroup> nodes,
+                                                                          Function<? super NodeGroup, ?> nodeData,
+                                                                          MemoryAllocator<A> allocator) {
+        return marshall(nodes, null, nodeData, null, allocator);
+    }
+
+    /**
+     * @param nodeData             data of each scheduled group, may return null
+     * @param nodeDataIntrospector fields of the node data, {@link DefaultTypeIntrospector} if null
+     * @throws IllegalArgumentException if the dependency graph contains a cycle
+     */
+    public static <A extends MemoryAllocation> NativeSchedule<A> marshall(Collection<NodeGroup> nodes,
+                                                                          @Nullable DependencySupplier dependencySupplier,
+                                                                          Function<? super NodeGroup, ?> nodeData,
+                                                                          @Nullable TypeIntrospector nodeDataIntrospector,
+                                                                          MemoryAllocator<A> allocator) {
+        CsrGraph graph = CsrGraph.of(nodes, dependencySupplier);
+        CsrGraph.Layers layers = graph.layers();
+        CsrGraph.Successors successors = graph.successors();
+
+        int size = graph.size();
+        Schedule schedule = new Schedule();
+        schedule.nodeCount = size;
+        schedule.scheduledCount = graph.scheduledCount();
+        schedule.layerCount = layers.count();
+        schedule.layerOffsets = layers.offsets();
+        schedule.layerNodes = layers.nodes();
+        schedule.typeIds = new int[size];
+        schedule.nodeCounts = new int[size];
+        schedule.dependencyCounts = new int[size];
+        schedule.successorOffsets = successors.offsets();
+        schedule.successors = successors.successors();
+        schedule.nodeData = new Object[size];
+        for (int node = 0; node < size; node++) {
+            schedule.typeIds[node] = graph.typeId(node);
+            schedule.nodeCounts[node] = graph.nodeCount(node);
+            schedule.dependencyCounts[node] = graph.dependencyCount(node);
+            if (node < graph.scheduledCount())
+                schedule.nodeData[node] = nodeData.apply(graph.group(node));
+        }
+        schedule.pendingDependencies = new int[size];
+        schedule.walkOrder = new int[size];
+        schedule.executionCounts = new int[size];
+
+        NativeObjectsRegistry objectsRegistry = new NativeObjectsRegistry(introspector(nodeDataIntrospector));
+        NativeInstances<A> instances = new NativeObjectMarshaller(objectsRegistry).marshall(schedule, allocator, null);
+        return new NativeSchedule<>(graph, schedule, objectsRegistry, instances);
+    }
+
+    private static TypeIntrospector introspector(@Nullable TypeIntrospector nodeDataIntrospector) {
+        TypeIntrospector nodeIntrospector = Objects.requireNonNullElse(nodeDataIntrospector, DefaultTypeIntrospector.INSTANCE);
+        return type -> type == Schedule.class
+                ? NativeTypeIntrospector.INSTANCE.getFields(type)
+                : nodeIntrospector.getFields(type);
+    }
+
+    public CsrGraph graph() {
+        return graph;
+    }
+
+    /**
+     * The Java side of the schedule, updated by {@link #unmarshall()}.
+     */
+    public Schedule schedule() {
+        return schedule;
+    }
+
+    public NativeInstances<A> instances() {
+        return instances;
+    }
+
+    /**
+     * @return the address of the {@code struct DagSchedule}, to pass to native code
+     */
+    public long address() {
+        return instances.addressOf(schedule);
+    }
+
+    /**
+     * @return the address of the data of {@code group}, 0 if it has none
+     * @throws IllegalArgumentException if {@code group} is not scheduled
+     */
+    public long nodeDataAddress(NodeGroup group) {
+        int node = graph.indexOf(group);
+        if (node < 0 || node >= graph.scheduledCount())
+            throw new IllegalArgumentException("NodeGroup " + group + " is not scheduled");
+        return instances.addressOf(schedule.nodeData[node]);
+    }
+
+    /**
+     * Read back the schedule and all the node data from native memory.
+     */
+    public void unmarshall() {
+        new NativeObjectUnmarshaller(objectsRegistry).unmarshall(instances);
+    }
+
+    @Override
+    public void close() {
+        instances.close();
+    }
+
+    /**
+     * Java mirror of {@code struct DagSchedule}, arrays are indexed by node id unless noted otherwise.
+     */
+    public static final class Schedule {
+        /**
+         * Scheduled groups followed by the dependencies outside of them.
+         */
+        @NativeOrder(0)
+        public int nodeCount;
+        @NativeOrder(1)
+        public int scheduledCount;
+        @NativeOrder(2)
+        public int layerCount;
+        /**
+         * Start of each layer in {@link #layerNodes}, {@code layerCount + 1} offsets.
+         */
+        @NativeOrder(3)
+        public int[] layerOffsets;
+        /**
+         * Scheduled node ids, by layer.
+         */
+        @NativeOrder(4)
+        public int[] layerNodes;
+        @NativeOrder(5)
+        public int[] typeIds;
+        @NativeOrder(6)
+        public int[] nodeCounts;
+        @NativeOrder(7)
+        public int[] dependencyCounts;
+        /**
+         * Start of the successors of each node in {@link #successors}, {@code nodeCount + 1} offsets.
+         */
+        @NativeOrder(8)
+        public int[] successorOffsets;
+        @NativeOrder(9)
+        public int[] successors;
+        /**
+         * Data of each scheduled group, null for the dependencies outside of them.
+         */
+        @NativeOrder(10)
+        public Object[] nodeData;
+        /**
+         * Native scratch, the dependency counters of a dataflow walk.
+         */
+        @NativeOrder(11)
+        public int[] pendingDependencies;
+        /**
+         * Native output, node ids in the order they were released, dependencies outside of the scheduled nodes
+         * included.
+         */
+        @NativeOrder(12)
+        public int[] walkOrder;
+        /**
+         * Native output, the number of times each group was executed.
+         */
+        @NativeOrder(13)
+        public int[] executionCounts;
+    }
+}
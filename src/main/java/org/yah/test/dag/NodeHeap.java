@@ -0,0 +1,161 @@
+package org.yah.test.dag;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+
+/**
+ * Binary min-heap of node ids, ordered by a {@link NodeComparator}.
+ * <p>
+ * An indexed heap holds ids in {@code [0, nodeCount)}, each at most once, and keeps their positions: a node can be
+ * removed, or moved after a change of its ordering with {@link #update(int)}. Nothing is allocated once the heap
+ * reached its largest size.
+ */
+final class NodeHeap {
+
+    @FunctionalInterface
+    interface NodeComparator {
+        int compare(int a, int b);
+    }
+
+    private final NodeComparator comparator;
+    private int[] nodes = new int[16];
+    // index of each node in nodes, -1 if not in the heap, null if not indexed
+    @Nullable
+    private final int[] positions;
+    private int size;
+
+    NodeHeap(NodeComparator comparator) {
+        this.comparator = comparator;
+        this.positions = null;
+    }
+
+    NodeHeap(int nodeCount, NodeComparator comparator) {
+        this.comparator = comparator;
+        this.positions = new int[nodeCount];
+        Arrays.fill(positions, -1);
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    boolean contains(int node) {
+        return indexed()[node] >= 0;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the heap is indexed and {@code node} is already in it
+     */
+    void add(int node) {
+        if (positions != null && positions[node] >= 0)
+            throw new IllegalArgumentException("Node " + node + " is already in the heap");
+        if (size == nodes.length)
+            nodes = Arrays.copyOf(nodes, size * 2);
+        nodes[size] = node;
+        siftUp(size++);
+    }
+
+    /**
+     * @return the first node, -1 if empty
+     */
+    int peek() {
+        return size == 0 ? -1 : nodes[0];
+    }
+
+    /**
+     * @return the removed first node, -1 if empty
+     */
+    int poll() {
+        if (size == 0)
+            return -1;
+        int node = nodes[0];
+        removeAt(0);
+        return node;
+    }
+
+    /**
+     * @return false if {@code node} was not in the heap
+     */
+    boolean remove(int node) {
+        int position = indexed()[node];
+        if (position < 0)
+            return false;
+        removeAt(position);
+        return true;
+    }
+
+    /**
+     * Restore the order after the ordering of {@code node} changed, nothing if it is not in the heap.
+     */
+    void update(int node) {
+        int position = indexed()[node];
+        if (position >= 0 && siftUp(position) == position)
+            siftDown(position);
+    }
+
+    void clear() {
+        if (positions != null) {
+            for (int i = 0; i < size; i++)
+                positions[nodes[i]] = -1;
+        }
+        size = 0;
+    }
+
+    private int[] indexed() {
+        if (positions == null)
+            throw new IllegalStateException("Heap is not indexed");
+        return positions;
+    }
+
+    private void removeAt(int position) {
+        if (positions != null)
+            positions[nodes[position]] = -1;
+        int last = nodes[--size];
+        if (position == size)
+            return;
+        move(last, position);
+        if (siftUp(position) == position)
+            siftDown(position);
+    }
+
+    /**
+     * @return the new position of the node at {@code position}
+     */
+    private int siftUp(int position) {
+        int node = nodes[position];
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (comparator.compare(node, nodes[parent]) >= 0)
+                break;
+            move(nodes[parent], position);
+            position = parent;
+        }
+        move(node, position);
+        return position;
+    }
+
+    private void siftDown(int position) {
+        int node = nodes[position];
+        int half = size >>> 1;
+        while (position < half) {
+            int child = 2 * position + 1;
+            if (child + 1 < size && comparator.compare(nodes[child + 1], nodes[child]) < 0)
+                child++;
+            if (comparator.compare(node, nodes[child]) <= 0)
+                break;
+            move(nodes[child], position);
+            position = child;
+        }
+        move(node, position);
+    }
+
+    private void move(int node, int position) {
+        nodes[position] = node;
+        if (positions != null)
+            positions[node] = position;
+    }
+}
@@ -0,0 +1,11 @@
+package org.yah.test.dag;
+
+import org.yah.test.dag.DagSandbox.NodeGroup;
+
+/**
+ * Work executed for a {@link NodeGroup}, usually resolved from its {@link DagSandbox.NodeType}.
+ */
+@FunctionalInterface
+public interface NodeTask {
+    void execute(NodeGroup group) throws Exception;
+}
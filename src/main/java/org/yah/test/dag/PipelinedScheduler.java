@@ -0,0 +1,325 @@
+package org.yah.test.dag;
+
+import org.yah.test.dag.DagSandbox.DependencySupplier;
+import org.yah.test.dag.DagSandbox.NodeGroup;
+import org.yah.test.dag.DagSandbox.NodeType;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * Execute the same {@link NodeGroup}s for consecutive ticks, overlapping ticks.
+ * <p>
+ * A group of tick {@code N + 1} starts as soon as its dependencies of tick {@code N + 1}, its previous tick
+ * dependencies of tick {@code N}, and itself in tick {@code N} completed. Ticks thus complete in order. At most
+ * {@code maxTicksInFlight} ticks are started but not completed, tick {@code N + maxTicksInFlight} starts when tick
+ * {@code N} completes.
+ * <p>
+ * Like {@link DataflowScheduler}, dependencies outside of the executed nodes are not executed but still order their
+ * dependents, and once a group fails no other task and no other tick is started. Chunked tasks are not split.
+ */
+public final class PipelinedScheduler implements AutoCloseable {
+
+    private final ExecutorService executorService;
+    private final boolean ownsExecutorService;
+    private final int maxTicksInFlight;
+
+    public PipelinedScheduler(int maxTicksInFlight) {
+        this(Runtime.getRuntime().availableProcessors(), maxTicksInFlight);
+    }
+
+    public PipelinedScheduler(int parallelism, int maxTicksInFlight) {
+        this(new ForkJoinPool(parallelism), true, maxTicksInFlight);
+    }
+
+    /**
+     * @param executorService not closed by {@link #close()}
+     */
+    public PipelinedScheduler(ExecutorService executorService, int maxTicksInFlight) {
+        this(executorService, false, maxTicksInFlight);
+    }
+
+    private PipelinedScheduler(ExecutorService executorService, boolean ownsExecutorService, int maxTicksInFlight) {
+        if (maxTicksInFlight <= 0)
+            throw new IllegalArgumentException("Invalid max ticks in flight " + maxTicksInFlight);
+        this.executorService = Objects.requireNonNull(executorService, "executorService is null");
+        this.ownsExecutorService = ownsExecutorService;
+        this.maxTicksInFlight = maxTicksInFlight;
+    }
+
+    public ExecutionReport execute(Collection<NodeGroup> nodes,
+                                   Map<NodeGroup, ? extends Collection<NodeGroup>> previousTickDependencies,
+                                   int tickCount, Function<? super NodeType, ? extends TickTask> tasks) throws InterruptedException {
+        return execute(nodes, null, previousTickDependencies, tickCount, tasks);
+    }
+
+    /**
+     * @param previousTickDependencies groups of the previous tick each group depends on, keys and values must be
+     *                                 in {@code nodes}
+     * @throws IllegalArgumentException if the dependency graph contains a cycle, a {@link NodeType} has no task, or a
+     *                                  previous tick dependency is not executed
+     */
+    public ExecutionReport execute(Collection<NodeGroup> nodes, @Nullable DependencySupplier dependencySupplier,
+                                   Map<NodeGroup, ? extends Collection<NodeGroup>> previousTickDependencies,
+                                   int tickCount, Function<? super NodeType, ? extends TickTask> tasks) throws InterruptedException {
+        if (tickCount < 0)
+            throw new IllegalArgumentException("Invalid tick count " + tickCount);
+        if (dependencySupplier == null)
+            dependencySupplier = NodeGroup::dependencies;
+
+        CsrGraph graph = CsrGraph.of(nodes, dependencySupplier);
+        graph.depths(); // fail fast on cycles, would never complete otherwise
+        TickTask[] nodeTasks = new TickTask[graph.size()];
+        for (int i = 0; i < graph.scheduledCount(); i++) {
+            NodeType type = graph.group(i).type();
+            TickTask task = tasks.apply(type);
+            if (task == null)
+                throw new IllegalArgumentException("No task for NodeType " + type);
+            nodeTasks[i] = task;
+        }
+
+        long start = System.nanoTime();
+        if (tickCount > 0 && graph.size() > 0) {
+            Execution execution = new Execution(graph, nodeTasks, previousTickSuccessors(graph, previousTickDependencies), tickCount);
+            execution.start();
+            execution.await();
+        }
+        return new ExecutionReport(tickCount, graph.scheduledCount(), System.nanoTime() - start);
+    }
+
+    @Override
+    public void close() {
+        if (ownsExecutorService)
+            executorService.close();
+    }
+
+    /**
+     * @return the groups of the next tick depending on node i in successors[offsets[i] .. offsets[i + 1]], including
+     * node i itself
+     */
+    private static CsrGraph.Successors previousTickSuccessors(CsrGraph graph, Map<NodeGroup, ? extends Collection<NodeGroup>> previousTickDependencies) {
+        int size = graph.size();
+        int[] offsets = new int[size + 1];
+        int[][] edges = new int[previousTickDependencies.size()][];
+        int[] dependents = new int[previousTickDependencies.size()];
+        int entry = 0;
+        for (Map.Entry<NodeGroup, ? extends Collection<NodeGroup>> e : previousTickDependencies.entrySet()) {
+            dependents[entry] = requireScheduled(graph, e.getKey());
+            edges[entry] = e.getValue().stream().mapToInt(dependency -> requireScheduled(graph, dependency)).toArray();
+            for (int dependency : edges[entry]) offsets[dependency + 1]++;
+            entry++;
+        }
+        for (int node = 0; node < size; node++) offsets[node + 1] += offsets[node] + 1;
+
+        int[] successors = new int[offsets[size]];
+        int[] cursors = Arrays.copyOf(offsets, size);
+        for (int node = 0; node < size; node++) successors[cursors[node]++] = node;
+        for (int i = 0; i < dependents.length; i++) {
+            for (int dependency : edges[i]) successors[cursors[dependency]++] = dependents[i];
+        }
+        return new CsrGraph.Successors(offsets, successors);
+    }
+
+    private static int requireScheduled(CsrGraph graph, NodeGroup group) {
+        int index = graph.indexOf(group);
+        if (index < 0 || index >= graph.scheduledCount())
+            throw new IllegalArgumentException("NodeGroup " + group + " is not executed");
+        return index;
+    }
+
+    private final class Execution {
+        private final NodeGroup[] nodes;
+        private final TickTask[] tasks;
+        private final int[] successorOffsets;
+        private final int[] successors;
+        private final int[] nextTickOffsets;
+        private final int[] nextTickSuccessors;
+        // pending dependencies of a tick > 0: same tick dependencies, previous tick dependencies and itself
+        private final int[] initialPendingDependencies;
+        private final int tickCount;
+        private final Map<Integer, Tick> ticks = new ConcurrentHashMap<>();
+        private final AtomicInteger startedTicks = new AtomicInteger();
+        private final CountDownLatch completed = new CountDownLatch(1);
+        private final AtomicReference<RuntimeException> error = new AtomicReference<>();
+
+        Execution(CsrGraph graph, TickTask[] tasks, CsrGraph.Successors nextTick, int tickCount) {
+            this.nodes = graph.groups();
+            this.tasks = tasks;
+            CsrGraph.Successors graphSuccessors = graph.successors();
+            this.successorOffsets = graphSuccessors.offsets();
+            this.successors = graphSuccessors.successors();
+            this.nextTickOffsets = nextTick.offsets();
+            this.nextTickSuccessors = nextTick.successors();
+            this.initialPendingDependencies = new int[nodes.length];
+            for (int e = 0; e < nextTickSuccessors.length; e++)
+                initialPendingDependencies[nextTickSuccessors[e]]++;
+            for (int node = 0; node < nodes.length; node++)
+                initialPendingDependencies[node] += graph.dependencyCount(node);
+            this.tickCount = tickCount;
+            ticks.put(0, new Tick(0, graph));
+        }
+
+        void start() {
+            // start all first ticks before submitting, completions start the following ones
+            int count = Math.min(maxTicksInFlight, tickCount);
+            int[][] roots = new int[count][];
+            for (int tick = 0; tick < count; tick++)
+                roots[tick] = startTick(tick);
+            for (int tick = 0; tick < count; tick++) {
+                Tick t = ticks.get(tick);
+                for (int node : roots[tick]) submit(t, node);
+            }
+        }
+
+        void await() throws InterruptedException {
+            completed.await();
+            RuntimeException e = error.get();
+            if (e != null)
+                throw e;
+        }
+
+        /**
+         * @return the ready nodes of the started tick
+         */
+        private int[] startTick(int tick) {
+            if (tick + 1 < tickCount)
+                ticks.put(tick + 1, new Tick(tick + 1, null));
+            startedTicks.incrementAndGet();
+            return ticks.get(tick).start();
+        }
+
+        private void submit(Tick tick, int node) {
+            executorService.execute(() -> run(tick, node));
+        }
+
+        private void run(Tick tick, int node) {
+            while (node >= 0) {
+                execute(tick, node);
+                node = complete(tick, node);
+            }
+        }
+
+        private void execute(Tick tick, int node) {
+            TickTask task = tasks[node];
+            if (task == null || error.get() != null)
+                return;
+            try {
+                task.execute(nodes[node], tick.index);
+            } catch (Throwable e) {
+                error.compareAndSet(null, new RuntimeException("Error executing node group " + nodes[node] + " of tick " + tick.index, e));
+            }
+        }
+
+        /**
+         * @return one of the released successors of the same tick to run on the current thread, or -1
+         */
+        private int complete(Tick tick, int node) {
+            int next = -1;
+            for (int e = successorOffsets[node]; e < successorOffsets[node + 1]; e++) {
+                int successor = successors[e];
+                if (tick.pendingDependencies.decrementAndGet(successor) == 0) {
+                    if (next >= 0)
+                        submit(tick, next);
+                    next = successor;
+                }
+            }
+            // before releasing the next tick, so that ticks complete in order
+            if (tick.remaining.decrementAndGet() == 0)
+                tickCompleted(tick);
+
+            Tick nextTick = tick.index + 1 < tickCount ? ticks.get(tick.index + 1) : null;
+            if (nextTick != null) {
+                for (int e = nextTickOffsets[node]; e < nextTickOffsets[node + 1]; e++) {
+                    int successor = nextTickSuccessors[e];
+                    if (nextTick.pendingDependencies.decrementAndGet(successor) == 0)
+                        nextTick.ready(successor);
+                }
+            }
+            return next;
+        }
+
+        private void tickCompleted(Tick tick) {
+            ticks.remove(tick.index);
+            int nextTick = tick.index + maxTicksInFlight;
+            if (error.get() == null && nextTick < tickCount) {
+                Tick t = ticks.get(nextTick);
+                for (int node : startTick(nextTick)) submit(t, node);
+            } else if (tick.index + 1 == startedTicks.get()) {
+                completed.countDown();
+            }
+        }
+
+        private final class Tick {
+            private final int index;
+            private final AtomicIntegerArray pendingDependencies;
+            private final AtomicInteger remaining;
+            private boolean started;
+            // ready nodes of a tick not started yet
+            private int[] deferred = new int[16];
+            private int deferredCount;
+
+            /**
+             * @param graph only for the first tick, without previous tick
+             */
+            Tick(int index, @Nullable CsrGraph graph) {
+                this.index = index;
+                this.pendingDependencies = new AtomicIntegerArray(nodes.length);
+                for (int node = 0; node < nodes.length; node++) {
+                    int pending = graph != null ? graph.dependencyCount(node) : initialPendingDependencies[node];
+                    pendingDependencies.set(node, pending);
+                    if (pending == 0)
+                        defer(node);
+                }
+                this.remaining = new AtomicInteger(nodes.length);
+            }
+
+            synchronized int[] start() {
+                started = true;
+                int[] res = Arrays.copyOf(deferred, deferredCount);
+                deferred = null;
+                return res;
+            }
+
+            void ready(int node) {
+                synchronized (this) {
+                    if (!started) {
+                        defer(node);
+                        return;
+                    }
+                }
+                submit(this, node);
+            }
+
+            private void defer(int node) {
+                if (deferredCount == deferred.length)
+                    deferred = Arrays.copyOf(deferred, deferredCount * 2);
+                deferred[deferredCount++] = node;
+            }
+        }
+    }
+
+    /**
+     * Work executed for a {@link NodeGroup} in a tick.
+     */
+    @FunctionalInterface
+    public interface TickTask {
+        void execute(NodeGroup group, int tick) throws Exception;
+    }
+
+    /**
+     * @param groupCount executed groups per tick
+     */
+    public record ExecutionReport(int tickCount, int groupCount, long totalNanos) {
+    }
+}
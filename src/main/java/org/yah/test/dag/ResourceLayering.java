@@ -0,0 +1,203 @@
+package org.yah.test.dag;
+
+import org.yah.test.dag.DagSandbox.DependencySupplier;
+import org.yah.test.dag.DagSandbox.NodeGroup;
+import org.yah.test.dag.DagSandbox.NodeType;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Layering honouring {@link Resource} capacities: a layer holds at most {@code capacity} groups using a resource,
+ * other groups of the layer are spread in the following ones along with their dependents.
+ * <p>
+ * Ready groups are added to the current layer by decreasing height (longest chain of dependents), so that groups
+ * on the critical path are not the ones delayed. Groups without resource are always added to the first layer they
+ * are ready for. Without constraint and when all dependencies are scheduled, the layers are the ones of
+ * {@link DagSandbox#parallelizedDag(Collection, DependencySupplier)}.
+ * <p>
+ * Dependencies outside of the scheduled nodes are not executed, use no resource, and order their dependents.
+ */
+public final class ResourceLayering {
+
+    private ResourceLayering() {
+    }
+
+    /**
+     * @throws IllegalArgumentException if the dependency graph contains a cycle
+     */
+    public static NodeGroup[][] layers(Collection<NodeGroup> nodes, @Nullable DependencySupplier dependencySupplier,
+                                       Constraints constraints) {
+        if (nodes.isEmpty())
+            return new NodeGroup[0][];
+
+        CsrGraph graph = CsrGraph.of(nodes, dependencySupplier);
+        int size = graph.size(), scheduledCount = graph.scheduledCount();
+        int[] order = new int[size];
+        int[] depths = graph.depths(order);
+        CsrGraph.Successors graphSuccessors = graph.successors();
+        int[] successorOffsets = graphSuccessors.offsets();
+        int[] successors = graphSuccessors.successors();
+
+        int[] heights = new int[size];
+        for (int i = size - 1; i >= 0; i--) {
+            int node = order[i];
+            for (int e = successorOffsets[node]; e < successorOffsets[node + 1]; e++)
+                heights[node] = Math.max(heights[node], heights[successors[e]] + 1);
+        }
+
+        // resources used by each scheduled node, as indices in capacities
+        Map<Resource, Integer> resourceIndices = new HashMap<>();
+        int[][] nodeResources = new int[scheduledCount][];
+        for (int node = 0; node < scheduledCount; node++) {
+            List<Resource> resources = constraints.resources(graph.group(node).type());
+            nodeResources[node] = new int[resources.size()];
+            for (int r = 0; r < resources.size(); r++)
+                nodeResources[node][r] = resourceIndices.computeIfAbsent(resources.get(r), k -> resourceIndices.size());
+        }
+        int[] capacities = new int[resourceIndices.size()];
+        resourceIndices.forEach((resource, index) -> capacities[index] = resource.capacity());
+        int[] used = new int[capacities.length];
+
+        // ready groups without resource, and ready groups by their first resource, highest first
+        NodeHeap.NodeComparator priority = (a, b) -> {
+            int c = Integer.compare(heights[b], heights[a]);
+            if (c == 0) c = Integer.compare(depths[a], depths[b]);
+            return c != 0 ? c : Integer.compare(a, b);
+        };
+        int[] free = new int[scheduledCount];
+        int freeCount = 0;
+        NodeHeap[] queues = new NodeHeap[capacities.length];
+        for (int resource = 0; resource < queues.length; resource++)
+            queues[resource] = new NodeHeap(priority);
+        // resources whose queue may still fill the layer, by priority of their first group
+        NodeHeap heads = new NodeHeap(capacities.length, (a, b) -> priority.compare(queues[a].peek(), queues[b].peek()));
+
+        int[] pendingDependencies = new int[size];
+        int[] externals = new int[size - scheduledCount];
+        int externalCount = 0;
+        for (int node = 0; node < size; node++) {
+            pendingDependencies[node] = graph.dependencyCount(node);
+            if (pendingDependencies[node] == 0) {
+                if (node >= scheduledCount) externals[externalCount++] = node;
+                else if (nodeResources[node].length == 0) free[freeCount++] = node;
+                else queues[nodeResources[node][0]].add(node);
+            }
+        }
+
+        List<NodeGroup[]> layers = new ArrayList<>();
+        int[] layer = new int[scheduledCount];
+        int[] skipped = new int[scheduledCount];
+        while (true) {
+            // externals complete as soon as their dependencies did
+            while (externalCount > 0) {
+                int external = externals[--externalCount];
+                for (int e = successorOffsets[external]; e < successorOffsets[external + 1]; e++) {
+                    int successor = successors[e];
+                    if (--pendingDependencies[successor] == 0) {
+                        if (successor >= scheduledCount) externals[externalCount++] = successor;
+                        else if (nodeResources[successor].length == 0) free[freeCount++] = successor;
+                        else queues[nodeResources[successor][0]].add(successor);
+                    }
+                }
+            }
+
+            // the groups of a full resource queue are not looked at, they can not fit
+            Arrays.fill(used, 0);
+            System.arraycopy(free, 0, layer, 0, freeCount);
+            int layerSize = freeCount, skippedCount = 0;
+            freeCount = 0;
+            for (int resource = 0; resource < queues.length; resource++) {
+                if (!queues[resource].isEmpty())
+                    heads.add(resource);
+            }
+            while (!heads.isEmpty()) {
+                int resource = heads.poll();
+                int node = queues[resource].poll();
+                if (fits(nodeResources[node], used, capacities)) {
+                    for (int r : nodeResources[node]) {
+                        if (++used[r] == capacities[r])
+                            heads.remove(r);
+                    }
+                    layer[layerSize++] = node;
+                } else {
+                    // another resource of the group is full
+                    skipped[skippedCount++] = node;
+                }
+                if (used[resource] < capacities[resource] && !queues[resource].isEmpty())
+                    heads.add(resource);
+            }
+            for (int i = 0; i < skippedCount; i++)
+                queues[nodeResources[skipped[i]][0]].add(skipped[i]);
+            if (layerSize == 0)
+                break;
+            Arrays.sort(layer, 0, layerSize);
+
+            NodeGroup[] groups = new NodeGroup[layerSize];
+            for (int i = 0; i < groups.length; i++) {
+                int node = layer[i];
+                groups[i] = graph.group(node);
+                for (int e = successorOffsets[node]; e < successorOffsets[node + 1]; e++) {
+                    int successor = successors[e];
+                    if (--pendingDependencies[successor] == 0) {
+                        if (successor >= scheduledCount) externals[externalCount++] = successor;
+                        else if (nodeResources[successor].length == 0) free[freeCount++] = successor;
+                        else queues[nodeResources[successor][0]].add(successor);
+                    }
+                }
+            }
+            layers.add(groups);
+        }
+        return layers.toArray(NodeGroup[][]::new);
+    }
+
+    private static boolean fits(int[] nodeResources, int[] used, int[] capacities) {
+        for (int resource : nodeResources) {
+            if (used[resource] >= capacities[resource])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * A limited resource, at most {@code capacity} groups using it run concurrently.
+     */
+    public record Resource(String name, int capacity) {
+        public Resource {
+            Objects.requireNonNull(name, "name is null");
+            if (capacity <= 0)
+                throw new IllegalArgumentException("Invalid capacity " + capacity + " for resource " + name);
+        }
+    }
+
+    /**
+     * Resources used by the groups of each {@link NodeType}, a type can use several resources.
+     */
+    public static final class Constraints {
+        private final Map<NodeType, List<Resource>> typeResources = new HashMap<>();
+
+        public Constraints add(Resource resource, NodeType... types) {
+            return add(resource, Arrays.asList(types));
+        }
+
+        public Constraints add(Resource resource, Collection<? extends NodeType> types) {
+            Objects.requireNonNull(resource, "resource is null");
+            for (NodeType type : types) {
+                List<Resource> resources = typeResources.computeIfAbsent(type, t -> new ArrayList<>());
+                if (!resources.contains(resource))
+                    resources.add(resource);
+            }
+            return this;
+        }
+
+        public List<Resource> resources(NodeType type) {
+            return typeResources.getOrDefault(type, List.of());
+        }
+    }
+}
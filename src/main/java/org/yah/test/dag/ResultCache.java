@@ -0,0 +1,391 @@
+package org.yah.test.dag;
+
+import org.yah.test.dag.DagSandbox.DependencySupplier;
+import org.yah.test.dag.DagSandbox.NodeGroup;
+import org.yah.test.dag.DagSandbox.NodeType;
+import org.yah.test.marshall.NativeObjectFileMarshaller;
+import org.yah.test.marshall.NativeObjectFileUnmarshaller;
+import org.yah.test.marshall.NativeObjectFileUnmarshaller.NativeObjectsFile;
+import org.yah.test.marshall.NativeObjectsRegistry;
+import org.yah.test.marshall.TypeIntrospector;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * Content addressed cache of {@link NodeGroup} results, shared across executions of identical graphs.
+ * <p>
+ * The {@link Key} of a group hashes the key of its type, its node count, its {@link ResultTask#digestParameters
+ * parameters} and the keys of its dependencies, in dependency order. Tasks must be deterministic: the key of a group
+ * then identifies its result, and is used as the hash of that result by its dependents. Keys are computed from the
+ * graph before execution, a group whose key is cached is not executed. Groups with identical inputs, in the same graph
+ * or not, share their key and their result.
+ * <p>
+ * Collisions are the caller's responsibility. Type keys are given on creation, they must be unique per type and
+ * stable across JVMs for the disk tier to hit, which {@link Object#toString()} is not. Two groups of the same type and
+ * node count only get distinct keys if their task digests what differs between them, such as the members of the
+ * {@link GraphCoarsening} composite groups, which all share one type.
+ * <p>
+ * Results are kept in a bounded in-memory LRU tier, and optionally in a {@link DiskTier} storing one NBIN file per
+ * key. Dependencies outside of the scheduled nodes are hashed but never executed, and have no result.
+ */
+public final class ResultCache {
+
+    /**
+     * Compute the result of a group from the results of its dependencies.
+     */
+    @FunctionalInterface
+    public interface ResultTask {
+        Object compute(NodeGroup group, Results results) throws Exception;
+
+        /**
+         * Add the parameters of {@code group} to its key, nothing by default.
+         */
+        default void digestParameters(NodeGroup group, MessageDigest digest) {
+        }
+    }
+
+    private final int capacity;
+    private final Function<? super NodeType, String> typeKey;
+    private final Map<Key, Object> results;
+    @Nullable
+    private final DiskTier diskTier;
+    private long memoryHits;
+    private long diskHits;
+    private long misses;
+
+    public ResultCache(int capacity, Function<? super NodeType, String> typeKey) {
+        this(capacity, typeKey, null);
+    }
+
+    /**
+     * @param capacity results kept in memory
+     * @param typeKey  stable key of each type, hashed in the keys of its groups
+     * @param diskTier where results evicted from memory can still be found, null to keep results in memory only
+     */
+    public ResultCache(int capacity, Function<? super NodeType, String> typeKey, @Nullable DiskTier diskTier) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        this.capacity = capacity;
+        this.typeKey = Objects.requireNonNull(typeKey, "typeKey is null");
+        this.diskTier = diskTier;
+        this.results = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Object> eldest) {
+                return size() > ResultCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * @return the key of each node of {@code graph}, indexed by node id
+     * @throws IllegalArgumentException if the graph contains a cycle, or a type has no key
+     */
+    public Key[] keys(CsrGraph graph, Function<? super NodeType, ? extends ResultTask> tasks) {
+        MessageDigest digest = newDigest();
+        Key[] keys = new Key[graph.size()];
+        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + 2 * Long.BYTES);
+        for (int node : graph.topologicalOrder()) {
+            NodeGroup group = graph.group(node);
+            String key = typeKey.apply(group.type());
+            if (key == null)
+                throw new IllegalArgumentException("No key for NodeType " + group.type());
+            byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+            // length prefixed, the key can not run into the node count
+            digest.update(buffer.clear().putInt(keyBytes.length).flip());
+            digest.update(keyBytes);
+            digest.update(buffer.clear().putInt(group.nodeCount()).flip());
+            // externals are hashed but never executed, they may have no task
+            ResultTask task = tasks.apply(group.type());
+            if (task != null)
+                task.digestParameters(group, digest);
+            for (int i = 0; i < graph.dependencyCount(node); i++) {
+                Key dependency = keys[graph.dependency(node, i)];
+                digest.update(buffer.clear().putLong(dependency.high).putLong(dependency.low).flip());
+            }
+            keys[node] = Key.of(digest.digest());
+        }
+        return keys;
+    }
+
+    public Results execute(DagExecutor executor, Collection<NodeGroup> nodes,
+                           Function<? super NodeType, ? extends ResultTask> tasks) throws InterruptedException {
+        return execute(executor, nodes, null, tasks);
+    }
+
+    /**
+     * Execute the groups whose result is not cached, layer by layer.
+     *
+     * @throws IllegalArgumentException if the dependency graph contains a cycle
+     */
+    public Results execute(DagExecutor executor, Collection<NodeGroup> nodes, @Nullable DependencySupplier dependencySupplier,
+                           Function<? super NodeType, ? extends ResultTask> tasks) throws InterruptedException {
+        CsrGraph graph = CsrGraph.of(nodes, dependencySupplier);
+        Results results = new Results(graph, keys(graph, tasks));
+        executor.execute(graph.toGroups(graph.layers()), type -> resultTask(results, resolveTask(type, tasks)));
+        return results;
+    }
+
+    public Results execute(DataflowScheduler scheduler, Collection<NodeGroup> nodes,
+                           Function<? super NodeType, ? extends ResultTask> tasks) throws InterruptedException {
+        return execute(scheduler, nodes, null, tasks);
+    }
+
+    /**
+     * Execute the groups whose result is not cached, each group as soon as its dependencies completed.
+     *
+     * @throws IllegalArgumentException if the dependency graph contains a cycle
+     */
+    public Results execute(DataflowScheduler scheduler, Collection<NodeGroup> nodes, @Nullable DependencySupplier dependencySupplier,
+                           Function<? super NodeType, ? extends ResultTask> tasks) throws InterruptedException {
+        CsrGraph graph = CsrGraph.of(nodes, dependencySupplier);
+        Results results = new Results(graph, keys(graph, tasks));
+        scheduler.execute(nodes, dependencySupplier, type -> resultTask(results, resolveTask(type, tasks)));
+        return results;
+    }
+
+    private static ResultTask resolveTask(NodeType type, Function<? super NodeType, ? extends ResultTask> tasks) {
+        ResultTask task = tasks.apply(type);
+        if (task == null)
+            throw new IllegalArgumentException("No task for NodeType " + type);
+        return task;
+    }
+
+    private NodeTask resultTask(Results results, ResultTask task) {
+        return group -> {
+            int node = results.graph.indexOf(group);
+            Key key = results.keys[node];
+            Object result = get(key);
+            if (result == null) {
+                result = task.compute(group, results);
+                if (result == null)
+                    throw new IllegalStateException("ResultTask of " + group + " returned null");
+                put(key, result);
+            }
+            results.results[node] = result;
+        };
+    }
+
+    /**
+     * @return the cached result of {@code key}, from memory or disk, null if not cached
+     */
+    @Nullable
+    public Object get(Key key) {
+        synchronized (this) {
+            Object result = results.get(key);
+            if (result != null) {
+                memoryHits++;
+                return result;
+            }
+        }
+        Object result = diskTier != null ? diskTier.read(key) : null;
+        synchronized (this) {
+            if (result != null) {
+                diskHits++;
+                results.put(key, result);
+            } else {
+                misses++;
+            }
+        }
+        return result;
+    }
+
+    public void put(Key key, Object result) {
+        synchronized (this) {
+            results.put(key, result);
+        }
+        if (diskTier != null)
+            diskTier.write(key, result);
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return number of results in the memory tier
+     */
+    public synchronized int size() {
+        return results.size();
+    }
+
+    public synchronized long memoryHits() {
+        return memoryHits;
+    }
+
+    public synchronized long diskHits() {
+        return diskHits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    /**
+     * Remove all results from the memory tier, counters and disk tier are kept.
+     */
+    public synchronized void clear() {
+        results.clear();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * First 128 bits of the SHA-256 of a group inputs.
+     */
+    public record Key(long high, long low) {
+        static Key of(byte[] digest) {
+            ByteBuffer buffer = ByteBuffer.wrap(digest);
+            return new Key(buffer.getLong(), buffer.getLong());
+        }
+
+        @Override
+        public String toString() {
+            return HexFormat.of().toHexDigits(high) + HexFormat.of().toHexDigits(low);
+        }
+    }
+
+    /**
+     * Results of the scheduled groups of an execution.
+     */
+    public static final class Results {
+        private final CsrGraph graph;
+        private final Key[] keys;
+        private final Object[] results;
+
+        private Results(CsrGraph graph, Key[] keys) {
+            this.graph = graph;
+            this.keys = keys;
+            this.results = new Object[graph.size()];
+        }
+
+        /**
+         * @throws IllegalArgumentException if {@code group} is not scheduled
+         */
+        public Key key(NodeGroup group) {
+            return keys[requireScheduled(group)];
+        }
+
+        /**
+         * @return the result of a group, a dependency result is always available to its dependents
+         * @throws IllegalArgumentException if {@code group} is not scheduled
+         * @throws IllegalStateException    if {@code group} was not executed yet
+         */
+        public Object get(NodeGroup group) {
+            Object result = results[requireScheduled(group)];
+            if (result == null)
+                throw new IllegalStateException("NodeGroup " + group + " has no result");
+            return result;
+        }
+
+        private int requireScheduled(NodeGroup group) {
+            int node = graph.indexOf(group);
+            if (node < 0 || node >= graph.scheduledCount())
+                throw new IllegalArgumentException("NodeGroup " + group + " is not scheduled");
+            return node;
+        }
+    }
+
+    /**
+     * One {@link NativeObjectFileMarshaller NBIN} file per key in a directory. Results must be marshallable by the
+     * native object marshaller.
+     * <p>
+     * Files are written to a temporary file first and atomically moved, so concurrent executions sharing the directory
+     * never read a partial result. A file that can not be read back, truncated, corrupted or written for another version
+     * of the result classes, is deleted and read as a miss: the group is computed again and its file rewritten.
+     */
+    public static final class DiskTier {
+        private static final String EXTENSION = ".nbin";
+
+        private final Path directory;
+        private final NativeObjectFileMarshaller marshaller;
+        private final NativeObjectFileUnmarshaller unmarshaller;
+
+        public DiskTier(Path directory) {
+            this(directory, null);
+        }
+
+        /**
+         * @param typeIntrospector fields of the marshalled results, default introspector if null
+         */
+        public DiskTier(Path directory, @Nullable TypeIntrospector typeIntrospector) {
+            try {
+                this.directory = Files.createDirectories(directory);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            this.marshaller = new NativeObjectFileMarshaller(new NativeObjectsRegistry(typeIntrospector));
+            this.unmarshaller = new NativeObjectFileUnmarshaller(typeIntrospector);
+        }
+
+        public Path directory() {
+            return directory;
+        }
+
+        public Path file(Key key) {
+            return directory.resolve(key + EXTENSION);
+        }
+
+        public boolean contains(Key key) {
+            return Files.exists(file(key));
+        }
+
+        @Nullable
+        Object read(Key key) {
+            Path file = file(key);
+            if (!Files.exists(file))
+                return null;
+            try (NativeObjectsFile nativeObjectsFile = unmarshaller.loadNativeObjectsFile(file)) {
+                return nativeObjectsFile.unmarshall();
+            } catch (IOException | RuntimeException e) {
+                delete(file);
+                return null;
+            }
+        }
+
+        private static void delete(Path file) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Error deleting unreadable cached result " + file, e);
+            }
+        }
+
+        void write(Key key, Object result) {
+            Path file = file(key);
+            try {
+                Path tmpFile = Files.createTempFile(directory, key.toString(), ".tmp");
+                try {
+                    synchronized (marshaller) {
+                        marshaller.marshall(tmpFile, result);
+                    }
+                    Files.move(tmpFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } finally {
+                    Files.deleteIfExists(tmpFile);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Error writing cached result " + file, e);
+            }
+        }
+    }
+}
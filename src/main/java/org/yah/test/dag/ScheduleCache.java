@@ -0,0 +1,188 @@
+package org.yah.test.dag;
+
+import org.yah.test.dag.DagSandbox.DependencySupplier;
+import org.yah.test.dag.DagSandbox.NodeGroup;
+import org.yah.test.dag.DagSandbox.NodeType;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of {@link DagSandbox#parallelizedDag(Collection, DependencySupplier)} results, keyed by the
+ * {@link Fingerprint} of the graph.
+ * <p>
+ * A structurally identical graph, built from other {@link NodeGroup} instances, gets the cached layers remapped to
+ * its own groups. Groups are matched by position: the nodes must be given in the same order, and the dependencies of
+ * each group returned in the same order.
+ */
+public final class ScheduleCache {
+
+    private final int capacity;
+    private final Map<Fingerprint, CsrGraph.Layers> schedules;
+    private long hits;
+    private long misses;
+
+    public ScheduleCache(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        this.capacity = capacity;
+        this.schedules = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Fingerprint, CsrGraph.Layers> eldest) {
+                return size() > ScheduleCache.this.capacity;
+            }
+        };
+    }
+
+    public NodeGroup[][] parallelizedDag(Collection<NodeGroup> nodes) {
+        return parallelizedDag(nodes, null);
+    }
+
+    /**
+     * Same as {@link DagSandbox#parallelizedDag(Collection, DependencySupplier)}, reusing the layers of a previous
+     * call on the same structure.
+     *
+     * @throws IllegalArgumentException if the dependency graph contains a cycle
+     */
+    public NodeGroup[][] parallelizedDag(Collection<NodeGroup> nodes, @Nullable DependencySupplier dependencySupplier) {
+        if (nodes.isEmpty())
+            return new NodeGroup[0][];
+        CsrGraph graph = CsrGraph.of(nodes, dependencySupplier);
+        if (graph.scheduledCount() != nodes.size()) {
+            // duplicated groups are scheduled twice by parallelizedDag, not worth caching
+            synchronized (this) {
+                misses++;
+            }
+            return DagSandbox.parallelizedDag(nodes, dependencySupplier);
+        }
+
+        Fingerprint fingerprint = Fingerprint.of(graph);
+        CsrGraph.Layers layers;
+        synchronized (this) {
+            layers = schedules.get(fingerprint);
+            if (layers != null) hits++;
+            else misses++;
+        }
+        if (layers == null) {
+            layers = graph.layers();
+            synchronized (this) {
+                schedules.put(fingerprint, layers);
+            }
+        }
+        return graph.toGroups(layers);
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public synchronized int size() {
+        return schedules.size();
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    /**
+     * Remove all cached schedules, counters are kept.
+     */
+    public synchronized void clear() {
+        schedules.clear();
+    }
+
+    /**
+     * Structure of a {@link CsrGraph}: types, node counts and dependencies of each node, independent of the
+     * {@link NodeGroup} instances. The hash is computed once, equality compares the whole structure so that hash
+     * collisions can not return a wrong schedule.
+     */
+    public static final class Fingerprint {
+        private final int scheduledCount;
+        private final NodeType[] types;
+        private final int[] typeIds;
+        private final int[] nodeCounts;
+        private final int[] dependencyOffsets;
+        private final int[] dependencies;
+        private final long hash;
+
+        private Fingerprint(int scheduledCount, NodeType[] types, int[] typeIds, int[] nodeCounts,
+                            int[] dependencyOffsets, int[] dependencies) {
+            this.scheduledCount = scheduledCount;
+            this.types = types;
+            this.typeIds = typeIds;
+            this.nodeCounts = nodeCounts;
+            this.dependencyOffsets = dependencyOffsets;
+            this.dependencies = dependencies;
+            long h = scheduledCount;
+            h = mix(h, Arrays.hashCode(types));
+            for (int node = 0; node < typeIds.length; node++) {
+                h = mix(h, typeIds[node]);
+                h = mix(h, nodeCounts[node]);
+                h = mix(h, dependencyOffsets[node + 1]);
+            }
+            for (int dependency : dependencies)
+                h = mix(h, dependency);
+            this.hash = h;
+        }
+
+        /**
+         * @throws IllegalStateException if the graph was not built from {@link NodeGroup}s
+         */
+        public static Fingerprint of(CsrGraph graph) {
+            int size = graph.size();
+            int[] typeIds = new int[size];
+            int[] nodeCounts = new int[size];
+            int typeCount = 0;
+            for (int node = 0; node < size; node++) {
+                typeIds[node] = graph.typeId(node);
+                nodeCounts[node] = graph.nodeCount(node);
+                typeCount = Math.max(typeCount, typeIds[node] + 1);
+            }
+            NodeType[] types = new NodeType[typeCount];
+            for (int node = 0; node < size; node++)
+                types[typeIds[node]] = graph.group(node).type();
+            // graph arrays are never modified, no need to copy them
+            return new Fingerprint(graph.scheduledCount(), types, typeIds, nodeCounts, graph.dependencyOffsets,
+                    graph.dependencies);
+        }
+
+        public long hash() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Fingerprint other)) return false;
+            return hash == other.hash
+                   && scheduledCount == other.scheduledCount
+                   && Arrays.equals(types, other.types)
+                   && Arrays.equals(typeIds, other.typeIds)
+                   && Arrays.equals(nodeCounts, other.nodeCounts)
+                   && Arrays.equals(dependencyOffsets, other.dependencyOffsets)
+                   && Arrays.equals(dependencies, other.dependencies);
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(hash);
+        }
+
+        @Override
+        public String toString() {
+            return "Fingerprint[" + Long.toHexString(hash) + ", size=" + typeIds.length + "]";
+        }
+
+        private static long mix(long h, int value) {
+            h = (h ^ value) * 0x9E3779B97F4A7C15L;
+            return h ^ (h >>> 29);
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package org.yah.test.dag;
+
+import org.yah.test.dag.DagSandbox.DependencySupplier;
+import org.yah.test.dag.DagSandbox.NodeGroup;
+import org.yah.test.dag.DagSandbox.NodeType;
+
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * Execute {@link NodeGroup}s as the stages of a pipeline, streaming items along the dependency edges.
+ * <p>
+ * All stages run concurrently, each on its own thread for the whole execution. A stage without executed dependency is
+ * a source and produces its items from {@link StreamTask#produce}, the other stages receive every item emitted by their
+ * dependencies, and the end of their streams once all of them completed. Items emitted by a stage are sent to all its
+ * dependents, the same instance to each of them, and the items of a dependency are received in emission order.
+ * <p>
+ * Each stage has a bounded input queue, shared by the edges from its dependencies: emitting to a full queue blocks
+ * until the dependent catches up, so a slow stage throttles its sources instead of buffering their whole stream.
+ * <p>
+ * Dependencies outside of the executed nodes are not executed and emit nothing. Once a stage fails, all the other
+ * stages are interrupted and the first error is thrown once they all stopped.
+ */
+public final class StreamingScheduler implements AutoCloseable {
+
+    private static final Object END = new Object();
+
+    private final ExecutorService executorService;
+    private final boolean ownsExecutorService;
+    private final int queueCapacity;
+
+    /**
+     * Run each stage on a virtual thread.
+     */
+    public StreamingScheduler(int queueCapacity) {
+        this(Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("stream-stage-", 0).factory()), true, queueCapacity);
+    }
+
+    /**
+     * @param executorService must be able to run all the stages of an execution at once, since they block on each
+     *                        other, not closed by {@link #close()}
+     */
+    public StreamingScheduler(ExecutorService executorService, int queueCapacity) {
+        this(executorService, false, queueCapacity);
+    }
+
+    private StreamingScheduler(ExecutorService executorService, boolean ownsExecutorService, int queueCapacity) {
+        if (queueCapacity <= 0)
+            throw new IllegalArgumentException("Invalid queue capacity " + queueCapacity);
+        this.executorService = Objects.requireNonNull(executorService, "executorService is null");
+        this.ownsExecutorService = ownsExecutorService;
+        this.queueCapacity = queueCapacity;
+    }
+
+    public int queueCapacity() {
+        return queueCapacity;
+    }
+
+    public ExecutionReport execute(Collection<NodeGroup> nodes, Function<? super NodeType, ? extends StreamTask> tasks) throws InterruptedException {
+        return execute(nodes, null, tasks);
+    }
+
+    /**
+     * @throws IllegalArgumentException   if the dependency graph contains a cycle, or a {@link NodeType} has no task
+     * @throws RejectedExecutionException if the executor service rejects a stage, once the started ones stopped
+     */
+    public ExecutionReport execute(Collection<NodeGroup> nodes, @Nullable DependencySupplier dependencySupplier,
+                                   Function<? super NodeType, ? extends StreamTask> tasks) throws InterruptedException {
+        if (dependencySupplier == null)
+            dependencySupplier = NodeGroup::dependencies;
+
+        CsrGraph graph = CsrGraph.of(nodes, dependencySupplier);
+        graph.depths(); // fail fast on cycles, stages would wait for each other forever
+        StreamTask[] stageTasks = new StreamTask[graph.scheduledCount()];
+        for (int i = 0; i < stageTasks.length; i++) {
+            NodeType type = graph.group(i).type();
+            StreamTask task = tasks.apply(type);
+            if (task == null)
+                throw new IllegalArgumentException("No task for NodeType " + type);
+            stageTasks[i] = task;
+        }
+
+        long start = System.nanoTime();
+        long itemCount = 0;
+        if (stageTasks.length > 0) {
+            Execution execution = new Execution(graph, stageTasks);
+            execution.start();
+            itemCount = execution.await();
+        }
+        return new ExecutionReport(stageTasks.length, itemCount, System.nanoTime() - start);
+    }
+
+    @Override
+    public void close() {
+        if (ownsExecutorService)
+            executorService.close();
+    }
+
+    private final class Execution {
+        private final NodeGroup[] nodes;
+        private final StreamTask[] tasks;
+        private final int[] successorOffsets;
+        private final int[] successors;
+        // executed dependencies of each stage, the number of END to receive
+        private final int[] inputCounts;
+        private final BlockingQueue<Item>[] inputs;
+        private final long[] emittedCounts;
+        private final Thread[] threads;
+        private final CountDownLatch completed;
+        private final AtomicReference<RuntimeException> error = new AtomicReference<>();
+        private boolean cancelled;
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Execution(CsrGraph graph, StreamTask[] tasks) {
+            this.nodes = graph.groups();
+            this.tasks = tasks;
+            CsrGraph.Successors graphSuccessors = graph.successors();
+            this.successorOffsets = graphSuccessors.offsets();
+            this.successors = graphSuccessors.successors();
+            int stageCount = tasks.length;
+            this.inputCounts = new int[stageCount];
+            this.inputs = new BlockingQueue[stageCount];
+            for (int stage = 0; stage < stageCount; stage++) {
+                for (int e = successorOffsets[stage]; e < successorOffsets[stage + 1]; e++)
+                    inputCounts[successors[e]]++;
+            }
+            for (int stage = 0; stage < stageCount; stage++) {
+                if (inputCounts[stage] > 0)
+                    inputs[stage] = new ArrayBlockingQueue<>(queueCapacity);
+            }
+            this.emittedCounts = new long[stageCount];
+            this.threads = new Thread[stageCount];
+            this.completed = new CountDownLatch(stageCount);
+        }
+
+        /**
+         * Once a stage is rejected, the started ones are cancelled and waited for before the rejection is thrown.
+         */
+        void start() {
+            for (int stage = 0; stage < tasks.length; stage++) {
+                int s = stage;
+                try {
+                    executorService.execute(() -> run(s));
+                } catch (RejectedExecutionException e) {
+                    cancel();
+                    for (int i = stage; i < tasks.length; i++)
+                        completed.countDown();
+                    if (awaitStopped())
+                        Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+
+        /**
+         * Once interrupted, the stages are cancelled and still waited for: no user task runs after execute returned.
+         *
+         * @return the number of emitted items
+         */
+        long await() throws InterruptedException {
+            try {
+                completed.await();
+            } catch (InterruptedException e) {
+                cancel();
+                awaitStopped();
+                throw e;
+            }
+            RuntimeException e = error.get();
+            if (e != null)
+                throw e;
+            long count = 0;
+            for (long emitted : emittedCounts) count += emitted;
+            return count;
+        }
+
+        /**
+         * @return true if interrupted while waiting
+         */
+        private boolean awaitStopped() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    completed.await();
+                    return interrupted;
+                } catch (InterruptedException e) {
+                    // still waiting for the cancelled stages
+                    interrupted = true;
+                }
+            }
+        }
+
+        private void run(int stage) {
+            try {
+                if (register(stage))
+                    stream(stage);
+            } catch (Throwable e) {
+                // interruptions caused by an earlier error are dropped
+                if (error.compareAndSet(null, new RuntimeException("Error executing node group " + nodes[stage], e)))
+                    cancel();
+            } finally {
+                unregister(stage);
+                completed.countDown();
+            }
+        }
+
+        private void stream(int stage) throws Exception {
+            NodeGroup group = nodes[stage];
+            StreamTask task = tasks[stage];
+            Emitter emitter = item -> emit(stage, Objects.requireNonNull(item, "item is null"));
+            if (inputCounts[stage] == 0) {
+                task.produce(group, emitter);
+            } else {
+                BlockingQueue<Item> input = inputs[stage];
+                int ended = 0;
+                while (ended < inputCounts[stage]) {
+                    Item item = input.take();
+                    if (item.value == END)
+                        ended++;
+                    else
+                        task.accept(group, nodes[item.from], item.value, emitter);
+                }
+            }
+            task.completed(group, emitter);
+            send(stage, END);
+        }
+
+        private void emit(int stage, Object value) throws InterruptedException {
+            send(stage, value);
+            emittedCounts[stage]++;
+        }
+
+        private void send(int stage, Object value) throws InterruptedException {
+            int end = successorOffsets[stage + 1];
+            if (successorOffsets[stage] == end)
+                return;
+            Item item = new Item(stage, value);
+            for (int e = successorOffsets[stage]; e < end; e++)
+                inputs[successors[e]].put(item);
+        }
+
+        /**
+         * @return false if the execution was cancelled before the stage started
+         */
+        private synchronized boolean register(int stage) {
+            if (cancelled)
+                return false;
+            threads[stage] = Thread.currentThread();
+            return true;
+        }
+
+        private synchronized void unregister(int stage) {
+            // a pooled thread must not stay interrupted once it left the stage
+            threads[stage] = null;
+            Thread.interrupted();
+        }
+
+        private synchronized void cancel() {
+            cancelled = true;
+            for (Thread thread : threads) {
+                if (thread != null)
+                    thread.interrupt();
+            }
+        }
+    }
+
+    private record Item(int from, Object value) {
+    }
+
+    /**
+     * Sends items to the dependents of a stage, blocking while the input queue of one of them is full.
+     */
+    @FunctionalInterface
+    public interface Emitter {
+        void emit(Object item) throws InterruptedException;
+    }
+
+    /**
+     * Work executed by a {@link NodeGroup} stage, once per execution for {@link #produce} and {@link #completed}, and
+     * once per received item for {@link #accept}. Calls for a stage are made from a single thread.
+     */
+    public interface StreamTask {
+        /**
+         * Emit the items of a source stage, a stage without executed dependency.
+         */
+        default void produce(NodeGroup group, Emitter emitter) throws Exception {
+        }
+
+        /**
+         * @param from the dependency that emitted the item
+         */
+        void accept(NodeGroup group, NodeGroup from, Object item, Emitter emitter) throws Exception;
+
+        /**
+         * Called after the last item was received, before the end of the stream is sent to the dependents.
+         */
+        default void completed(NodeGroup group, Emitter emitter) throws Exception {
+        }
+    }
+
+    /**
+     * @param itemCount items emitted by all the stages
+     */
+    public record ExecutionReport(int stageCount, long itemCount, long totalNanos) {
+    }
+}
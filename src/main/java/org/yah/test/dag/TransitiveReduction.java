@@ -0,0 +1,143 @@
+package org.yah.test.dag;
+
+import org.yah.test.dag.DagSandbox.DependencySupplier;
+import org.yah.test.dag.DagSandbox.NodeGroup;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remove redundant dependencies: a dependency of a group is dropped when it is already a transitive dependency of
+ * another dependency of the same group. Duplicated dependencies are also dropped.
+ * <p>
+ * The reduced graph has the same transitive closure, so the same depths and layers, with fewer edges to walk.
+ * Reachability comes from a {@link DagIndex}, memory grows as {@code size² / 16} bytes.
+ */
+public final class TransitiveReduction {
+
+    private TransitiveReduction() {
+    }
+
+    public static Reduction reduce(Collection<NodeGroup> nodes) {
+        return reduce(nodes, null);
+    }
+
+    /**
+     * Reduce the dependencies of {@code nodes} and all their transitive dependencies.
+     *
+     * @throws IllegalArgumentException if the dependency graph contains a cycle, or is too large to be indexed
+     */
+    public static Reduction reduce(Collection<NodeGroup> nodes, @Nullable DependencySupplier dependencySupplier) {
+        if (dependencySupplier == null)
+            dependencySupplier = NodeGroup::dependencies;
+        DagIndex index = DagIndex.create(nodes, dependencySupplier);
+        int size = index.size();
+        Map<NodeGroup, List<NodeGroup>> dependencies = new IdentityHashMap<>(size * 2);
+        // ancestors of the kept dependencies, and kept dependencies of the current node
+        long[] covered = new long[(size >>> 6) + 1];
+        long[] kept = new long[covered.length];
+        int[] sorted = new int[16];
+        int[] keptIndices = new int[16];
+        int edgeCount = 0, reducedEdgeCount = 0;
+        for (int node = 0; node < size; node++) {
+            int count = index.dependencyCount(node);
+            edgeCount += count;
+            if (count <= 1) {
+                dependencies.put(index.get(node), count == 0 ? List.of() : List.of(index.get(index.dependency(node, 0))));
+                reducedEdgeCount += count;
+                continue;
+            }
+
+            if (sorted.length < count) {
+                sorted = new int[count];
+                keptIndices = new int[count];
+            }
+            for (int i = 0; i < count; i++)
+                sorted[i] = index.dependency(node, i);
+            Arrays.sort(sorted, 0, count);
+
+            // a dependency can only be an ancestor of dependencies with a greater index, the ancestors of removed
+            // dependencies are already covered by a kept one. Check the kept ones pairwise while cheaper than
+            // merging their ancestors bitsets.
+            int words = (sorted[count - 1] >>> 6) + 1;
+            boolean useBitset = count > words;
+            int keptCount = 0;
+            for (int i = count - 1; i >= 0; i--) {
+                int dependency = sorted[i];
+                if (i < count - 1 && dependency == sorted[i + 1])
+                    continue;
+                boolean redundant = false;
+                if (useBitset) {
+                    redundant = (covered[dependency >>> 6] & (1L << dependency)) != 0;
+                } else {
+                    for (int k = 0; k < keptCount && !redundant; k++)
+                        redundant = index.dependsOn(keptIndices[k], dependency);
+                }
+                if (!redundant) {
+                    keptIndices[keptCount++] = dependency;
+                    kept[dependency >>> 6] |= 1L << dependency;
+                    if (useBitset)
+                        index.addAncestors(dependency, covered);
+                }
+            }
+
+            // keep the dependencies order
+            List<NodeGroup> nodeDependencies = new ArrayList<>(keptCount);
+            for (int i = 0; i < count; i++) {
+                int dependency = index.dependency(node, i);
+                if ((kept[dependency >>> 6] & (1L << dependency)) != 0) {
+                    nodeDependencies.add(index.get(dependency));
+                    kept[dependency >>> 6] &= ~(1L << dependency);
+                }
+            }
+            dependencies.put(index.get(node), Collections.unmodifiableList(nodeDependencies));
+            reducedEdgeCount += keptCount;
+            if (useBitset)
+                Arrays.fill(covered, 0, words, 0L);
+        }
+        return new Reduction(dependencies, dependencySupplier, edgeCount, reducedEdgeCount);
+    }
+
+    public static final class Reduction {
+        private final Map<NodeGroup, List<NodeGroup>> dependencies;
+        private final DependencySupplier fallback;
+        private final int edgeCount;
+        private final int reducedEdgeCount;
+
+        private Reduction(Map<NodeGroup, List<NodeGroup>> dependencies, DependencySupplier fallback, int edgeCount,
+                          int reducedEdgeCount) {
+            this.dependencies = dependencies;
+            this.fallback = fallback;
+            this.edgeCount = edgeCount;
+            this.reducedEdgeCount = reducedEdgeCount;
+        }
+
+        /**
+         * @return the reduced dependencies, groups that were not reduced get their original dependencies
+         */
+        public DependencySupplier dependencySupplier() {
+            return node -> {
+                List<NodeGroup> res = dependencies.get(node);
+                return res != null ? res : fallback.apply(node);
+            };
+        }
+
+        public int edgeCount() {
+            return edgeCount;
+        }
+
+        public int reducedEdgeCount() {
+            return reducedEdgeCount;
+        }
+
+        public int removedEdgeCount() {
+            return edgeCount - reducedEdgeCount;
+        }
+    }
+}
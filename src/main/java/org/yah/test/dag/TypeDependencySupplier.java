@@ -0,0 +1,74 @@
+package org.yah.test.dag;
+
+import org.yah.test.dag.DagSandbox.DependencySupplier;
+import org.yah.test.dag.DagSandbox.NodeGroup;
+import org.yah.test.dag.DagSandbox.NodeType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@link DependencySupplier} adding type level dependencies to the explicit {@link NodeGroup#dependencies()}.
+ * <p>
+ * Groups are bucketed by type in a single pass, then the buckets of the dependency types are concatenated once per
+ * dependent type and shared by all its groups. Dependencies are resolved once at construction,
+ * {@link #apply(NodeGroup)} is a lookup.
+ * Groups outside of {@code nodes} only get their explicit dependencies.
+ */
+final class TypeDependencySupplier implements DependencySupplier {
+
+    private final Map<NodeGroup, List<NodeGroup>> nodeDependencies;
+
+    TypeDependencySupplier(Collection<NodeGroup> nodes, Map<NodeType, Set<NodeType>> typesDependencies) {
+        Map<NodeType, List<NodeGroup>> groupsByType = new HashMap<>();
+        for (NodeGroup node : nodes) {
+            groupsByType.computeIfAbsent(node.type(), t -> new ArrayList<>()).add(node);
+        }
+
+        Map<NodeType, List<NodeGroup>> typeGroups = new HashMap<>();
+        for (Map.Entry<NodeType, Set<NodeType>> entry : typesDependencies.entrySet()) {
+            if (groupsByType.containsKey(entry.getKey()))
+                typeGroups.put(entry.getKey(), collectGroups(groupsByType, entry.getValue()));
+        }
+
+        nodeDependencies = new IdentityHashMap<>(nodes.size() * 2);
+        for (NodeGroup node : nodes) {
+            List<NodeGroup> typeDependencies = typeGroups.get(node.type());
+            List<NodeGroup> dependencies;
+            if (typeDependencies == null || typeDependencies.isEmpty()) {
+                dependencies = node.dependencies();
+            } else if (node.dependencies().isEmpty()) {
+                dependencies = typeDependencies;
+            } else {
+                NodeGroup[] concat = Arrays.copyOf(node.dependencies().toArray(NodeGroup[]::new),
+                        node.dependencies().size() + typeDependencies.size());
+                for (int i = 0; i < typeDependencies.size(); i++)
+                    concat[node.dependencies().size() + i] = typeDependencies.get(i);
+                dependencies = Collections.unmodifiableList(Arrays.asList(concat));
+            }
+            nodeDependencies.put(node, dependencies);
+        }
+    }
+
+    @Override
+    public Collection<NodeGroup> apply(NodeGroup node) {
+        List<NodeGroup> dependencies = nodeDependencies.get(node);
+        return dependencies != null ? dependencies : node.dependencies();
+    }
+
+    private static List<NodeGroup> collectGroups(Map<NodeType, List<NodeGroup>> groupsByType, Set<NodeType> types) {
+        List<NodeGroup> groups = new ArrayList<>();
+        // sorted for a stable dependencies order
+        for (NodeType type : types.stream().sorted().toList()) {
+            groups.addAll(groupsByType.getOrDefault(type, List.of()));
+        }
+        return Collections.unmodifiableList(Arrays.asList(groups.toArray(NodeGroup[]::new)));
+    }
+}
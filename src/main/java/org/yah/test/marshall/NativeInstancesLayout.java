@@ -82,7 +82,8 @@ public final class NativeInstancesLayout implements Iterable<NativeInstancesLayo
             return false;
 
         long offset = align(currentOffset(), alignment);
-        int size = sizeOfInstance(instance);
+        // an empty array still needs its own address, or it would be resolved as the next instance
+        int size = Math.max(1, sizeOfInstance(instance));
         addEntry(new LayoutEntry(instance, offset, size));
         return true;
     }
@@ -0,0 +1,128 @@
+package org.yah.test.dag;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.yah.test.dag.DagSandbox.*;
+
+class AdaptiveCostModelTest {
+
+    @Test
+    void movingAverage() {
+        NodeType[] types = TestGraphs.types(3);
+        NodeGroup a = new NodeGroup(types[0], 10), b = new NodeGroup(types[0], 20), c = new NodeGroup(types[1], 5);
+        AdaptiveCostModel model = new AdaptiveCostModel(0.5, AdaptiveCostModel.Granularity.GROUP);
+        // nothing measured, one nanosecond per node
+        assertEquals(10, model.cost(a));
+
+        model.record(a, 1000);
+        assertEquals(1000, model.cost(a));
+        // per type estimate
+        assertEquals(2000, model.cost(b));
+        model.record(a, 2000);
+        assertEquals(1500, model.cost(a));
+        assertEquals(150, model.typeEstimates().get(types[0]).doubleValue());
+
+        // unknown type, average of measured types
+        assertEquals(750, model.cost(c));
+        model.record(c, 50);
+        assertEquals(50, model.cost(c));
+        assertEquals(80 * 3, model.cost(new NodeGroup(types[2], 3)));
+
+        AdaptiveCostModel typeModel = new AdaptiveCostModel(0.5, AdaptiveCostModel.Granularity.TYPE);
+        typeModel.record(a, 1000);
+        typeModel.record(b, 4000);
+        assertEquals(150 * 10, typeModel.cost(a));
+
+        assertThrows(IllegalArgumentException.class, () -> new AdaptiveCostModel(0, AdaptiveCostModel.Granularity.TYPE));
+        assertThrows(IllegalArgumentException.class, () -> model.record(a, -1));
+    }
+
+    @Test
+    void recordExecutions() throws InterruptedException {
+        NodeType[] types = TestGraphs.types(2);
+        NodeGroup slow = new NodeGroup(types[0], 1), fast = new NodeGroup(types[1], 1);
+        NodeGroup chunked = new NodeGroup(types[1], 100);
+        AdaptiveCostModel model = new AdaptiveCostModel(1, AdaptiveCostModel.Granularity.GROUP);
+        ChunkRecorder chunkRecorder = new ChunkRecorder();
+        Map<NodeType, NodeTask> tasks = Map.of(types[0], group -> Thread.sleep(20), types[1], chunkRecorder);
+        try (DagExecutor executor = new DagExecutor(4, 10)) {
+            executor.execute(parallelizedDag(List.of(slow, fast, chunked)), model.recording(tasks::get));
+        }
+        assertTrue(model.cost(slow) >= 20_000_000);
+        assertTrue(model.cost(fast) < model.cost(slow));
+        assertTrue(model.cost(chunked) > 0);
+        chunkRecorder.assertCompleted(List.of(fast, chunked));
+        assertNull(model.recording(type -> null).apply(types[0]));
+    }
+
+    @Test
+    void storeAndLoad() throws IOException {
+        NodeType[] types = TestGraphs.types(3);
+        AdaptiveCostModel model = new AdaptiveCostModel();
+        model.record(new NodeGroup(types[0], 4), 400);
+        model.record(new NodeGroup(types[1], 2), 50);
+        StringWriter writer = new StringWriter();
+        Map<NodeType, String> keys = Map.of(types[0], "first", types[1], "second");
+        model.store(writer, keys::get);
+
+        AdaptiveCostModel loaded = new AdaptiveCostModel();
+        loaded.setTypeEstimate(types[2], 5);
+        Map<String, NodeType> byKey = Map.of("first", types[0]);
+        loaded.load(new StringReader(writer.toString()), byKey::get);
+        // replaced, unknown keys are skipped
+        assertEquals(Map.of(types[0], 100.0), loaded.typeEstimates());
+        assertEquals(1000, loaded.cost(new NodeGroup(types[0], 10)));
+
+        assertThrows(IOException.class, () -> loaded.load(new StringReader("first=abc"), byKey::get));
+        assertEquals(Map.of(types[0], 100.0), loaded.typeEstimates());
+        assertThrows(IllegalArgumentException.class, () -> model.store(new StringWriter(), type -> "same"));
+    }
+
+    @Test
+    void recordingFollowsSuppliedTasks() throws InterruptedException {
+        NodeType[] types = TestGraphs.types(1);
+        NodeGroup group = new NodeGroup(types[0], 1);
+        AdaptiveCostModel model = new AdaptiveCostModel();
+        List<String> executed = new ArrayList<>();
+        NodeTask[] current = {g -> executed.add("first")};
+        Function<NodeType, NodeTask> recording = model.recording(type -> current[0]);
+        try (DagExecutor executor = new DagExecutor(1)) {
+            executor.execute(new NodeGroup[][]{{group}}, recording);
+            current[0] = g -> executed.add("second");
+            executor.execute(new NodeGroup[][]{{group}}, recording);
+        }
+        assertEquals(List.of("first", "second"), executed);
+        assertSame(recording.apply(types[0]), recording.apply(types[0]));
+    }
+
+    @Test
+    void costCappedLayers() {
+        NodeType[] types = TestGraphs.types(2);
+        NodeGroup a = new NodeGroup(types[0], 1), b = new NodeGroup(types[0], 1), c = new NodeGroup(types[1], 1);
+        NodeGroup d = new NodeGroup(types[1], 1, a, b, c);
+        AdaptiveCostModel model = new AdaptiveCostModel();
+        model.setTypeEstimate(types[0], 10);
+        model.setTypeEstimate(types[1], 50);
+        NodeGroup[][] layers = DagLayering.costCappedLayers(List.of(c, a, b, d), null, model, 30);
+        assertArrayEquals(new NodeGroup[][]{{a, b}, {c}, {d}}, layers);
+
+        Random random = new Random(12345);
+        List<NodeGroup> nodes = TestGraphs.randomDag(random, 300, 5, 3);
+        assertArrayEquals(parallelizedDag(nodes), DagLayering.costCappedLayers(nodes, null, CostModel.nodeCount(), Double.MAX_VALUE));
+        NodeGroup[][] capped = DagLayering.costCappedLayers(nodes, null, CostModel.nodeCount(), 20);
+        assertEquals(nodes.size(), Arrays.stream(capped).mapToInt(l -> l.length).sum());
+        for (NodeGroup[] layer : capped)
+            assertTrue(layer.length == 1 || Arrays.stream(layer).mapToInt(NodeGroup::nodeCount).sum() <= 20);
+    }
+}
@@ -0,0 +1,200 @@
+package org.yah.test.dag;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.yah.test.dag.DagSandbox.*;
+
+class AffinitySchedulerTest {
+
+    @Test
+    void dependenciesCompleteBeforeStart() throws InterruptedException {
+        List<NodeGroup> nodes = TestGraphs.randomDag(new Random(12345), 500, 10, 4);
+        ExecutionRecorder recorder = new ExecutionRecorder();
+        try (AffinityScheduler scheduler = new AffinityScheduler(AffinityScheduler.Affinity.NODE_TYPE, 4)) {
+            AffinityScheduler.ExecutionReport report = scheduler.execute(nodes, type -> recorder);
+            assertEquals(nodes.size(), report.groupCount());
+        }
+        recorder.assertExecuted(nodes);
+    }
+
+    @Test
+    void dependenciesCompleteBeforeStartWithSupplier() throws InterruptedException {
+        Random random = new Random(12345);
+        List<NodeGroup> nodes = TestGraphs.randomTypedDag(random, 200, 8, 3);
+        DependencySupplier supplier = DependencySupplier.byType(nodes, TestGraphs.randomTypeDependencies(random, nodes, 4));
+        ExecutionRecorder recorder = new ExecutionRecorder();
+        try (AffinityScheduler scheduler = new AffinityScheduler(AffinityScheduler.Affinity.NODE_GROUP, 3)) {
+            scheduler.execute(nodes, supplier, type -> recorder);
+        }
+        recorder.assertExecuted(nodes, supplier);
+    }
+
+    @Test
+    void typesStayOnTheirWorker() throws InterruptedException {
+        // one chain per type: each root is pushed to an idle home and the rest of the chain released by it, nothing
+        // is ever stealable, including while the workers start or between executions
+        NodeType[] types = TestGraphs.types(2);
+        List<NodeGroup> nodes = new ArrayList<>();
+        for (NodeType type : types) {
+            NodeGroup previous = null;
+            for (int i = 0; i < 20; i++) {
+                NodeGroup group = previous == null ? new NodeGroup(type) : new NodeGroup(type, previous);
+                nodes.add(group);
+                previous = group;
+            }
+        }
+        Map<NodeType, Set<Thread>> threads = new ConcurrentHashMap<>();
+        try (AffinityScheduler scheduler = new AffinityScheduler(AffinityScheduler.Affinity.NODE_TYPE, 2)) {
+            for (int i = 0; i < 10; i++) {
+                AffinityScheduler.ExecutionReport report = scheduler.execute(nodes, type -> group ->
+                        threads.computeIfAbsent(type, t -> ConcurrentHashMap.newKeySet()).add(Thread.currentThread()));
+                assertEquals(0, report.stolenCount(), report::toString);
+                assertEquals(1.0, report.affinityRatio());
+            }
+        }
+        assertEquals(1, threads.get(types[0]).size(), threads::toString);
+        assertEquals(1, threads.get(types[1]).size(), threads::toString);
+        assertNotEquals(threads.get(types[0]), threads.get(types[1]));
+    }
+
+    @Test
+    void idleWorkersSteal() throws InterruptedException {
+        NodeType type = TestGraphs.types(1)[0];
+        List<NodeGroup> nodes = new ArrayList<>();
+        for (int i = 0; i < 20; i++)
+            nodes.add(new NodeGroup(type));
+        Map<Thread, AtomicInteger> threads = new ConcurrentHashMap<>();
+        try (AffinityScheduler scheduler = new AffinityScheduler(AffinityScheduler.Affinity.NODE_TYPE, 4)) {
+            AffinityScheduler.ExecutionReport report = scheduler.execute(nodes, t -> group -> {
+                threads.computeIfAbsent(Thread.currentThread(), k -> new AtomicInteger()).incrementAndGet();
+                Thread.sleep(5);
+            });
+            assertEquals(20, report.groupCount());
+            assertTrue(report.stolenCount() > 0, report::toString);
+            assertTrue(report.affinityRatio() < 1);
+        }
+        assertTrue(threads.size() > 1, threads::toString);
+    }
+
+    @Test
+    void externalDependenciesAreNotExecuted() throws InterruptedException {
+        NodeType[] types = TestGraphs.types(3);
+        NodeGroup a = new NodeGroup(types[0]), b = new NodeGroup(types[1], a), c = new NodeGroup(types[2], b);
+        List<NodeGroup> executed = new ArrayList<>();
+        try (AffinityScheduler scheduler = new AffinityScheduler(AffinityScheduler.Affinity.NODE_GROUP, 2)) {
+            scheduler.execute(List.of(c, a), type -> group -> {
+                synchronized (executed) {
+                    executed.add(group);
+                }
+            });
+        }
+        assertEquals(List.of(a, c), executed);
+    }
+
+    @Test
+    void failingGroupStopsExecution() throws InterruptedException {
+        NodeType[] types = TestGraphs.types(2);
+        NodeGroup a = new NodeGroup(types[0]), b = new NodeGroup(types[1], a);
+        AtomicInteger executions = new AtomicInteger();
+        try (AffinityScheduler scheduler = new AffinityScheduler(AffinityScheduler.Affinity.NODE_TYPE, 2)) {
+            RuntimeException error = assertThrows(RuntimeException.class, () -> scheduler.execute(List.of(a, b), type -> group -> {
+                if (group == a)
+                    throw new IllegalStateException("failed");
+                executions.incrementAndGet();
+            }));
+            assertInstanceOf(IllegalStateException.class, error.getCause());
+            assertEquals(0, executions.get());
+
+            // the scheduler is still usable
+            scheduler.execute(List.of(b), type -> group -> executions.incrementAndGet());
+            assertEquals(1, executions.get());
+        }
+    }
+
+    @Test
+    void repeatedExecutions() throws InterruptedException {
+        // a worker still scanning the queues after an execution completed must not run the groups of the next one
+        Random random = new Random(12345);
+        List<List<NodeGroup>> graphs = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++)
+            graphs.add(TestGraphs.randomDag(random, random.nextInt(1, 12), 4, 2));
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        try (AffinityScheduler scheduler = new AffinityScheduler(AffinityScheduler.Affinity.NODE_GROUP, 2 * Runtime.getRuntime().availableProcessors() + 2)) {
+            Thread caller = new Thread(() -> {
+                try {
+                    for (List<NodeGroup> nodes : graphs) {
+                        Map<NodeGroup, AtomicInteger> executions = new ConcurrentHashMap<>();
+                        scheduler.execute(nodes, type -> group -> executions.computeIfAbsent(group, g -> new AtomicInteger()).incrementAndGet());
+                        assertEquals(nodes.size(), executions.size());
+                        for (AtomicInteger count : executions.values())
+                            assertEquals(1, count.get());
+                    }
+                } catch (Throwable e) {
+                    error.set(e);
+                }
+            });
+            caller.setDaemon(true);
+            caller.start();
+            caller.join(60_000);
+            assertFalse(caller.isAlive(), "executions did not complete");
+        }
+        assertNull(error.get());
+    }
+
+    @Test
+    void interruptedExecution() throws InterruptedException {
+        // dependents of the slow group are released but not executed, then the scheduler is reusable
+        NodeType[] types = TestGraphs.types(2);
+        NodeGroup slow = new NodeGroup(types[0]), dependent = new NodeGroup(types[1], slow);
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicInteger dependentExecutions = new AtomicInteger();
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        try (AffinityScheduler scheduler = new AffinityScheduler(AffinityScheduler.Affinity.NODE_TYPE, 2)) {
+            Thread caller = new Thread(() -> {
+                try {
+                    scheduler.execute(List.of(slow, dependent), type -> group -> {
+                        if (group == slow) {
+                            started.countDown();
+                            Thread.sleep(200);
+                        } else {
+                            dependentExecutions.incrementAndGet();
+                        }
+                    });
+                } catch (Throwable e) {
+                    error.set(e);
+                }
+            });
+            caller.start();
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            caller.interrupt();
+            caller.join(10_000);
+            assertInstanceOf(InterruptedException.class, error.get());
+            assertEquals(0, dependentExecutions.get());
+
+            scheduler.execute(List.of(slow, dependent), type -> group -> dependentExecutions.incrementAndGet());
+            assertEquals(2, dependentExecutions.get());
+        }
+    }
+
+    @Test
+    void closedScheduler() {
+        NodeGroup a = new NodeGroup(TestGraphs.types(1)[0]);
+        AffinityScheduler scheduler = new AffinityScheduler(AffinityScheduler.Affinity.NODE_TYPE, 2);
+        scheduler.close();
+        assertThrows(IllegalStateException.class, () -> scheduler.execute(List.of(a), type -> group -> {
+        }));
+        assertThrows(IllegalArgumentException.class, () -> new AffinityScheduler(AffinityScheduler.Affinity.NODE_TYPE, 0));
+    }
+}
@@ -0,0 +1,110 @@
+package org.yah.test.dag;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.yah.test.dag.DagSandbox.*;
+
+class ChromeTraceTest {
+
+    @Test
+    void layeredExecution() throws IOException, InterruptedException {
+        NodeType[] types = TestGraphs.types(3);
+        NodeGroup a = new NodeGroup(types[0], 1000), b = new NodeGroup(types[1], 10), c = new NodeGroup(types[2], 10, a, b);
+        ChunkRecorder recorder = new ChunkRecorder();
+        ChromeTrace trace;
+        try (Recording recording = ChromeTrace.startRecording();
+             DagExecutor executor = new DagExecutor(2, 300)) {
+            executor.execute(parallelizedDag(List.of(a, b, c)), type -> recorder);
+            trace = ChromeTrace.of(recording);
+        }
+
+        assertEquals(1, trace.runs().length);
+        int chunks = NodeChunk.chunkCount(1000, 300);
+        assertEquals(chunks + 2, count(trace, DagEvents.GROUP_EXECUTION));
+        assertEquals(1, count(trace, DagEvents.SCHEDULING));
+        // the last layer holds a single group, not waited on
+        assertEquals(1, count(trace, DagEvents.LAYER_BARRIER));
+        RecordedEvent barrier = trace.events().stream()
+                .filter(e -> e.getEventType().getName().equals(DagEvents.LAYER_BARRIER))
+                .findFirst().orElseThrow();
+        assertEquals(0, barrier.getInt("layer"));
+        assertEquals(chunks + 1, barrier.getInt("unitCount"));
+
+        String json = write(trace);
+        assertTrue(json.startsWith("{\"displayTimeUnit\":\"ms\",\"traceEvents\":["));
+        assertTrue(json.endsWith("]}"));
+        for (NodeType type : types)
+            assertTrue(json.contains("\"name\":\"" + type + "\""), () -> type + " not found");
+        assertEquals(chunks + 3, occurrences(json, "\"ph\":\"X\""));
+        assertEquals(1, occurrences(json, "\"ph\":\"i\""));
+        assertTrue(occurrences(json, "\"name\":\"thread_name\"") >= 1);
+    }
+
+    @Test
+    void dataflowRuns() throws IOException, InterruptedException {
+        List<NodeGroup> nodes = TestGraphs.randomDag(new Random(12345), 50, 5, 3);
+        ChromeTrace trace;
+        try (Recording recording = ChromeTrace.startRecording();
+             DataflowScheduler scheduler = new DataflowScheduler(2)) {
+            scheduler.execute(nodes, type -> group -> {
+            });
+            scheduler.execute(nodes, type -> group -> {
+            });
+            trace = ChromeTrace.of(recording);
+        }
+
+        long[] runs = trace.runs();
+        assertEquals(2, runs.length);
+        assertEquals(100, count(trace, DagEvents.GROUP_EXECUTION));
+        // every group is either submitted or continued inline
+        assertEquals(100, count(trace, DagEvents.SCHEDULING));
+        assertEquals(0, count(trace, DagEvents.LAYER_BARRIER));
+
+        StringWriter writer = new StringWriter();
+        trace.write(runs[1], writer);
+        String json = writer.toString();
+        assertEquals(50, occurrences(json, "\"ph\":\"X\""));
+        assertTrue(json.contains("\"name\":\"run " + runs[1] + "\""));
+        assertFalse(json.contains("\"pid\":" + runs[0] + ","));
+    }
+
+    @Test
+    void quoting() throws IOException, InterruptedException {
+        NodeType type = new TestGraphs.TestNodeType("a \"quoted\"\ttype");
+        ChromeTrace trace;
+        try (Recording recording = ChromeTrace.startRecording();
+             DagExecutor executor = new DagExecutor(1)) {
+            executor.execute(new NodeGroup[][]{{new NodeGroup(type)}}, t -> group -> {
+            });
+            trace = ChromeTrace.of(recording);
+        }
+        assertTrue(write(trace).contains("\"name\":\"a \\\"quoted\\\"\\ttype\""));
+    }
+
+    private static long count(ChromeTrace trace, String eventName) {
+        return trace.events().stream().filter(e -> e.getEventType().getName().equals(eventName)).count();
+    }
+
+    private static String write(ChromeTrace trace) throws IOException {
+        StringWriter writer = new StringWriter();
+        trace.write(writer);
+        return writer.toString();
+    }
+
+    private static int occurrences(String s, String pattern) {
+        Matcher matcher = Pattern.compile(Pattern.quote(pattern)).matcher(s);
+        int count = 0;
+        while (matcher.find()) count++;
+        return count;
+    }
+}
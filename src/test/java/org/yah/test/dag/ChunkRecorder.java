@@ -0,0 +1,46 @@
+package org.yah.test.dag;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.yah.test.dag.DagSandbox.*;
+
+/**
+ * Check that every node of every group is executed once, and that groups complete before their dependents start.
+ */
+final class ChunkRecorder implements ChunkedNodeTask {
+    private final Map<NodeGroup, AtomicIntegerArray> executedNodes = new ConcurrentHashMap<>();
+    private final Set<NodeGroup> completedGroups = ConcurrentHashMap.newKeySet();
+    private final Set<Long> chunkThreads = ConcurrentHashMap.newKeySet();
+
+    @Override
+    public void execute(NodeGroup group, int fromNode, int toNode) throws InterruptedException {
+        for (NodeGroup dependency : group.dependencies())
+            assertTrue(completedGroups.contains(dependency), () -> group + " started before " + dependency + " completed");
+        AtomicIntegerArray nodes = executedNodes.computeIfAbsent(group, g -> new AtomicIntegerArray(g.nodeCount()));
+        for (int i = fromNode; i < toNode; i++)
+            nodes.incrementAndGet(i);
+        chunkThreads.add(Thread.currentThread().threadId());
+        Thread.sleep(1);
+    }
+
+    @Override
+    public void completed(NodeGroup group) {
+        AtomicIntegerArray nodes = executedNodes.get(group);
+        for (int i = 0; i < group.nodeCount(); i++)
+            assertEquals(1, nodes.get(i), () -> group + " completed before all its chunks");
+        assertTrue(completedGroups.add(group), () -> group + " completed twice");
+    }
+
+    void assertCompleted(List<NodeGroup> nodes) {
+        assertEquals(Set.copyOf(nodes), completedGroups);
+    }
+
+    int threadCount() {
+        return chunkThreads.size();
+    }
+}
@@ -0,0 +1,130 @@
+package org.yah.test.dag;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.yah.test.dag.DagSandbox.*;
+
+class CsrGraphTest {
+
+    @Test
+    void matchesDagSandbox() {
+        Random random = new Random(12345);
+        for (int i = 0; i < 10; i++) {
+            List<NodeGroup> nodes = TestGraphs.randomTypedDag(random, 300, 10, 3);
+            DependencySupplier supplier = DependencySupplier.byType(nodes, TestGraphs.randomTypeDependencies(random, nodes, 4));
+            CsrGraph graph = CsrGraph.of(nodes, supplier);
+            assertEquals(nodes.size(), graph.size());
+
+            int[] depths = graph.depths();
+            for (int node = 0; node < nodes.size(); node++)
+                assertEquals(DagSandbox.getDepth(nodes.get(node), supplier), depths[node]);
+
+            assertArrayEquals(parallelizedDag(nodes, supplier), graph.toGroups(graph.layers()));
+        }
+    }
+
+    @Test
+    void cappedLayersMatchDagSandbox() {
+        Random random = new Random(12345);
+        for (int i = 0; i < 10; i++) {
+            List<NodeGroup> nodes = TestGraphs.randomDag(random, 300, 10, 2);
+            CsrGraph graph = CsrGraph.of(nodes);
+            for (int cap : new int[]{5, 30, 1000}) {
+                NodeGroup[][] expected = parallelizedDag(nodes, cap);
+                CsrGraph.Layers layers = graph.cappedLayers(cap);
+                assertArrayEquals(expected, graph.toGroups(layers));
+                for (int layer = 0; layer < layers.count(); layer++)
+                    assertEquals(layer, layers.depths()[layer]);
+            }
+        }
+    }
+
+    @Test
+    void dagOrderMatchesCreateDag() {
+        List<NodeGroup> nodes = TestGraphs.randomDag(new Random(12345), 300, 10, 3);
+        CsrGraph graph = CsrGraph.of(nodes);
+        NodeGroup[] actual = Arrays.stream(graph.dagOrder()).mapToObj(graph::group).toArray(NodeGroup[]::new);
+        assertArrayEquals(createDag(nodes), actual);
+    }
+
+    @Test
+    void externalDependencies() {
+        NodeType[] types = TestGraphs.types(3);
+        NodeGroup a = new NodeGroup(types[0]), b = new NodeGroup(types[1], a), c = new NodeGroup(types[2], b);
+        CsrGraph graph = CsrGraph.of(List.of(c, a));
+        assertEquals(2, graph.scheduledCount());
+        assertEquals(3, graph.size());
+        assertSame(b, graph.group(2));
+        assertEquals(2, graph.indexOf(b));
+        assertArrayEquals(new NodeGroup[][]{{a}, {c}}, graph.toGroups(graph.layers()));
+        assertArrayEquals(new int[]{0, 2}, graph.layers().depths());
+    }
+
+    @Test
+    void builder() {
+        // diamond chain: 0 <- (1, 2) <- 3 <- (4, 5) <- 6 ...
+        CsrGraph.Builder builder = CsrGraph.builder();
+        int top = builder.addNode(0, 1);
+        for (int i = 0; i < 100; i++) {
+            int left = builder.addNode(1, 1), right = builder.addNode(2, 1);
+            builder.addDependency(left, top).addDependency(right, top);
+            top = builder.addNode(0, 1);
+            builder.addDependency(top, left).addDependency(top, right);
+        }
+        CsrGraph graph = builder.build();
+        assertFalse(graph.hasGroups());
+        assertEquals(301, graph.size());
+        assertEquals(400, graph.edgeCount());
+        assertEquals(200, graph.depths()[top]);
+
+        CsrGraph.Layers layers = graph.layers();
+        assertEquals(201, layers.count());
+        assertEquals(2, layers.size(1));
+        assertArrayEquals(new int[]{1, 2}, Arrays.copyOfRange(layers.nodes(), layers.offsets()[1], layers.offsets()[2]));
+
+        int[] order = graph.topologicalOrder();
+        int[] positions = new int[order.length];
+        for (int i = 0; i < order.length; i++) positions[order[i]] = i;
+        for (int node = 0; node < graph.size(); node++) {
+            for (int d = 0; d < graph.dependencyCount(node); d++)
+                assertTrue(positions[graph.dependency(node, d)] < positions[node]);
+        }
+        assertThrows(IllegalStateException.class, () -> graph.group(0));
+    }
+
+    @Test
+    void largeGraph() {
+        Random random = new Random(12345);
+        CsrGraph.Builder builder = CsrGraph.builder();
+        int size = 1_000_000;
+        for (int node = 0; node < size; node++) {
+            builder.addNode(random.nextInt(200), random.nextInt(1, 100));
+            for (int d = 0; d < 3 && node > 0; d++)
+                builder.addDependency(node, Math.max(0, node - random.nextInt(1, 1000)));
+        }
+        CsrGraph graph = builder.build();
+        CsrGraph.Layers layers = graph.layers();
+        assertEquals(size, layers.nodes().length);
+        int[] depths = graph.depths();
+        for (int layer = 0; layer < layers.count(); layer++) {
+            for (int i = layers.offsets()[layer]; i < layers.offsets()[layer + 1]; i++)
+                assertEquals(layers.depths()[layer], depths[layers.nodes()[i]]);
+        }
+        assertEquals(size, graph.cappedLayers(1000).nodes().length);
+        assertEquals(size, graph.dagOrder().length);
+    }
+
+    @Test
+    void detectCycle() {
+        CsrGraph.Builder builder = CsrGraph.builder();
+        int a = builder.addNode(0, 1), b = builder.addNode(0, 1);
+        builder.addDependency(a, b).addDependency(b, a);
+        assertThrows(IllegalArgumentException.class, () -> builder.build().depths());
+        assertThrows(IllegalArgumentException.class, () -> builder.addDependency(a, 2));
+    }
+}
@@ -0,0 +1,104 @@
+package org.yah.test.dag;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.yah.test.dag.DagSandbox.*;
+
+class DagExecutorTest {
+
+    @Test
+    void dependenciesCompleteBeforeStart() throws InterruptedException {
+        Random random = new Random(12345);
+        List<NodeGroup> nodes = TestGraphs.randomDag(random, 500, 10, 4);
+        ExecutionRecorder recorder = new ExecutionRecorder();
+        try (DagExecutor executor = new DagExecutor(8)) {
+            DagExecutor.ExecutionReport report = executor.execute(parallelizedDag(nodes), type -> recorder);
+            assertEquals(parallelizedDag(nodes).length, report.layers().size());
+            assertEquals(nodes.size(), report.layers().stream().mapToInt(DagExecutor.LayerTiming::groupCount).sum());
+        }
+        recorder.assertExecuted(nodes);
+    }
+
+    @Test
+    void dependenciesCompleteBeforeStartWithSupplier() throws InterruptedException {
+        Random random = new Random(12345);
+        List<NodeGroup> nodes = TestGraphs.randomTypedDag(random, 200, 8, 3);
+        DependencySupplier supplier = DependencySupplier.byType(nodes, TestGraphs.randomTypeDependencies(random, nodes, 4));
+        ExecutionRecorder recorder = new ExecutionRecorder();
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        try (DagExecutor executor = new DagExecutor(executorService)) {
+            executor.execute(parallelizedDag(nodes, supplier), type -> recorder);
+        }
+        assertFalse(executorService.isShutdown());
+        executorService.shutdown();
+        recorder.assertExecuted(nodes, supplier);
+    }
+
+    @Test
+    void layerGroupsRunConcurrently() throws InterruptedException {
+        NodeType[] types = TestGraphs.types(1);
+        NodeGroup[] layer = new NodeGroup[4];
+        Arrays.setAll(layer, i -> new NodeGroup(types[0]));
+        CountDownLatch latch = new CountDownLatch(layer.length);
+        try (DagExecutor executor = new DagExecutor(layer.length)) {
+            executor.execute(new NodeGroup[][]{layer}, type -> group -> {
+                latch.countDown();
+                assertTrue(latch.await(10, TimeUnit.SECONDS));
+            });
+        }
+    }
+
+    @Test
+    void chunkedGroups() throws InterruptedException {
+        NodeType[] types = TestGraphs.types(3);
+        NodeGroup a = new NodeGroup(types[0], 1000), b = new NodeGroup(types[1], 150, a), c = new NodeGroup(types[2], 10, a, b);
+        List<NodeGroup> nodes = List.of(a, b, c);
+        ChunkRecorder recorder = new ChunkRecorder();
+        try (DagExecutor executor = new DagExecutor(4, 100)) {
+            executor.execute(parallelizedDag(nodes), type -> recorder);
+        }
+        recorder.assertCompleted(nodes);
+        assertTrue(recorder.threadCount() > 1);
+    }
+
+    @Test
+    void failingGroupStopsExecution() {
+        NodeType[] types = TestGraphs.types(2);
+        NodeGroup a = new NodeGroup(types[0]), b = new NodeGroup(types[0]), c = new NodeGroup(types[1], a, b);
+        Set<NodeGroup> executed = ConcurrentHashMap.newKeySet();
+        try (DagExecutor executor = new DagExecutor(2)) {
+            NodeGroup[][] layers = parallelizedDag(List.of(a, b, c));
+            RuntimeException error = assertThrows(RuntimeException.class, () -> executor.execute(layers, Map.of(
+                    types[0], group -> {
+                        if (group == a) throw new IllegalStateException("failed");
+                        executed.add(group);
+                    },
+                    types[1], executed::add)));
+            assertInstanceOf(IllegalStateException.class, error.getCause());
+        }
+        assertEquals(Set.of(b), executed);
+    }
+
+    @Test
+    void missingTask() {
+        NodeType[] types = TestGraphs.types(2);
+        NodeGroup a = new NodeGroup(types[0]), b = new NodeGroup(types[1], a);
+        try (DagExecutor executor = new DagExecutor(2)) {
+            NodeGroup[][] layers = parallelizedDag(List.of(a, b));
+            assertThrows(IllegalArgumentException.class, () -> executor.execute(layers, Map.of(types[0], group -> {
+            })));
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package org.yah.test.dag;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.yah.test.dag.DagSandbox.*;
+
+class DagIndexTest {
+
+    @Test
+    void matchesNodeGroup() {
+        Random random = new Random(12345);
+        List<NodeGroup> nodes = TestGraphs.randomDag(random, 300, 10, 3);
+        DagIndex index = DagIndex.create(nodes);
+        assertEquals(nodes.size(), index.size());
+        for (NodeGroup node : nodes) {
+            assertEquals(node.depth(), index.depth(node));
+            int ancestorCount = 0;
+            for (NodeGroup other : nodes) {
+                assertEquals(node.dependsOn(other, true), index.dependsOn(node, other));
+                assertEquals(node.dependsOn(other, false), index.dependsOn(node, other, false));
+                assertEquals(node != other && !node.dependsOn(other) && !other.dependsOn(node), index.independent(node, other));
+                if (node.dependsOn(other))
+                    ancestorCount++;
+            }
+            assertEquals(ancestorCount, index.ancestorCount(node));
+        }
+    }
+
+    @Test
+    void topologicalOrder() {
+        List<NodeGroup> nodes = TestGraphs.randomDag(new Random(12345), 200, 5, 4);
+        DagIndex index = DagIndex.create(nodes);
+        for (int i = 0; i < index.size(); i++) {
+            for (NodeGroup dependency : index.get(i).dependencies()) {
+                assertTrue(index.indexOf(dependency) < i);
+            }
+        }
+    }
+
+    @Test
+    void ancestorsAndDescendants() {
+        NodeType[] types = TestGraphs.types(5);
+        NodeGroup a = new NodeGroup(types[0]), b = new NodeGroup(types[1], a), c = new NodeGroup(types[2], a),
+                d = new NodeGroup(types[3], b), e = new NodeGroup(types[4], c, d);
+        DagIndex index = DagIndex.create(List.of(e, d, c, b, a));
+
+        List<NodeGroup> ancestors = new ArrayList<>();
+        index.forEachAncestor(e, ancestors::add);
+        assertEquals(4, ancestors.size());
+        assertSame(a, ancestors.getFirst());
+        assertTrue(ancestors.containsAll(List.of(b, c, d)));
+
+        List<NodeGroup> descendants = new ArrayList<>();
+        index.forEachDescendant(b, descendants::add);
+        assertEquals(List.of(d, e), descendants);
+
+        assertTrue(index.independent(c, d));
+        assertTrue(index.independent(b, c));
+        assertFalse(index.independent(a, e));
+        assertEquals(3, index.depth(e));
+    }
+
+    @Test
+    void includesExternalDependencies() {
+        NodeType[] types = TestGraphs.types(3);
+        NodeGroup a = new NodeGroup(types[0]), b = new NodeGroup(types[1], a), c = new NodeGroup(types[2], b);
+        DagIndex index = DagIndex.create(List.of(c));
+        assertEquals(3, index.size());
+        assertTrue(index.dependsOn(c, a));
+        assertEquals(-1, index.indexOf(new NodeGroup(types[0])));
+        assertThrows(IllegalArgumentException.class, () -> index.depth(new NodeGroup(types[0])));
+    }
+}
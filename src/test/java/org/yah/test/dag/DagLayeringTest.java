@@ -0,0 +1,102 @@
+package org.yah.test.dag;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.yah.test.dag.DagSandbox.*;
+
+class DagLayeringTest {
+
+    @Test
+    void depthsMatchReference() {
+        Random random = new Random(12345);
+        for (int i = 0; i < 20; i++) {
+            List<NodeGroup> nodes = TestGraphs.randomDag(random, 200, 10, 4);
+            int[] depths = DagLayering.depths(nodes, NodeGroup::dependencies);
+            for (int n = 0; n < nodes.size(); n++) {
+                assertEquals(TestGraphs.referenceDepth(nodes.get(n), NodeGroup::dependencies), depths[n]);
+            }
+        }
+    }
+
+    @Test
+    void depthsMatchReferenceWithTypeDependencies() {
+        Random random = new Random(12345);
+        for (int i = 0; i < 20; i++) {
+            List<NodeGroup> nodes = TestGraphs.randomTypedDag(random, 100, 8, 3);
+            DependencySupplier supplier = DependencySupplier.byType(nodes, TestGraphs.randomTypeDependencies(random, nodes, 4));
+            int[] depths = DagLayering.depths(nodes, supplier);
+            for (int n = 0; n < nodes.size(); n++) {
+                assertEquals(TestGraphs.referenceDepth(nodes.get(n), supplier), depths[n]);
+            }
+        }
+    }
+
+    @Test
+    void parallelDepthsMatchSequential() {
+        Random random = new Random(12345);
+        try (ForkJoinPool pool = new ForkJoinPool(4)) {
+            for (int i = 0; i < 5; i++) {
+                // wide enough for frontiers to be split across workers
+                List<NodeGroup> nodes = TestGraphs.randomDag(random, 50_000, 10, i + 1);
+                assertArrayEquals(DagLayering.depths(nodes, NodeGroup::dependencies),
+                        DagLayering.depths(nodes, NodeGroup::dependencies, pool));
+                assertArrayEquals(parallelizedDag(nodes), parallelizedDag(nodes, null, pool));
+            }
+
+            List<NodeGroup> nodes = TestGraphs.randomTypedDag(random, 300, 8, 3);
+            DependencySupplier supplier = DependencySupplier.byType(nodes, TestGraphs.randomTypeDependencies(random, nodes, 4));
+            assertArrayEquals(parallelizedDag(nodes, supplier), parallelizedDag(nodes, supplier, pool));
+            assertEquals(0, parallelizedDag(List.of(), null, pool).length);
+        }
+    }
+
+    @Test
+    void parallelDepthsDetectCycles() {
+        CsrGraph.Builder builder = CsrGraph.builder();
+        for (int i = 0; i < 5000; i++) builder.addNode(0, 1);
+        for (int i = 1; i < 5000; i++) builder.addDependency(i, i % 7 == 0 ? 0 : i - 1);
+        builder.addDependency(0, 4999);
+        CsrGraph graph = builder.build();
+        assertThrows(IllegalArgumentException.class, () -> graph.depths(ForkJoinPool.commonPool()));
+    }
+
+    @Test
+    void walksDependenciesOutsideOfNodes() {
+        NodeType[] types = TestGraphs.types(3);
+        NodeGroup a = new NodeGroup(types[0]), b = new NodeGroup(types[1], a), c = new NodeGroup(types[2], b);
+        assertArrayEquals(new int[]{2}, DagLayering.depths(List.of(c), NodeGroup::dependencies));
+
+        List<ParallelizedLayer> layers = DagLayering.layers(List.of(c, a), NodeGroup::dependencies);
+        assertEquals(2, layers.size());
+        assertEquals(0, layers.get(0).depth());
+        assertEquals(2, layers.get(1).depth());
+    }
+
+    @Test
+    void deepDiamonds() {
+        // 2^60 paths, would never complete without memoization
+        NodeType[] types = TestGraphs.types(2);
+        NodeGroup top = new NodeGroup(types[0]);
+        for (int i = 0; i < 60; i++) {
+            NodeGroup left = new NodeGroup(types[1], top), right = new NodeGroup(types[1], top);
+            top = new NodeGroup(types[0], left, right);
+        }
+        assertEquals(120, DagSandbox.getDepth(top, NodeGroup::dependencies));
+    }
+
+    @Test
+    void detectCycle() {
+        NodeType[] types = TestGraphs.types(2);
+        NodeGroup a = new NodeGroup(types[0]), b = new NodeGroup(types[1], a);
+        List<NodeGroup> nodes = List.of(a, b);
+        DependencySupplier supplier = DependencySupplier.byType(nodes, Map.of(types[0], Set.of(types[1])));
+        assertThrows(IllegalArgumentException.class, () -> DagLayering.depths(nodes, supplier));
+    }
+}
@@ -82,6 +82,44 @@ class DagSandboxTest {
         assertNodeTypes(pdag, types(A), types(B, C), types(D), types(E), types(F));
     }
 
+    @Test
+    void testCappedLayersKeepDependencyOrder() {
+        NodeGroup a = new NodeGroup(A),
+                b = new NodeGroup(B, 4, a), c = new NodeGroup(C, 5, a), x = new NodeGroup(F, 6, a),
+                d = new NodeGroup(D, x);
+        NodeGroup[][] pdag = parallelizedDag(shuffle(a, b, c, x, d), 6);
+        assertNodeTypes(pdag, types(A), types(B), types(C), types(F), types(D));
+    }
+
+    @Test
+    void testDependencySupplierByType() {
+        NodeGroup a1 = new NodeGroup(A), a2 = new NodeGroup(A), b = new NodeGroup(B, a1), c = new NodeGroup(C),
+                d = new NodeGroup(D, c);
+        List<NodeGroup> nodes = List.of(a1, a2, b, c, d);
+        DependencySupplier supplier = DependencySupplier.byType(nodes, Map.of(C, Set.of(A), D, Set.of(A, B)));
+        assertEquals(List.of(), supplier.apply(a1));
+        assertEquals(List.of(a1), supplier.apply(b));
+        assertEquals(List.of(a1, a2), supplier.apply(c));
+        assertEquals(List.of(c, a1, a2, b), supplier.apply(d));
+        assertSame(supplier.apply(c), supplier.apply(c));
+
+        NodeGroup e = new NodeGroup(C, d);
+        assertEquals(List.of(d), supplier.apply(e));
+    }
+
+    @Test
+    void testChunks() {
+        NodeGroup a = new NodeGroup(A, 10), b = new NodeGroup(B, 9), c = new NodeGroup(C, 3);
+        assertEquals(List.of(new NodeChunk(a, 0, 4), new NodeChunk(a, 4, 8), new NodeChunk(a, 8, 10)), NodeChunk.split(a, 4));
+        assertEquals(List.of(new NodeChunk(b, 0, 4), new NodeChunk(b, 4, 9)), NodeChunk.split(b, 4));
+        assertEquals(List.of(new NodeChunk(c, 0, 3)), NodeChunk.split(c, 4));
+
+        ParallelizedLayer layer = new ParallelizedLayer(0);
+        layer.add(a);
+        layer.add(c);
+        assertEquals(List.of(new NodeChunk(a, 0, 5), new NodeChunk(a, 5, 10), new NodeChunk(c, 0, 3)), layer.chunks(5));
+    }
+
     private void assertNodeTypes(NodeGroup[] dag, NodeType... expectedTypes) {
         NodeType[] actualTypes = types(dag);
         String message = "expected=" + format(expectedTypes) + ", actual=" + format(actualTypes);
@@ -0,0 +1,184 @@
+package org.yah.test.dag;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.yah.test.dag.DagSandbox.*;
+
+class DataflowSchedulerTest {
+
+    @Test
+    void dependenciesCompleteBeforeStart() throws InterruptedException {
+        List<NodeGroup> nodes = TestGraphs.randomDag(new Random(12345), 500, 10, 4);
+        ExecutionRecorder recorder = new ExecutionRecorder();
+        try (DataflowScheduler scheduler = new DataflowScheduler(8)) {
+            DataflowScheduler.ExecutionReport report = scheduler.execute(nodes, type -> recorder);
+            assertEquals(nodes.size(), report.groupCount());
+        }
+        recorder.assertExecuted(nodes);
+    }
+
+    @Test
+    void dependenciesCompleteBeforeStartWithSupplier() throws InterruptedException {
+        Random random = new Random(12345);
+        List<NodeGroup> nodes = TestGraphs.randomTypedDag(random, 200, 8, 3);
+        DependencySupplier supplier = DependencySupplier.byType(nodes, TestGraphs.randomTypeDependencies(random, nodes, 4));
+        ExecutionRecorder recorder = new ExecutionRecorder();
+        try (DataflowScheduler scheduler = new DataflowScheduler(4)) {
+            scheduler.execute(nodes, supplier, type -> recorder);
+        }
+        recorder.assertExecuted(nodes, supplier);
+    }
+
+    @Test
+    void externalDependenciesAreNotExecuted() throws InterruptedException {
+        NodeType[] types = TestGraphs.types(3);
+        NodeGroup a = new NodeGroup(types[0]), b = new NodeGroup(types[1], a), c = new NodeGroup(types[2], b);
+        List<NodeGroup> executed = new ArrayList<>();
+        try (DataflowScheduler scheduler = new DataflowScheduler(2)) {
+            scheduler.execute(List.of(c, a), type -> group -> {
+                synchronized (executed) {
+                    executed.add(group);
+                }
+            });
+        }
+        assertEquals(List.of(a, c), executed);
+    }
+
+    @Test
+    void chunkedGroups() throws InterruptedException {
+        NodeType[] types = TestGraphs.types(3);
+        NodeGroup a = new NodeGroup(types[0], 1000), b = new NodeGroup(types[1], 150, a), c = new NodeGroup(types[2], 10, a, b);
+        List<NodeGroup> nodes = List.of(a, b, c);
+        ChunkRecorder recorder = new ChunkRecorder();
+        try (DataflowScheduler executor = new DataflowScheduler(4, 100)) {
+            executor.execute(nodes, type -> recorder);
+        }
+        recorder.assertCompleted(nodes);
+        assertTrue(recorder.threadCount() > 1);
+    }
+
+    @Test
+    void longChunkedChain() throws InterruptedException {
+        // chunks run as soon as submitted, the inline first chunk of each group completes it and releases the next one
+        NodeType chunked = new TestGraphs.TestNodeType("chunked");
+        List<NodeGroup> nodes = new ArrayList<>();
+        NodeGroup previous = new NodeGroup(chunked, 2);
+        nodes.add(previous);
+        for (int i = 1; i < 50_000; i++) {
+            previous = new NodeGroup(chunked, 2, previous);
+            nodes.add(previous);
+        }
+        AtomicInteger executedChunks = new AtomicInteger(), completedGroups = new AtomicInteger();
+        ChunkedNodeTask task = new ChunkedNodeTask() {
+            @Override
+            public void execute(NodeGroup group, int fromNode, int toNode) {
+                executedChunks.incrementAndGet();
+            }
+
+            @Override
+            public void completed(NodeGroup group) {
+                completedGroups.incrementAndGet();
+            }
+        };
+        try (DataflowScheduler executor = new DataflowScheduler(new CallerRunsExecutorService(), 1)) {
+            executor.execute(nodes, type -> task);
+        }
+        assertEquals(2 * nodes.size(), executedChunks.get());
+        assertEquals(nodes.size(), completedGroups.get());
+    }
+
+    @Test
+    void failingGroupStopsExecution() {
+        NodeType[] types = TestGraphs.types(2);
+        NodeGroup a = new NodeGroup(types[0]), b = new NodeGroup(types[1], a);
+        Set<NodeGroup> executed = ConcurrentHashMap.newKeySet();
+        try (DataflowScheduler scheduler = new DataflowScheduler(2)) {
+            RuntimeException error = assertThrows(RuntimeException.class, () -> scheduler.execute(List.of(a, b), Map.of(
+                    types[0], group -> {
+                        throw new IllegalStateException("failed");
+                    },
+                    types[1], executed::add)));
+            assertInstanceOf(IllegalStateException.class, error.getCause());
+        }
+        assertTrue(executed.isEmpty());
+    }
+
+    /**
+     * Two independent chains, slow groups alternate between them: every layer waits for a slow group while the
+     * dataflow scheduler runs each chain at its own pace. Only the lower bounds are checked, the timings are compared
+     * by {@code DagSchedulingBenchmark}.
+     */
+    @Test
+    void skewedWorkloadComparison() throws InterruptedException {
+        int length = 8;
+        long slowMillis = 20;
+        NodeType slow = new TestGraphs.TestNodeType("slow"), fast = new TestGraphs.TestNodeType("fast");
+        List<NodeGroup> nodes = new ArrayList<>();
+        NodeGroup left = null, right = null;
+        for (int i = 0; i < length; i++) {
+            left = left == null ? new NodeGroup(i % 2 == 0 ? slow : fast) : new NodeGroup(i % 2 == 0 ? slow : fast, left);
+            right = right == null ? new NodeGroup(i % 2 == 0 ? fast : slow) : new NodeGroup(i % 2 == 0 ? fast : slow, right);
+            nodes.add(left);
+            nodes.add(right);
+        }
+        Map<NodeType, NodeTask> tasks = Map.of(slow, group -> Thread.sleep(slowMillis), fast, group -> {
+        });
+
+        long layeredNanos, dataflowNanos;
+        try (DagExecutor executor = new DagExecutor(2)) {
+            layeredNanos = executor.execute(parallelizedDag(nodes), tasks).totalNanos();
+        }
+        try (DataflowScheduler scheduler = new DataflowScheduler(2)) {
+            dataflowNanos = scheduler.execute(nodes, tasks).totalNanos();
+        }
+        assertTrue(layeredNanos >= length * slowMillis * 1_000_000);
+        // each chain has length / 2 slow groups
+        assertTrue(dataflowNanos >= length / 2 * slowMillis * 1_000_000);
+    }
+
+    private static final class CallerRunsExecutorService extends AbstractExecutorService {
+        private volatile boolean shutdown;
+
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+
+        @Override
+        public void shutdown() {
+            shutdown = true;
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            shutdown = true;
+            return List.of();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return shutdown;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return shutdown;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return shutdown;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package org.yah.test.dag;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.yah.test.dag.DagSandbox.*;
+
+class DirtyTrackerTest {
+
+    @Test
+    void executeDownstreamCone() throws InterruptedException {
+        NodeType[] types = TestGraphs.types(2);
+        NodeGroup a = new NodeGroup(types[0], 10), b = new NodeGroup(types[0], 20);
+        NodeGroup c = new NodeGroup(types[1], 30, a), d = new NodeGroup(types[1], 40, b), e = new NodeGroup(types[1], 50, c, d);
+        DirtyTracker tracker = new DirtyTracker(List.of(a, b, c, d, e));
+        List<NodeGroup> executed = new ArrayList<>();
+        NodeTask task = group -> {
+            synchronized (executed) {
+                executed.add(group);
+            }
+        };
+
+        try (DagExecutor executor = new DagExecutor(2)) {
+            DirtyTracker.TickReport report = tracker.execute(executor, type -> task);
+            assertEquals(5, report.executedGroups());
+            assertEquals(3, report.layerCount());
+            assertEquals(0, report.skippedRatio());
+            assertEquals(5, executed.size());
+
+            executed.clear();
+            report = tracker.execute(executor, type -> task);
+            assertEquals(0, report.executedGroups());
+            assertEquals(0, report.layerCount());
+            assertEquals(1, report.skippedRatio());
+            assertTrue(executed.isEmpty());
+
+            tracker.markDirty(a);
+            assertTrue(tracker.isDirty(c));
+            assertFalse(tracker.isDirty(d));
+            assertArrayEquals(new NodeGroup[][]{{a}, {c}, {e}}, tracker.dirtyLayers());
+            report = tracker.execute(executor, type -> task);
+            assertEquals(List.of(a, c, e), executed);
+            assertEquals(3, report.executedGroups());
+            assertEquals(2, report.skippedGroups());
+            assertEquals(90, report.executedNodes());
+            assertEquals(60, report.skippedNodes());
+            assertEquals(0.4, report.skippedRatio(), 1e-9);
+            assertFalse(tracker.isDirty(a));
+        }
+    }
+
+    @Test
+    void dataflowExecution() throws InterruptedException {
+        Random random = new Random(12345);
+        List<NodeGroup> nodes = TestGraphs.randomDag(random, 300, 5, 2);
+        DirtyTracker tracker = new DirtyTracker(nodes);
+        DagIndex index = DagIndex.create(nodes);
+        try (DataflowScheduler scheduler = new DataflowScheduler(4)) {
+            tracker.execute(scheduler, type -> group -> {
+            });
+            assertTrue(tracker.dirtyGroups().isEmpty());
+
+            Set<NodeGroup> expected = new HashSet<>();
+            for (int i = 0; i < 3; i++) {
+                NodeGroup marked = nodes.get(random.nextInt(nodes.size()));
+                tracker.markDirty(marked);
+                expected.add(marked);
+                index.forEachDescendant(marked, expected::add);
+            }
+            List<NodeGroup> dirtyGroups = tracker.dirtyGroups();
+            assertEquals(expected, new HashSet<>(dirtyGroups));
+
+            ExecutionRecorder recorder = new ExecutionRecorder();
+            DirtyTracker.TickReport report = tracker.execute(scheduler, type -> recorder);
+            assertEquals(expected.size(), report.executedGroups());
+            assertEquals(nodes.size() - expected.size(), report.skippedGroups());
+            recorder.assertExecuted(dirtyGroups, node -> node.dependencies().stream().filter(expected::contains).toList());
+        }
+    }
+
+    @Test
+    void failureKeepsGroupsDirty() throws InterruptedException {
+        NodeType[] types = TestGraphs.types(2);
+        NodeGroup a = new NodeGroup(types[0]), b = new NodeGroup(types[1], a);
+        DirtyTracker tracker = new DirtyTracker(List.of(a, b));
+        try (DagExecutor executor = new DagExecutor(2)) {
+            assertThrows(RuntimeException.class, () -> tracker.execute(executor, type -> group -> {
+                throw new IllegalStateException("failed");
+            }));
+            assertTrue(tracker.isDirty(a));
+            assertTrue(tracker.isDirty(b));
+
+            tracker.execute(executor, type -> group -> {
+            });
+            assertFalse(tracker.isDirty(b));
+        }
+    }
+
+    @Test
+    void externalDependencies() throws InterruptedException {
+        NodeType[] types = TestGraphs.types(3);
+        NodeGroup external = new NodeGroup(types[0]);
+        NodeGroup b = new NodeGroup(types[1], external), c = new NodeGroup(types[2], b), other = new NodeGroup(types[0]);
+        DirtyTracker tracker = new DirtyTracker(List.of(b, c, other));
+        ExecutionRecorder recorder = new ExecutionRecorder();
+        try (DagExecutor executor = new DagExecutor(2)) {
+            tracker.execute(executor, type -> group -> {
+            });
+            tracker.markDirty(external);
+            assertEquals(List.of(b, c), tracker.dirtyGroups());
+            DirtyTracker.TickReport report = tracker.execute(executor, type -> recorder);
+            assertEquals(2, report.executedGroups());
+            recorder.assertExecuted(List.of(b, c), node -> node == c ? List.of(b) : List.of());
+        }
+    }
+
+    @Test
+    void untrackedGroup() {
+        NodeType[] types = TestGraphs.types(1);
+        DirtyTracker tracker = new DirtyTracker(List.of(new NodeGroup(types[0])));
+        NodeGroup untracked = new NodeGroup(types[0]);
+        assertThrows(IllegalArgumentException.class, () -> tracker.markDirty(untracked));
+        assertThrows(IllegalArgumentException.class, () -> tracker.isDirty(untracked));
+    }
+}
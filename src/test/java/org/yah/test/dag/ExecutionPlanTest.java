@@ -0,0 +1,158 @@
+package org.yah.test.dag;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.yah.test.dag.DagSandbox.*;
+
+class ExecutionPlanTest {
+
+    @Test
+    void dependenciesCompleteBeforeStart() {
+        List<NodeGroup> nodes = TestGraphs.randomDag(new Random(12345), 500, 10, 4);
+        ExecutionRecorder recorder = new ExecutionRecorder();
+        ExecutionPlan plan = ExecutionPlan.compile(nodes, type -> recorder);
+        assertEquals(nodes.size(), plan.scheduledCount());
+        try (ExecutionPlan.Runner runner = new ExecutionPlan.Runner(plan, 4)) {
+            runner.run();
+        }
+        recorder.assertExecuted(nodes);
+    }
+
+    @Test
+    void repeatedTicks() {
+        Random random = new Random(12345);
+        List<NodeGroup> nodes = TestGraphs.randomTypedDag(random, 200, 8, 3);
+        DependencySupplier supplier = DependencySupplier.byType(nodes, TestGraphs.randomTypeDependencies(random, nodes, 4));
+        AtomicIntegerArray executions = new AtomicIntegerArray(nodes.size());
+        AtomicInteger tick = new AtomicInteger();
+        ExecutionPlan plan = ExecutionPlan.compile(nodes, supplier, type -> group -> {
+            int node = nodes.indexOf(group);
+            for (NodeGroup dependency : supplier.apply(group))
+                assertEquals(tick.get() + 1, executions.get(nodes.indexOf(dependency)), () -> group + " started before " + dependency);
+            executions.incrementAndGet(node);
+        });
+        try (ExecutionPlan.Runner runner = new ExecutionPlan.Runner(plan, 3)) {
+            for (int i = 0; i < 50; i++) {
+                runner.run();
+                tick.incrementAndGet();
+            }
+        }
+        for (int i = 0; i < nodes.size(); i++)
+            assertEquals(50, executions.get(i));
+    }
+
+    @Test
+    void externalDependenciesAreNotExecuted() {
+        NodeType[] types = TestGraphs.types(3);
+        NodeGroup a = new NodeGroup(types[0]), b = new NodeGroup(types[1], a), c = new NodeGroup(types[2], b);
+        List<NodeGroup> executed = new ArrayList<>();
+        ExecutionPlan plan = ExecutionPlan.compile(List.of(c, a), type -> group -> {
+            synchronized (executed) {
+                executed.add(group);
+            }
+        });
+        assertEquals(3, plan.size());
+        assertEquals(2, plan.scheduledCount());
+        try (ExecutionPlan.Runner runner = new ExecutionPlan.Runner(plan, 2)) {
+            runner.run();
+        }
+        assertEquals(List.of(a, c), executed);
+    }
+
+    @Test
+    void failingGroupFailsTick() {
+        NodeType[] types = TestGraphs.types(2);
+        NodeGroup a = new NodeGroup(types[0]), b = new NodeGroup(types[1], a);
+        AtomicIntegerArray executions = new AtomicIntegerArray(2);
+        boolean[] fail = {true};
+        ExecutionPlan plan = ExecutionPlan.compile(List.of(a, b), type -> group -> {
+            if (group == a && fail[0])
+                throw new IllegalStateException("failed");
+            executions.incrementAndGet(group == a ? 0 : 1);
+        });
+        try (ExecutionPlan.Runner runner = new ExecutionPlan.Runner(plan, 2)) {
+            RuntimeException error = assertThrows(RuntimeException.class, runner::run);
+            assertInstanceOf(IllegalStateException.class, error.getCause());
+            assertEquals(0, executions.get(1));
+
+            fail[0] = false;
+            runner.run();
+            assertEquals(1, executions.get(0));
+            assertEquals(1, executions.get(1));
+        }
+    }
+
+    @Test
+    void noAllocationPerTick() {
+        List<NodeGroup> nodes = TestGraphs.randomDag(new Random(12345), 1000, 10, 4);
+        long[] counter = new long[1];
+        ExecutionPlan plan = ExecutionPlan.compile(nodes, type -> group -> counter[0] += group.nodeCount());
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        try (ExecutionPlan.Runner runner = new ExecutionPlan.Runner(plan, 3)) {
+            long[] threadIds = runner.workerThreadIds();
+            for (int i = 0; i < 2000; i++)
+                runner.run();
+
+            long[] workersBefore = threads.getThreadAllocatedBytes(threadIds);
+            long callerBefore = threads.getCurrentThreadAllocatedBytes();
+            int ticks = 1000;
+            for (int i = 0; i < ticks; i++)
+                runner.run();
+            long callerBytes = threads.getCurrentThreadAllocatedBytes() - callerBefore;
+            long[] workersAfter = threads.getThreadAllocatedBytes(threadIds);
+            long workersBytes = IntStream.range(0, threadIds.length).mapToLong(i -> workersAfter[i] - workersBefore[i]).sum();
+            // raw counts, not per tick: one 16 bytes object every 100 ticks already exceeds the bound, left for a
+            // one-off allocation outside of the plan such as a lazily initialized JDK class
+            long noiseBytes = 128;
+            assertTrue(callerBytes <= noiseBytes, () -> callerBytes + " bytes allocated by the caller");
+            assertTrue(workersBytes <= noiseBytes, () -> workersBytes + " bytes allocated by the workers");
+        }
+    }
+
+    @Test
+    void waitingThreadsParkDuringSerialGroups() {
+        // a thread claims the slot of b while a runs alone
+        NodeType[] types = TestGraphs.types(2);
+        NodeGroup a = new NodeGroup(types[0]), b = new NodeGroup(types[1], a);
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long serialNanos = 300_000_000;
+        ExecutionPlan plan = ExecutionPlan.compile(List.of(a, b), type -> group -> {
+            if (group == a)
+                Thread.sleep(serialNanos / 1_000_000);
+        });
+        try (ExecutionPlan.Runner runner = new ExecutionPlan.Runner(plan, 3)) {
+            runner.run();
+            // the caller runs a or waits for b like the workers
+            long[] threadIds = runner.workerThreadIds();
+            long before = threads.getCurrentThreadCpuTime(), after = 0;
+            for (long threadId : threadIds)
+                before += threads.getThreadCpuTime(threadId);
+            runner.run();
+            after += threads.getCurrentThreadCpuTime();
+            for (long threadId : threadIds)
+                after += threads.getThreadCpuTime(threadId);
+            long cpuNanos = after - before;
+            assertTrue(cpuNanos < serialNanos / 3, () -> "tick used " + cpuNanos / 1_000_000 + "ms of CPU");
+        }
+    }
+
+    @Test
+    void invalidPlans() {
+        NodeType[] types = TestGraphs.types(2);
+        NodeGroup a = new NodeGroup(types[0]), b = new NodeGroup(types[1], a);
+        a.dependencies().add(b);
+        assertThrows(IllegalArgumentException.class, () -> ExecutionPlan.compile(List.of(a, b), type -> group -> {
+        }));
+        NodeGroup c = new NodeGroup(types[0]);
+        assertThrows(IllegalArgumentException.class, () -> ExecutionPlan.compile(List.of(c), type -> null));
+    }
+}
@@ -0,0 +1,39 @@
+package org.yah.test.dag;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.yah.test.dag.DagSandbox.*;
+
+/**
+ * Record a logical start and end time for each executed group.
+ */
+final class ExecutionRecorder implements NodeTask {
+    private final AtomicLong clock = new AtomicLong();
+    private final Map<NodeGroup, long[]> executions = new ConcurrentHashMap<>();
+
+    @Override
+    public void execute(NodeGroup group) throws Exception {
+        long start = clock.incrementAndGet();
+        Thread.sleep(0, 1000);
+        assertNull(executions.put(group, new long[]{start, clock.incrementAndGet()}), () -> group + " executed twice");
+    }
+
+    void assertExecuted(List<NodeGroup> nodes) {
+        assertExecuted(nodes, NodeGroup::dependencies);
+    }
+
+    void assertExecuted(List<NodeGroup> nodes, DependencySupplier supplier) {
+        assertEquals(nodes.size(), executions.size());
+        for (NodeGroup node : nodes) {
+            long start = executions.get(node)[0];
+            for (NodeGroup dependency : supplier.apply(node)) {
+                long dependencyEnd = executions.get(dependency)[1];
+                assertTrue(dependencyEnd < start, () -> node + " started before " + dependency + " completed");
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package org.yah.test.dag;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.yah.test.dag.DagSandbox.*;
+import static org.yah.test.dag.GraphCoarsening.*;
+
+class GraphCoarseningTest {
+
+    @Test
+    void fuseChain() {
+        NodeType[] types = TestGraphs.types(3);
+        NodeGroup a = new NodeGroup(types[0], 2), b = new NodeGroup(types[1], 3, a), c = new NodeGroup(types[2], 4, b);
+        CoarseGraph coarse = fuseChains(List.of(c, b, a));
+        assertEquals(1, coarse.nodes().size());
+        NodeGroup fused = coarse.nodes().getFirst();
+        assertSame(FUSED, fused.type());
+        assertEquals(9, fused.nodeCount());
+        assertEquals(List.of(a, b, c), coarse.originals(fused));
+        assertSame(fused, coarse.coarseGroup(b));
+        assertArrayEquals(new NodeGroup[][]{{fused}}, coarse.parallelizedDag());
+    }
+
+    @Test
+    void fuseDiamondBranches() {
+        NodeType[] types = TestGraphs.types(2);
+        NodeGroup root = new NodeGroup(types[0]);
+        NodeGroup l1 = new NodeGroup(types[1], root), l2 = new NodeGroup(types[1], l1);
+        NodeGroup r1 = new NodeGroup(types[1], root), r2 = new NodeGroup(types[1], r1), r3 = new NodeGroup(types[1], r2);
+        NodeGroup sink = new NodeGroup(types[0], l2, r3), tail = new NodeGroup(types[0], sink);
+        List<NodeGroup> nodes = List.of(root, l1, l2, r1, r2, r3, sink, tail);
+        assertEquals(6, parallelizedDag(nodes).length);
+
+        CoarseGraph coarse = fuseChains(nodes);
+        assertEquals(4, coarse.nodes().size());
+        assertEquals(3, coarse.fusedGroupCount());
+        assertSame(root, coarse.coarseGroup(root));
+        assertEquals(List.of(l1, l2), coarse.originals(coarse.coarseGroup(l2)));
+        assertEquals(List.of(r1, r2, r3), coarse.originals(coarse.coarseGroup(r1)));
+        assertEquals(List.of(sink, tail), coarse.originals(coarse.coarseGroup(sink)));
+        assertEquals(List.of(coarse.coarseGroup(l1), coarse.coarseGroup(r1)),
+                coarse.dependencySupplier().apply(coarse.coarseGroup(tail)));
+
+        NodeGroup[][] layers = coarse.parallelizedDag();
+        assertEquals(3, layers.length);
+        assertEquals(List.of(root, l1, l2, r1, r2, r3), coarse.expand(concat(layers[0], layers[1])));
+    }
+
+    @Test
+    void costThreshold() {
+        NodeType[] types = TestGraphs.types(2);
+        NodeGroup root = new NodeGroup(types[0], 2);
+        NodeGroup a = new NodeGroup(types[1], 1, root), b = new NodeGroup(types[1], 1, root), c = new NodeGroup(types[1], 5, root);
+        List<NodeGroup> nodes = List.of(root, a, b, c);
+        assertEquals(4, fuseChains(nodes).nodes().size());
+
+        CoarseGraph coarse = coarsen(nodes, null, CostModel.nodeCount(), 4);
+        assertEquals(2, coarse.nodes().size());
+        assertEquals(List.of(root, a, b), coarse.originals(coarse.coarseGroup(root)));
+        assertSame(c, coarse.coarseGroup(c));
+        assertEquals(List.of(coarse.coarseGroup(root)), coarse.dependencySupplier().apply(c));
+        assertThrows(IllegalArgumentException.class, () -> coarsen(nodes, null, g -> -1, 4));
+    }
+
+    @Test
+    void externalDependenciesAreNotFused() {
+        NodeType[] types = TestGraphs.types(3);
+        NodeGroup a = new NodeGroup(types[0]), b = new NodeGroup(types[1], a), c = new NodeGroup(types[2], b);
+        CoarseGraph coarse = fuseChains(List.of(a, c));
+        assertEquals(List.of(a, c), coarse.nodes());
+        assertEquals(List.of(b), coarse.dependencySupplier().apply(c));
+        assertEquals(List.of(a), coarse.dependencySupplier().apply(b));
+        assertThrows(IllegalArgumentException.class, () -> coarse.coarseGroup(b));
+        assertArrayEquals(parallelizedDag(List.of(a, c)), coarse.parallelizedDag());
+    }
+
+    @Test
+    void executionOrderIsPreserved() throws InterruptedException {
+        Random random = new Random(12345);
+        for (int i = 0; i < 5; i++) {
+            List<NodeGroup> nodes = TestGraphs.randomDag(random, 400, 6, 1);
+            CoarseGraph coarse = i % 2 == 0 ? fuseChains(nodes) : coarsen(nodes, null, CostModel.nodeCount(), 20);
+            assertTrue(coarse.nodes().size() < nodes.size());
+
+            ExecutionRecorder recorder = new ExecutionRecorder();
+            try (DataflowScheduler scheduler = new DataflowScheduler(4)) {
+                scheduler.execute(coarse.nodes(), coarse.dependencySupplier(), tasks(type -> recorder));
+            }
+            recorder.assertExecuted(nodes);
+
+            ExecutionRecorder layeredRecorder = new ExecutionRecorder();
+            try (DagExecutor executor = new DagExecutor(4)) {
+                executor.execute(coarse.parallelizedDag(), tasks(type -> layeredRecorder));
+            }
+            layeredRecorder.assertExecuted(nodes);
+        }
+    }
+
+    private static NodeGroup[] concat(NodeGroup[]... layers) {
+        List<NodeGroup> res = new ArrayList<>();
+        for (NodeGroup[] layer : layers) res.addAll(Arrays.asList(layer));
+        return res.toArray(NodeGroup[]::new);
+    }
+}
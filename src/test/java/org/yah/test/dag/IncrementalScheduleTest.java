@@ -0,0 +1,128 @@
+package org.yah.test.dag;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.yah.test.dag.DagSandbox.*;
+
+class IncrementalScheduleTest {
+
+    @Test
+    void edits() {
+        NodeType[] types = TestGraphs.types(4);
+        NodeGroup a = new NodeGroup(types[0]), b = new NodeGroup(types[1], a), c = new NodeGroup(types[2]);
+        IncrementalSchedule schedule = new IncrementalSchedule(List.of(a, b, c));
+        assertLayers(schedule, List.of(Set.of(a, c), Set.of(b)));
+
+        schedule.addDependency(c, b);
+        assertLayers(schedule, List.of(Set.of(a), Set.of(b), Set.of(c)));
+
+        NodeGroup d = new NodeGroup(types[3], a);
+        schedule.add(d);
+        assertLayers(schedule, List.of(Set.of(a), Set.of(b, d), Set.of(c)));
+
+        assertTrue(schedule.removeDependency(c, b));
+        assertFalse(schedule.removeDependency(c, b));
+        assertLayers(schedule, List.of(Set.of(a, c), Set.of(b, d)));
+
+        schedule.remove(d);
+        schedule.remove(b);
+        assertLayers(schedule, List.of(Set.of(a, c)));
+        assertThrows(IllegalArgumentException.class, () -> schedule.add(b, List.of(d)));
+    }
+
+    @Test
+    void invalidEdits() {
+        NodeType[] types = TestGraphs.types(3);
+        NodeGroup a = new NodeGroup(types[0]), b = new NodeGroup(types[1], a), c = new NodeGroup(types[2], b);
+        IncrementalSchedule schedule = new IncrementalSchedule(List.of(a, b, c));
+        assertThrows(IllegalArgumentException.class, () -> schedule.addDependency(a, c));
+        assertThrows(IllegalArgumentException.class, () -> schedule.addDependency(a, a));
+        assertThrows(IllegalStateException.class, () -> schedule.remove(b));
+        assertThrows(IllegalArgumentException.class, () -> schedule.add(a));
+        assertThrows(IllegalArgumentException.class, () -> new IncrementalSchedule(List.of(c)));
+        assertLayers(schedule, List.of(Set.of(a), Set.of(b), Set.of(c)));
+    }
+
+    @Test
+    void unchangedLayersAreReused() {
+        NodeType[] types = TestGraphs.types(3);
+        NodeGroup a = new NodeGroup(types[0]), b = new NodeGroup(types[1], a);
+        IncrementalSchedule schedule = new IncrementalSchedule(List.of(a, b));
+        NodeGroup[][] before = schedule.toArray();
+        schedule.add(new NodeGroup(types[2], a));
+        NodeGroup[][] after = schedule.toArray();
+        assertSame(before[0], after[0]);
+        assertNotSame(before[1], after[1]);
+    }
+
+    @Test
+    void randomEditsMatchFullRebuild() {
+        Random random = new Random(12345);
+        NodeType[] types = TestGraphs.types(10);
+        List<NodeGroup> nodes = new ArrayList<>(TestGraphs.randomDag(random, 100, types.length, 3));
+        IncrementalSchedule schedule = new IncrementalSchedule(nodes);
+        for (int i = 0; i < 2000; i++) {
+            NodeGroup node = nodes.get(random.nextInt(nodes.size()));
+            NodeGroup other = nodes.get(random.nextInt(nodes.size()));
+            switch (random.nextInt(4)) {
+                case 0 -> {
+                    NodeGroup added = new NodeGroup(types[random.nextInt(types.length)], node, other);
+                    schedule.add(added);
+                    nodes.add(added);
+                }
+                case 1 -> {
+                    if (nodes.stream().noneMatch(n -> schedule.dependencies(n).contains(node))) {
+                        schedule.remove(node);
+                        nodes.remove(node);
+                    } else {
+                        assertThrows(IllegalStateException.class, () -> schedule.remove(node));
+                    }
+                }
+                case 2 -> {
+                    if (node == other)
+                        continue;
+                    if (dependsOn(schedule, other, node))
+                        assertThrows(IllegalArgumentException.class, () -> schedule.addDependency(node, other));
+                    else
+                        schedule.addDependency(node, other);
+                }
+                default -> {
+                    List<NodeGroup> dependencies = schedule.dependencies(node);
+                    if (!dependencies.isEmpty())
+                        assertTrue(schedule.removeDependency(node, dependencies.get(random.nextInt(dependencies.size()))));
+                }
+            }
+            assertMatchesRebuild(schedule, nodes);
+        }
+    }
+
+    private static boolean dependsOn(IncrementalSchedule schedule, NodeGroup node, NodeGroup other) {
+        for (NodeGroup dependency : schedule.dependencies(node)) {
+            if (dependency == other || dependsOn(schedule, dependency, other))
+                return true;
+        }
+        return false;
+    }
+
+    private static void assertMatchesRebuild(IncrementalSchedule schedule, List<NodeGroup> nodes) {
+        assertEquals(nodes.size(), schedule.size());
+        NodeGroup[][] expected = parallelizedDag(nodes, schedule::dependencies);
+        NodeGroup[][] actual = schedule.toArray();
+        assertEquals(expected.length, actual.length);
+        for (int depth = 0; depth < expected.length; depth++)
+            assertEquals(Set.of(expected[depth]), Set.of(actual[depth]));
+    }
+
+    private static void assertLayers(IncrementalSchedule schedule, List<Set<NodeGroup>> expected) {
+        assertEquals(expected, Arrays.stream(schedule.toArray()).map(Set::of).toList());
+        assertEquals(expected.size(), schedule.layerCount());
+        assertEquals(expected, schedule.layers().stream().map(l -> Set.copyOf(l.nodeGroups())).toList());
+    }
+}
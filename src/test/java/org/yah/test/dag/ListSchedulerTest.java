@@ -0,0 +1,75 @@
+package org.yah.test.dag;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.yah.test.dag.DagSandbox.*;
+
+class ListSchedulerTest {
+
+    @Test
+    void criticalPathFirst() {
+        NodeType[] types = TestGraphs.types(4);
+        NodeGroup a = new NodeGroup(types[0], 1), b = new NodeGroup(types[1], 10, a),
+                c = new NodeGroup(types[2], 5), d = new NodeGroup(types[3], 5);
+        ListScheduler.Schedule schedule = ListScheduler.schedule(List.of(c, d, b, a), 2);
+        assertEquals(11, schedule.makespan());
+        assertEquals(List.of(a, b, c, d), schedule.groups().stream().map(ListScheduler.ScheduledGroup::group).toList());
+        assertArrayEquals(new NodeGroup[][]{{a, b}, {c, d}}, schedule.workerGroups());
+    }
+
+    @Test
+    void costModelByType() {
+        NodeType[] types = TestGraphs.types(3);
+        NodeGroup a = new NodeGroup(types[0], 1), b = new NodeGroup(types[1], 1, a), c = new NodeGroup(types[2], 1, a);
+        CostModel costModel = CostModel.byType(Map.of(types[1], 4.0));
+        ListScheduler.Schedule schedule = ListScheduler.schedule(List.of(a, b, c), null, costModel, 1);
+        assertEquals(6, schedule.makespan());
+        assertEquals(5, schedule.groups().getFirst().rank());
+        assertArrayEquals(new NodeGroup[][]{{a, b, c}}, schedule.workerGroups());
+    }
+
+    @Test
+    void validSchedule() {
+        Random random = new Random(12345);
+        List<NodeGroup> nodes = TestGraphs.randomTypedDag(random, 300, 10, 3);
+        DependencySupplier supplier = DependencySupplier.byType(nodes, TestGraphs.randomTypeDependencies(random, nodes, 4));
+        for (int workers : new int[]{1, 3, 8}) {
+            ListScheduler.Schedule schedule = ListScheduler.schedule(nodes, supplier, CostModel.nodeCount(), workers);
+            assertEquals(nodes.size(), schedule.groups().size());
+
+            Map<NodeGroup, ListScheduler.ScheduledGroup> byGroup = new HashMap<>();
+            schedule.groups().forEach(sg -> byGroup.put(sg.group(), sg));
+            for (ListScheduler.ScheduledGroup sg : schedule.groups()) {
+                assertEquals(sg.group().nodeCount(), sg.finish() - sg.start());
+                for (NodeGroup dependency : supplier.apply(sg.group()))
+                    assertTrue(byGroup.get(dependency).finish() <= sg.start());
+            }
+            for (int w = 0; w < workers; w++) {
+                double available = 0;
+                for (ListScheduler.ScheduledGroup sg : schedule.worker(w)) {
+                    assertTrue(sg.start() >= available);
+                    available = sg.finish();
+                }
+            }
+
+            double totalCost = nodes.stream().mapToInt(NodeGroup::nodeCount).sum();
+            double criticalPath = schedule.groups().stream().mapToDouble(ListScheduler.ScheduledGroup::rank).max().orElseThrow();
+            assertTrue(schedule.makespan() >= Math.max(criticalPath, totalCost / workers));
+            if (workers == 1)
+                assertEquals(totalCost, schedule.makespan());
+        }
+    }
+
+    @Test
+    void invalidArguments() {
+        NodeGroup a = new NodeGroup(TestGraphs.types(1)[0]);
+        assertThrows(IllegalArgumentException.class, () -> ListScheduler.schedule(List.of(a), 0));
+        assertThrows(IllegalArgumentException.class, () -> ListScheduler.schedule(List.of(a), null, group -> -1, 2));
+    }
+}
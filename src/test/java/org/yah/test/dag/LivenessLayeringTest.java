@@ -0,0 +1,103 @@
+package org.yah.test.dag;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.ToLongFunction;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.yah.test.dag.DagSandbox.*;
+
+class LivenessLayeringTest {
+
+    @Test
+    void releasePoints() {
+        NodeType[] types = TestGraphs.types(4);
+        NodeGroup a = new NodeGroup(types[0], 10), b = new NodeGroup(types[1], 20), c = new NodeGroup(types[2], 30, a);
+        NodeGroup d = new NodeGroup(types[3], 40, c, a);
+        NodeGroup[][] layers = parallelizedDag(List.of(a, b, c, d));
+        LivenessLayering.Schedule schedule = LivenessLayering.analyze(layers, null, NodeGroup::nodeCount);
+        assertArrayEquals(new NodeGroup[][]{{b}, {}, {a, c, d}}, schedule.releases());
+        assertArrayEquals(new long[]{30, 40, 80}, schedule.liveBytes());
+        assertEquals(80, schedule.peakBytes());
+        assertTrue(schedule.withinBudget());
+
+        assertThrows(IllegalArgumentException.class,
+                () -> LivenessLayering.analyze(new NodeGroup[][]{{a, c}}, null, NodeGroup::nodeCount));
+        assertThrows(IllegalArgumentException.class,
+                () -> LivenessLayering.analyze(new NodeGroup[][]{{a}, {a}}, null, NodeGroup::nodeCount));
+    }
+
+    @Test
+    void unboundedMatchesParallelizedDag() {
+        Random random = new Random(12345);
+        for (int i = 0; i < 10; i++) {
+            List<NodeGroup> nodes = TestGraphs.randomTypedDag(random, 300, 10, 3);
+            DependencySupplier supplier = DependencySupplier.byType(nodes, TestGraphs.randomTypeDependencies(random, nodes, 3));
+            LivenessLayering.Schedule schedule = LivenessLayering.schedule(nodes, supplier, NodeGroup::nodeCount, Long.MAX_VALUE);
+            NodeGroup[][] expected = parallelizedDag(nodes, supplier);
+            assertArrayEquals(expected, schedule.layers());
+            LivenessLayering.Schedule analyzed = LivenessLayering.analyze(expected, supplier, NodeGroup::nodeCount);
+            assertArrayEquals(analyzed.releases(), schedule.releases());
+            assertArrayEquals(analyzed.liveBytes(), schedule.liveBytes());
+        }
+    }
+
+    @Test
+    void budgetLowersPeak() {
+        Random random = new Random(12345);
+        for (int i = 0; i < 10; i++) {
+            List<NodeGroup> nodes = TestGraphs.randomDag(random, 400, 5, 2);
+            Map<NodeGroup, Long> sizes = new IdentityHashMap<>();
+            for (NodeGroup node : nodes) sizes.put(node, (long) random.nextInt(1, 1000));
+            ToLongFunction<NodeGroup> outputSize = sizes::get;
+
+            LivenessLayering.Schedule unbounded = LivenessLayering.schedule(nodes, null, outputSize, Long.MAX_VALUE);
+            long budget = unbounded.peakBytes() / 4;
+            LivenessLayering.Schedule bounded = LivenessLayering.schedule(nodes, null, outputSize, budget);
+            assertTrue(bounded.peakBytes() < unbounded.peakBytes());
+            assertTrue(bounded.layers().length >= unbounded.layers().length);
+
+            // still a valid schedule, with consistent release points
+            LivenessLayering.Schedule analyzed = LivenessLayering.analyze(bounded.layers(), null, outputSize);
+            assertArrayEquals(analyzed.liveBytes(), bounded.liveBytes());
+            assertArrayEquals(analyzed.releases(), bounded.releases());
+            assertEquals(nodes.size(), Arrays.stream(bounded.layers()).mapToInt(l -> l.length).sum());
+        }
+    }
+
+    @Test
+    void groupLargerThanBudget() {
+        NodeType[] types = TestGraphs.types(2);
+        NodeGroup a = new NodeGroup(types[0], 10), b = new NodeGroup(types[1], 5), c = new NodeGroup(types[1], 5);
+        LivenessLayering.Schedule schedule = LivenessLayering.schedule(List.of(a, b, c), null, NodeGroup::nodeCount, 8);
+        assertArrayEquals(new NodeGroup[][]{{b}, {c}, {a}}, schedule.layers());
+        assertArrayEquals(new long[]{5, 5, 10}, schedule.liveBytes());
+        assertFalse(schedule.withinBudget());
+    }
+
+    @Test
+    void consumersFirst() {
+        // smallest output first, then its consumer releasing it before a is produced
+        NodeType[] types = TestGraphs.types(2);
+        NodeGroup a = new NodeGroup(types[0], 100), b = new NodeGroup(types[0], 50);
+        NodeGroup a1 = new NodeGroup(types[1], 1, a), b1 = new NodeGroup(types[1], 1, b);
+        LivenessLayering.Schedule schedule = LivenessLayering.schedule(List.of(a, b, a1, b1), null, NodeGroup::nodeCount, 120);
+        assertArrayEquals(new NodeGroup[][]{{b}, {b1}, {a}, {a1}}, schedule.layers());
+        assertEquals(101, schedule.peakBytes());
+    }
+
+    @Test
+    void externalDependencies() {
+        NodeType[] types = TestGraphs.types(3);
+        NodeGroup a = new NodeGroup(types[0], 10), b = new NodeGroup(types[1], 20, a), c = new NodeGroup(types[2], 30, b);
+        LivenessLayering.Schedule schedule = LivenessLayering.schedule(List.of(c, a), null, NodeGroup::nodeCount, 15);
+        assertArrayEquals(new NodeGroup[][]{{a}, {c}}, schedule.layers());
+        // a is consumed by b, which is not executed
+        assertArrayEquals(new long[]{10, 30}, schedule.liveBytes());
+    }
+}
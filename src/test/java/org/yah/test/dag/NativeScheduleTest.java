@@ -0,0 +1,179 @@
+package org.yah.test.dag;
+
+import com.sun.jna.Library;
+import com.sun.jna.Native;
+import com.sun.jna.Pointer;
+import org.junit.jupiter.api.Test;
+import org.yah.test.marshall.DefaultTypeIntrospector;
+import org.yah.test.marshall.TestDag;
+import org.yah.test.marshall.TestDag.SimulatableA;
+import org.yah.test.marshall.TestDag.SimulationNode;
+import org.yah.test.marshall.TypeIntrospector;
+import org.yah.test.marshall.jna.JnaAllocation;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.yah.test.dag.DagSandbox.*;
+
+class NativeScheduleTest {
+
+    private static final NodeType SIMULATION = new TestGraphs.TestNodeType("simulation");
+
+    // char has no native mapping
+    private static final TypeIntrospector NATIVE_FIELDS = type -> DefaultTypeIntrospector.INSTANCE.getFields(type).stream()
+            .filter(field -> field.getType() != char.class && field.getType() != char[].class)
+            .toList();
+
+    @Test
+    void roundTrip() {
+        Map<NodeGroup, SimulationNode> simulationNodes = new IdentityHashMap<>();
+        List<NodeGroup> nodes = simulationGroups(simulationNodes);
+        try (NativeSchedule<JnaAllocation> nativeSchedule = NativeSchedule.marshall(nodes, null, simulationNodes::get, NATIVE_FIELDS, JnaAllocation::new)) {
+            NativeSchedule.Schedule schedule = nativeSchedule.schedule();
+            CsrGraph graph = nativeSchedule.graph();
+            assertEquals(nodes.size(), schedule.scheduledCount);
+            assertEquals(nodes.size(), schedule.nodeCount);
+            assertLayered(graph, schedule);
+
+            int[] layerNodes = schedule.layerNodes.clone();
+            int[] dependencyCounts = schedule.dependencyCounts.clone();
+            int[] successors = schedule.successors.clone();
+            Object[] nodeData = schedule.nodeData.clone();
+            SimulationNode[][] dependencies = new SimulationNode[nodes.size()][];
+            long[] longs = new long[nodes.size()];
+            // clear the java side, everything must be read back from native memory
+            Arrays.fill(schedule.layerNodes, -1);
+            Arrays.fill(schedule.dependencyCounts, -1);
+            Arrays.fill(schedule.successors, -1);
+            Arrays.fill(schedule.nodeData, null);
+            for (int node = 0; node < nodes.size(); node++) {
+                SimulationNode simulationNode = (SimulationNode) nodeData[node];
+                dependencies[node] = simulationNode._dependencies.clone();
+                Arrays.fill(simulationNode._dependencies, null);
+                SimulatableA result = (SimulatableA) simulationNode._result;
+                longs[node] = result.aLong;
+                result.aLong = 0;
+            }
+
+            nativeSchedule.unmarshall();
+
+            assertArrayEquals(layerNodes, schedule.layerNodes);
+            assertArrayEquals(dependencyCounts, schedule.dependencyCounts);
+            assertArrayEquals(successors, schedule.successors);
+            for (int node = 0; node < nodes.size(); node++) {
+                NodeGroup group = graph.group(node);
+                SimulationNode simulationNode = simulationNodes.get(group);
+                assertSame(simulationNode, schedule.nodeData[node]);
+                assertArrayEquals(dependencies[node], simulationNode._dependencies);
+                assertEquals(longs[node], ((SimulatableA) simulationNode._result).aLong);
+                assertEquals(nativeSchedule.instances().addressOf(simulationNode), nativeSchedule.nodeDataAddress(group));
+            }
+        }
+    }
+
+    @Test
+    void nativeExecution() {
+        DagScheduleLibrary library = DagScheduleLibrary.load();
+        assumeTrue(library != null, "sandbox-native is not built, see sandbox-native/Makefile");
+
+        Map<NodeGroup, SimulationNode> simulationNodes = new IdentityHashMap<>();
+        List<NodeGroup> nodes = simulationGroups(simulationNodes);
+        // the first node is only a dependency
+        List<NodeGroup> scheduled = nodes.subList(1, nodes.size());
+        try (NativeSchedule<JnaAllocation> nativeSchedule = NativeSchedule.marshall(scheduled, null, simulationNodes::get, NATIVE_FIELDS, JnaAllocation::new)) {
+            Pointer pointer = new Pointer(nativeSchedule.address());
+            int ticks = 3;
+            for (int i = 0; i < ticks; i++)
+                assertEquals(scheduled.size(), library.executeDagSchedule(pointer));
+            nativeSchedule.unmarshall();
+
+            NativeSchedule.Schedule schedule = nativeSchedule.schedule();
+            CsrGraph graph = nativeSchedule.graph();
+            assertEquals(nodes.size(), schedule.nodeCount);
+            int[] positions = new int[schedule.nodeCount];
+            Arrays.fill(positions, -1);
+            for (int i = 0; i < schedule.walkOrder.length; i++)
+                positions[schedule.walkOrder[i]] = i;
+            for (int node = 0; node < schedule.nodeCount; node++) {
+                assertTrue(positions[node] >= 0, "node " + node + " not walked");
+                assertEquals(node < schedule.scheduledCount ? ticks : 0, schedule.executionCounts[node]);
+                if (node >= schedule.scheduledCount)
+                    assertNull(schedule.nodeData[node]);
+                for (int d = 0; d < graph.dependencyCount(node); d++)
+                    assertTrue(positions[graph.dependency(node, d)] < positions[node], "node " + node + " walked before its dependency");
+            }
+        }
+    }
+
+    /**
+     * Every dependency of a scheduled node is in an earlier layer.
+     */
+    private static void assertLayered(CsrGraph graph, NativeSchedule.Schedule schedule) {
+        int[] layers = new int[schedule.nodeCount];
+        Arrays.fill(layers, -1);
+        assertEquals(schedule.layerCount + 1, schedule.layerOffsets.length);
+        assertEquals(schedule.scheduledCount, schedule.layerOffsets[schedule.layerCount]);
+        for (int layer = 0; layer < schedule.layerCount; layer++) {
+            for (int i = schedule.layerOffsets[layer]; i < schedule.layerOffsets[layer + 1]; i++)
+                layers[schedule.layerNodes[i]] = layer;
+        }
+        for (int node = 0; node < schedule.scheduledCount; node++) {
+            for (int d = 0; d < graph.dependencyCount(node); d++)
+                assertTrue(layers[graph.dependency(node, d)] < layers[node], "node " + node + " layered before its dependency");
+        }
+    }
+
+    /**
+     * One group per {@link TestDag#createSimulationNodes()} node, with the same dependencies.
+     */
+    private static List<NodeGroup> simulationGroups(Map<NodeGroup, SimulationNode> simulationNodes) {
+        Map<SimulationNode, NodeGroup> groups = new IdentityHashMap<>();
+        List<NodeGroup> nodes = new ArrayList<>();
+        for (SimulationNode simulationNode : TestDag.createSimulationNodes()) {
+            nonNullEnums((SimulatableA) simulationNode._result);
+            NodeGroup[] dependencies = Arrays.stream(simulationNode._dependencies).map(groups::get).toArray(NodeGroup[]::new);
+            NodeGroup group = new NodeGroup(SIMULATION, 1, dependencies);
+            groups.put(simulationNode, group);
+            simulationNodes.put(group, simulationNode);
+            nodes.add(group);
+        }
+        return nodes;
+    }
+
+    /**
+     * Enums are values in native memory, they can not be null.
+     */
+    private static void nonNullEnums(SimulatableA result) {
+        if (result.aTestEnum == null)
+            result.aTestEnum = TestDag.TestEnum.A;
+        TestDag.TestEnum[] enums = result.withArrays.aTestEnumArray;
+        for (int i = 0; i < enums.length; i++) {
+            if (enums[i] == null)
+                enums[i] = TestDag.TestEnum.A;
+        }
+    }
+
+    public interface DagScheduleLibrary extends Library {
+        int executeDagSchedule(Pointer schedule);
+
+        /**
+         * @return null if the sandbox-native library is not built
+         */
+        static DagScheduleLibrary load() {
+            if (System.getProperty("jna.library.path") == null)
+                System.setProperty("jna.library.path", Paths.get("sandbox-native", "x64", "Release").toAbsolutePath().toString());
+            try {
+                return Native.load("sandbox-native", DagScheduleLibrary.class);
+            } catch (UnsatisfiedLinkError e) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package org.yah.test.dag;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Comparator;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NodeHeapTest {
+
+    @Test
+    void pollsInOrder() {
+        Random random = new Random(12345);
+        int[] keys = new int[1000];
+        for (int i = 0; i < keys.length; i++) keys[i] = random.nextInt(50);
+        NodeHeap heap = new NodeHeap((a, b) -> keys[a] != keys[b] ? Integer.compare(keys[a], keys[b]) : Integer.compare(a, b));
+        for (int i = keys.length - 1; i >= 0; i--) heap.add(i);
+        assertEquals(keys.length, heap.size());
+        int previous = heap.poll();
+        while (!heap.isEmpty()) {
+            int node = heap.poll();
+            assertTrue(keys[previous] < keys[node] || keys[previous] == keys[node] && previous < node);
+            previous = node;
+        }
+        assertEquals(-1, heap.poll());
+        assertEquals(-1, heap.peek());
+    }
+
+    @Test
+    void indexedOperations() {
+        Random random = new Random(12345);
+        int nodeCount = 200;
+        int[] keys = new int[nodeCount];
+        Comparator<Integer> order = Comparator.<Integer>comparingInt(node -> keys[node]).thenComparingInt(node -> node);
+        NodeHeap heap = new NodeHeap(nodeCount, order::compare);
+        TreeSet<Integer> expected = new TreeSet<>(order);
+        for (int i = 0; i < 20_000; i++) {
+            int node = random.nextInt(nodeCount);
+            switch (random.nextInt(4)) {
+                case 0 -> {
+                    if (!heap.contains(node)) {
+                        keys[node] = random.nextInt(100);
+                        heap.add(node);
+                        expected.add(node);
+                    } else {
+                        assertThrows(IllegalArgumentException.class, () -> heap.add(node));
+                    }
+                }
+                case 1 -> assertEquals(expected.remove(node), heap.remove(node));
+                case 2 -> {
+                    // the reference set must not see the key change while holding the node
+                    boolean contained = expected.remove(node);
+                    keys[node] = random.nextInt(100);
+                    if (contained) expected.add(node);
+                    heap.update(node);
+                }
+                default -> assertEquals(expected.isEmpty() ? -1 : (int) expected.pollFirst(), heap.poll());
+            }
+            assertEquals(expected.size(), heap.size());
+            assertEquals(expected.isEmpty() ? -1 : (int) expected.first(), heap.peek());
+        }
+        heap.clear();
+        assertTrue(heap.isEmpty());
+        for (int node = 0; node < nodeCount; node++)
+            assertFalse(heap.contains(node));
+    }
+
+    @Test
+    void notIndexed() {
+        NodeHeap heap = new NodeHeap(Integer::compare);
+        heap.add(1);
+        heap.add(1);
+        assertEquals(2, heap.size());
+        assertThrows(IllegalStateException.class, () -> heap.remove(1));
+        assertThrows(IllegalStateException.class, () -> heap.update(1));
+    }
+}
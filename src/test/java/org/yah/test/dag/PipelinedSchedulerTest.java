@@ -0,0 +1,158 @@
+package org.yah.test.dag;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.yah.test.dag.DagSandbox.*;
+
+class PipelinedSchedulerTest {
+
+    private static final int TICKS = 20;
+
+    @Test
+    void dependenciesCompleteBeforeStart() throws InterruptedException {
+        Random random = new Random(12345);
+        List<NodeGroup> nodes = TestGraphs.randomDag(random, 200, 8, 3);
+        Map<NodeGroup, List<NodeGroup>> previousTickDependencies = new HashMap<>();
+        for (int i = 0; i < 20; i++)
+            previousTickDependencies.put(nodes.get(random.nextInt(nodes.size())), List.of(nodes.get(random.nextInt(nodes.size()))));
+
+        for (int maxTicksInFlight : new int[]{1, 3}) {
+            TickRecorder recorder = new TickRecorder(nodes.size(), maxTicksInFlight);
+            try (PipelinedScheduler scheduler = new PipelinedScheduler(8, maxTicksInFlight)) {
+                PipelinedScheduler.ExecutionReport report = scheduler.execute(nodes, previousTickDependencies, TICKS, type -> recorder);
+                assertEquals(TICKS, report.tickCount());
+                assertEquals(nodes.size(), report.groupCount());
+            }
+            recorder.assertExecuted(nodes, previousTickDependencies);
+        }
+    }
+
+    @Test
+    void ticksOverlap() throws InterruptedException {
+        // b of the next tick only waits for b, a blocks until the next tick b started
+        NodeType[] types = TestGraphs.types(2);
+        NodeGroup a = new NodeGroup(types[0]), b = new NodeGroup(types[1]);
+        CountDownLatch nextTickStarted = new CountDownLatch(1);
+        try (PipelinedScheduler scheduler = new PipelinedScheduler(4, 2)) {
+            scheduler.execute(List.of(a, b), Map.of(), 2, type -> (group, tick) -> {
+                if (group == a && tick == 0)
+                    assertTrue(nextTickStarted.await(10, TimeUnit.SECONDS));
+                if (group == b && tick == 1)
+                    nextTickStarted.countDown();
+            });
+        }
+    }
+
+    @Test
+    void previousTickDependencies() throws InterruptedException {
+        NodeType[] types = TestGraphs.types(2);
+        NodeGroup a = new NodeGroup(types[0]), b = new NodeGroup(types[1]);
+        List<String> executed = new ArrayList<>();
+        try (PipelinedScheduler scheduler = new PipelinedScheduler(1, 4)) {
+            scheduler.execute(List.of(a, b), Map.of(a, List.of(b)), 3, type -> (group, tick) -> {
+                synchronized (executed) {
+                    executed.add(group + "@" + tick);
+                }
+            });
+        }
+        assertEquals(6, executed.size());
+        for (int tick = 1; tick < 3; tick++)
+            assertTrue(executed.indexOf(b + "@" + (tick - 1)) < executed.indexOf(a + "@" + tick));
+    }
+
+    @Test
+    void externalDependenciesAreNotExecuted() throws InterruptedException {
+        NodeType[] types = TestGraphs.types(3);
+        NodeGroup a = new NodeGroup(types[0]), b = new NodeGroup(types[1], a), c = new NodeGroup(types[2], b);
+        Map<Integer, List<NodeGroup>> executed = new ConcurrentHashMap<>();
+        try (PipelinedScheduler scheduler = new PipelinedScheduler(2, 2)) {
+            scheduler.execute(List.of(c, a), Map.of(), 4, type -> (group, tick) ->
+                    executed.computeIfAbsent(tick, t -> new ArrayList<>()).add(group));
+        }
+        for (int tick = 0; tick < 4; tick++)
+            assertEquals(List.of(a, c), executed.get(tick));
+    }
+
+    @Test
+    void failureStopsTicks() {
+        List<NodeGroup> nodes = TestGraphs.randomDag(new Random(12345), 50, 4, 2);
+        AtomicInteger maxTick = new AtomicInteger();
+        try (PipelinedScheduler scheduler = new PipelinedScheduler(4, 2)) {
+            RuntimeException e = assertThrows(RuntimeException.class, () -> scheduler.execute(nodes, Map.of(), 100, type -> (group, tick) -> {
+                maxTick.accumulateAndGet(tick, Math::max);
+                if (tick == 3)
+                    throw new IllegalStateException("failed");
+            }));
+            assertInstanceOf(IllegalStateException.class, e.getCause());
+        }
+        assertTrue(maxTick.get() <= 4);
+    }
+
+    @Test
+    void invalidArguments() {
+        NodeType[] types = TestGraphs.types(3);
+        NodeGroup a = new NodeGroup(types[0]), b = new NodeGroup(types[1], a), c = new NodeGroup(types[2], b);
+        try (PipelinedScheduler scheduler = new PipelinedScheduler(2, 2)) {
+            assertThrows(IllegalArgumentException.class, () -> scheduler.execute(List.of(a, c), Map.of(c, List.of(b)), 2, type -> (group, tick) -> {
+            }));
+            assertThrows(IllegalArgumentException.class, () -> scheduler.execute(List.of(a, c), Map.of(), 2, type -> null));
+        }
+        assertThrows(IllegalArgumentException.class, () -> new PipelinedScheduler(2, 0));
+    }
+
+    /**
+     * Record a logical start and end time for each executed group and tick, and check the ticks in flight.
+     */
+    private static final class TickRecorder implements PipelinedScheduler.TickTask {
+        private final int groupCount;
+        private final int maxTicksInFlight;
+        private final AtomicLong clock = new AtomicLong();
+        private final Map<NodeGroup, long[][]> executions = new ConcurrentHashMap<>();
+        private final AtomicIntegerArray executedPerTick = new AtomicIntegerArray(TICKS);
+
+        TickRecorder(int groupCount, int maxTicksInFlight) {
+            this.groupCount = groupCount;
+            this.maxTicksInFlight = maxTicksInFlight;
+        }
+
+        @Override
+        public void execute(NodeGroup group, int tick) throws Exception {
+            long start = clock.incrementAndGet();
+            if (tick >= maxTicksInFlight)
+                assertEquals(groupCount, executedPerTick.get(tick - maxTicksInFlight), () -> "tick " + tick + " started too early");
+            Thread.sleep(0, 1000);
+            long[][] groupExecutions = executions.computeIfAbsent(group, g -> new long[TICKS][]);
+            assertNull(groupExecutions[tick], () -> group + " executed twice");
+            groupExecutions[tick] = new long[]{start, clock.incrementAndGet()};
+            executedPerTick.incrementAndGet(tick);
+        }
+
+        void assertExecuted(List<NodeGroup> nodes, Map<NodeGroup, List<NodeGroup>> previousTickDependencies) {
+            for (int tick = 0; tick < TICKS; tick++) {
+                for (NodeGroup node : nodes) {
+                    long start = executions.get(node)[tick][0];
+                    for (NodeGroup dependency : node.dependencies())
+                        assertTrue(executions.get(dependency)[tick][1] < start);
+                    if (tick == 0)
+                        continue;
+                    assertTrue(executions.get(node)[tick - 1][1] < start);
+                    for (NodeGroup dependency : previousTickDependencies.getOrDefault(node, List.of()))
+                        assertTrue(executions.get(dependency)[tick - 1][1] < start);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package org.yah.test.dag;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.yah.test.dag.DagSandbox.*;
+import static org.yah.test.dag.ResourceLayering.*;
+
+class ResourceLayeringTest {
+
+    @Test
+    void unconstrainedMatchesParallelizedDag() {
+        Random random = new Random(12345);
+        for (int i = 0; i < 10; i++) {
+            List<NodeGroup> nodes = TestGraphs.randomTypedDag(random, 300, 10, 3);
+            DependencySupplier supplier = DependencySupplier.byType(nodes, TestGraphs.randomTypeDependencies(random, nodes, 3));
+            assertArrayEquals(parallelizedDag(nodes, supplier), layers(nodes, supplier, new Constraints()));
+        }
+    }
+
+    @Test
+    void capacitiesAreHonoured() {
+        Random random = new Random(12345);
+        NodeType[] types = TestGraphs.types(6);
+        Resource disk = new Resource("disk", 1), gpu = new Resource("gpu", 2);
+        Constraints constraints = new Constraints().add(disk, types[0], types[1]).add(gpu, types[1], types[2]);
+        for (int i = 0; i < 10; i++) {
+            List<NodeGroup> nodes = TestGraphs.randomDag(random, 300, 6, 2);
+            NodeGroup[][] layers = layers(nodes, null, constraints);
+            assertTrue(layers.length >= parallelizedDag(nodes).length);
+            assertScheduled(nodes, layers);
+            for (NodeGroup[] layer : layers) {
+                assertTrue(count(layer, types[0], types[1]) <= 1);
+                assertTrue(count(layer, types[1], types[2]) <= 2);
+            }
+        }
+    }
+
+    @Test
+    void criticalPathFirst() {
+        NodeType[] types = TestGraphs.types(2);
+        NodeGroup a = new NodeGroup(types[0]), b = new NodeGroup(types[0]), c = new NodeGroup(types[1]);
+        NodeGroup b1 = new NodeGroup(types[1], b), b2 = new NodeGroup(types[1], b1);
+        Constraints constraints = new Constraints().add(new Resource("lock", 1), types[0]);
+        NodeGroup[][] layers = layers(List.of(a, b, c, b1, b2), null, constraints);
+        // other groups keep filling the layers
+        assertArrayEquals(new NodeGroup[][]{{b, c}, {a, b1}, {b2}}, layers);
+    }
+
+    @Test
+    void externalDependencies() {
+        NodeType[] types = TestGraphs.types(3);
+        NodeGroup a = new NodeGroup(types[0]), b = new NodeGroup(types[1], a), c = new NodeGroup(types[2], b);
+        NodeGroup a2 = new NodeGroup(types[0]);
+        Constraints constraints = new Constraints().add(new Resource("lock", 1), types[0], types[1]);
+        assertArrayEquals(new NodeGroup[][]{{a}, {c, a2}}, layers(List.of(c, a, a2), null, constraints));
+        assertThrows(IllegalArgumentException.class, () -> new Resource("lock", 0));
+    }
+
+    private static int count(NodeGroup[] layer, NodeType... types) {
+        return (int) Arrays.stream(layer).filter(g -> Arrays.asList(types).contains(g.type())).count();
+    }
+
+    private static void assertScheduled(List<NodeGroup> nodes, NodeGroup[][] layers) {
+        Map<NodeGroup, Integer> layerIndices = new IdentityHashMap<>();
+        for (int i = 0; i < layers.length; i++) {
+            assertTrue(layers[i].length > 0);
+            for (NodeGroup group : layers[i]) assertNull(layerIndices.put(group, i));
+        }
+        assertEquals(nodes.size(), layerIndices.size());
+        for (NodeGroup node : nodes) {
+            for (NodeGroup dependency : node.dependencies())
+                assertTrue(layerIndices.get(dependency) < layerIndices.get(node));
+        }
+    }
+}
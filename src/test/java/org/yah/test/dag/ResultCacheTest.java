@@ -0,0 +1,221 @@
+package org.yah.test.dag;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.yah.test.dag.DagSandbox.*;
+
+class ResultCacheTest {
+
+    // TestNodeType names are stable
+    private static final Function<NodeType, String> TYPE_KEY = NodeType::toString;
+
+    @Test
+    void memoryTier() throws InterruptedException {
+        NodeType[] types = TestGraphs.types(2);
+        ResultCache cache = new ResultCache(16, TYPE_KEY);
+        SumTask task = new SumTask();
+        try (DagExecutor executor = new DagExecutor(2)) {
+            List<NodeGroup> nodes = diamond(types);
+            ResultCache.Results results = cache.execute(executor, nodes, type -> task);
+            assertEquals(4, task.computed.get());
+            assertEquals(4, cache.misses());
+            assertEquals(17, ((Sum) results.get(nodes.get(3))).value);
+
+            // structurally identical graph, other instances
+            List<NodeGroup> copy = diamond(types);
+            results = cache.execute(executor, copy, type -> task);
+            assertEquals(4, task.computed.get());
+            assertEquals(4, cache.memoryHits());
+            assertEquals(17, ((Sum) results.get(copy.get(3))).value);
+            assertEquals(results.key(copy.get(3)), cache.execute(executor, nodes, type -> task).key(nodes.get(3)));
+        }
+    }
+
+    @Test
+    void parametersChangeDownstreamKeys() throws InterruptedException {
+        NodeType[] types = TestGraphs.types(2);
+        List<NodeGroup> nodes = diamond(types);
+        ResultCache cache = new ResultCache(16, TYPE_KEY);
+        SumTask task = new SumTask();
+        try (DataflowScheduler scheduler = new DataflowScheduler(2)) {
+            ResultCache.Results first = cache.execute(scheduler, nodes, type -> task);
+            task.parameters.put(nodes.get(1), 10);
+            ResultCache.Results second = cache.execute(scheduler, nodes, type -> task);
+            // b and d are recomputed, a and c reused
+            assertEquals(6, task.computed.get());
+            assertEquals(first.key(nodes.get(0)), second.key(nodes.get(0)));
+            assertEquals(first.key(nodes.get(2)), second.key(nodes.get(2)));
+            assertNotEquals(first.key(nodes.get(1)), second.key(nodes.get(1)));
+            assertNotEquals(first.key(nodes.get(3)), second.key(nodes.get(3)));
+            assertEquals(27, ((Sum) second.get(nodes.get(3))).value);
+        }
+    }
+
+    @Test
+    void externalsAreHashedNotExecuted() throws InterruptedException {
+        NodeType[] types = TestGraphs.types(2);
+        NodeGroup external = new NodeGroup(types[0], 5);
+        NodeGroup a = new NodeGroup(types[1], 1, external);
+        ResultCache cache = new ResultCache(16, TYPE_KEY);
+        try (DagExecutor executor = new DagExecutor(2)) {
+            ResultCache.Results results = cache.execute(executor, List.of(a), type -> (group, r) -> new Sum(group.nodeCount()));
+            assertEquals(1, ((Sum) results.get(a)).value);
+            assertThrows(IllegalArgumentException.class, () -> results.get(external));
+
+            NodeGroup otherExternal = new NodeGroup(types[0], 6);
+            NodeGroup otherA = new NodeGroup(types[1], 1, otherExternal);
+            assertNotEquals(results.key(a), cache.execute(executor, List.of(otherA), type -> (group, r) -> new Sum(0)).key(otherA));
+        }
+    }
+
+    @Test
+    void diskTier() throws IOException, InterruptedException {
+        Path directory = Files.createTempDirectory("result-cache");
+        try (DagExecutor executor = new DagExecutor(2)) {
+            NodeType[] types = TestGraphs.types(2);
+            List<NodeGroup> nodes = diamond(types);
+            SumTask task = new SumTask();
+            ResultCache.DiskTier diskTier = new ResultCache.DiskTier(directory);
+            ResultCache.Results results = new ResultCache(1, TYPE_KEY, diskTier).execute(executor, nodes, type -> task);
+            for (NodeGroup node : nodes)
+                assertTrue(diskTier.contains(results.key(node)));
+
+            // new cache sharing the directory, as another job would
+            ResultCache cache = new ResultCache(1, TYPE_KEY, new ResultCache.DiskTier(directory));
+            ResultCache.Results reloaded = cache.execute(executor, nodes, type -> task);
+            assertEquals(4, task.computed.get());
+            assertEquals(4, cache.diskHits());
+            assertEquals(0, cache.misses());
+            for (NodeGroup node : nodes) {
+                Sum expected = (Sum) results.get(node), actual = (Sum) reloaded.get(node);
+                assertNotSame(expected, actual);
+                assertEquals(expected.value, actual.value);
+                assertArrayEquals(expected.inputs, actual.inputs);
+            }
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList())
+                    Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    void unreadableDiskResultsAreMisses() throws IOException, InterruptedException {
+        Path directory = Files.createTempDirectory("result-cache");
+        try (DagExecutor executor = new DagExecutor(2)) {
+            NodeType[] types = TestGraphs.types(2);
+            List<NodeGroup> nodes = diamond(types);
+            SumTask task = new SumTask();
+            ResultCache.DiskTier diskTier = new ResultCache.DiskTier(directory);
+            ResultCache.Results results = new ResultCache(1, TYPE_KEY, diskTier).execute(executor, nodes, type -> task);
+            Path truncated = diskTier.file(results.key(nodes.get(1)));
+            Files.write(truncated, Arrays.copyOf(Files.readAllBytes(truncated), 16));
+            Files.write(diskTier.file(results.key(nodes.get(2))), new byte[]{1, 2, 3});
+
+            // b and c are computed again and rewritten, d still reloaded
+            ResultCache cache = new ResultCache(1, TYPE_KEY, new ResultCache.DiskTier(directory));
+            ResultCache.Results reloaded = cache.execute(executor, nodes, type -> task);
+            assertEquals(6, task.computed.get());
+            assertEquals(2, cache.misses());
+            assertEquals(2, cache.diskHits());
+            assertEquals(17, ((Sum) reloaded.get(nodes.get(3))).value);
+
+            cache = new ResultCache(1, TYPE_KEY, new ResultCache.DiskTier(directory));
+            cache.execute(executor, nodes, type -> task);
+            assertEquals(6, task.computed.get());
+            assertEquals(4, cache.diskHits());
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList())
+                    Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    void typeKeys() throws InterruptedException {
+        NodeType[] types = TestGraphs.types(2);
+        List<NodeGroup> nodes = diamond(types);
+        SumTask task = new SumTask();
+        try (DagExecutor executor = new DagExecutor(2)) {
+            ResultCache.Results v1 = new ResultCache(16, type -> "v1/" + type).execute(executor, nodes, type -> task);
+            ResultCache.Results v2 = new ResultCache(16, type -> "v2/" + type).execute(executor, nodes, type -> task);
+            assertEquals(8, task.computed.get());
+            for (NodeGroup node : nodes)
+                assertNotEquals(v1.key(node), v2.key(node));
+
+            ResultCache cache = new ResultCache(16, type -> type == types[0] ? null : type.toString());
+            assertThrows(IllegalArgumentException.class, () -> cache.execute(executor, nodes, type -> task));
+        }
+    }
+
+    @Test
+    void invalidCapacity() {
+        assertThrows(IllegalArgumentException.class, () -> new ResultCache(0, TYPE_KEY));
+    }
+
+    /**
+     * a(3) <- b(2), c(5) <- d(4), b and c differ so that their keys differ
+     */
+    private static List<NodeGroup> diamond(NodeType[] types) {
+        NodeGroup a = new NodeGroup(types[0], 3);
+        NodeGroup b = new NodeGroup(types[1], 2, a), c = new NodeGroup(types[1], 5, a);
+        NodeGroup d = new NodeGroup(types[0], 4, b, c);
+        return List.of(a, b, c, d);
+    }
+
+    /**
+     * Node count, plus optional parameter, plus dependency values.
+     */
+    private static final class SumTask implements ResultCache.ResultTask {
+        private final AtomicInteger computed = new AtomicInteger();
+        private final Map<NodeGroup, Integer> parameters = new ConcurrentHashMap<>();
+
+        @Override
+        public Object compute(NodeGroup group, ResultCache.Results results) {
+            computed.incrementAndGet();
+            long[] inputs = new long[group.dependencies().size()];
+            long value = group.nodeCount() + parameters.getOrDefault(group, 0);
+            for (int i = 0; i < inputs.length; i++) {
+                inputs[i] = ((Sum) results.get(group.dependencies().get(i))).value;
+                value += inputs[i];
+            }
+            Sum sum = new Sum(value);
+            sum.inputs = inputs;
+            return sum;
+        }
+
+        @Override
+        public void digestParameters(NodeGroup group, MessageDigest digest) {
+            digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(parameters.getOrDefault(group, 0)).flip());
+        }
+    }
+
+    public static class Sum {
+        public long value;
+        public long[] inputs;
+
+        public Sum() {
+        }
+
+        public Sum(long value) {
+            this.value = value;
+        }
+    }
+}
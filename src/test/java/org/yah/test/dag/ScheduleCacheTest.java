@@ -0,0 +1,146 @@
+package org.yah.test.dag;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.yah.test.dag.DagSandbox.*;
+
+class ScheduleCacheTest {
+
+    @Test
+    void remapsCachedSchedule() {
+        ScheduleCache cache = new ScheduleCache(4);
+        Random random = new Random(12345);
+        List<NodeGroup> nodes = TestGraphs.randomDag(random, 300, 10, 3);
+        assertArrayEquals(parallelizedDag(nodes), cache.parallelizedDag(nodes));
+        assertEquals(0, cache.hits());
+        assertEquals(1, cache.misses());
+
+        List<NodeGroup> copy = copy(nodes);
+        NodeGroup[][] actual = cache.parallelizedDag(copy);
+        assertEquals(1, cache.hits());
+        assertArrayEquals(parallelizedDag(copy), actual);
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void typeDependencies() {
+        ScheduleCache cache = new ScheduleCache(4);
+        Random random = new Random(12345);
+        List<NodeGroup> nodes = TestGraphs.randomTypedDag(random, 200, 8, 2);
+        Map<NodeType, Set<NodeType>> typesDependencies = TestGraphs.randomTypeDependencies(random, nodes, 4);
+        cache.parallelizedDag(nodes, DependencySupplier.byType(nodes, typesDependencies));
+
+        List<NodeGroup> copy = copy(nodes);
+        DependencySupplier supplier = DependencySupplier.byType(copy, typesDependencies);
+        assertArrayEquals(parallelizedDag(copy, supplier), cache.parallelizedDag(copy, supplier));
+        assertEquals(1, cache.hits());
+
+        // same groups without the type dependencies is another structure
+        cache.parallelizedDag(copy);
+        assertEquals(2, cache.misses());
+    }
+
+    @Test
+    void structureChangesMiss() {
+        NodeType[] types = TestGraphs.types(3);
+        ScheduleCache cache = new ScheduleCache(8);
+        NodeGroup a = new NodeGroup(types[0], 4), b = new NodeGroup(types[1], 2, a);
+        cache.parallelizedDag(List.of(a, b));
+
+        NodeGroup a2 = new NodeGroup(types[0], 4), b2 = new NodeGroup(types[1], 3, a2);
+        cache.parallelizedDag(List.of(a2, b2));
+        NodeGroup a3 = new NodeGroup(types[0], 4), b3 = new NodeGroup(types[2], 2, a3);
+        cache.parallelizedDag(List.of(a3, b3));
+        NodeGroup a4 = new NodeGroup(types[0], 4), b4 = new NodeGroup(types[1], 2);
+        cache.parallelizedDag(List.of(a4, b4));
+        // nodes order is part of the structure
+        NodeGroup a5 = new NodeGroup(types[0], 4), b5 = new NodeGroup(types[1], 2, a5);
+        cache.parallelizedDag(List.of(b5, a5));
+        assertEquals(0, cache.hits());
+        assertEquals(5, cache.misses());
+
+        NodeGroup a6 = new NodeGroup(types[0], 4), b6 = new NodeGroup(types[1], 2, a6);
+        assertArrayEquals(new NodeGroup[][]{{a6}, {b6}}, cache.parallelizedDag(List.of(a6, b6)));
+        assertEquals(1, cache.hits());
+    }
+
+    @Test
+    void externalDependencies() {
+        NodeType[] types = TestGraphs.types(3);
+        ScheduleCache cache = new ScheduleCache(4);
+        NodeGroup a = new NodeGroup(types[0]), b = new NodeGroup(types[1], a), c = new NodeGroup(types[2], b);
+        cache.parallelizedDag(List.of(c, a));
+        NodeGroup a2 = new NodeGroup(types[0]), b2 = new NodeGroup(types[1], a2), c2 = new NodeGroup(types[2], b2);
+        assertArrayEquals(new NodeGroup[][]{{a2}, {c2}}, cache.parallelizedDag(List.of(c2, a2)));
+        assertEquals(1, cache.hits());
+    }
+
+    @Test
+    void duplicatedGroupsAreNotCached() {
+        NodeType[] types = TestGraphs.types(2);
+        ScheduleCache cache = new ScheduleCache(4);
+        NodeGroup a = new NodeGroup(types[0]), b = new NodeGroup(types[1], a);
+        List<NodeGroup> nodes = List.of(a, b, a);
+        assertArrayEquals(parallelizedDag(nodes), cache.parallelizedDag(nodes));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsed() {
+        ScheduleCache cache = new ScheduleCache(2);
+        Random random = new Random(12345);
+        List<NodeGroup> g1 = TestGraphs.randomDag(random, 50, 4, 2);
+        List<NodeGroup> g2 = TestGraphs.randomDag(random, 50, 4, 2);
+        List<NodeGroup> g3 = TestGraphs.randomDag(random, 50, 4, 2);
+        cache.parallelizedDag(g1);
+        cache.parallelizedDag(g2);
+        cache.parallelizedDag(copy(g1));
+        // g2 is now the least recently used
+        cache.parallelizedDag(g3);
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.hits());
+
+        cache.parallelizedDag(copy(g1));
+        assertEquals(2, cache.hits());
+        cache.parallelizedDag(copy(g2));
+        assertEquals(2, cache.hits());
+        assertEquals(4, cache.misses());
+    }
+
+    @Test
+    void fingerprint() {
+        List<NodeGroup> nodes = TestGraphs.randomDag(new Random(12345), 100, 5, 3);
+        ScheduleCache.Fingerprint fingerprint = ScheduleCache.Fingerprint.of(CsrGraph.of(nodes));
+        ScheduleCache.Fingerprint other = ScheduleCache.Fingerprint.of(CsrGraph.of(copy(nodes)));
+        assertEquals(fingerprint, other);
+        assertEquals(fingerprint.hash(), other.hash());
+        CsrGraph.Builder builder = CsrGraph.builder();
+        builder.addNode(0, 1);
+        CsrGraph ids = builder.build();
+        assertThrows(IllegalStateException.class, () -> ScheduleCache.Fingerprint.of(ids));
+        assertThrows(IllegalArgumentException.class, () -> new ScheduleCache(0));
+    }
+
+    /**
+     * Copy groups created in dependency order.
+     */
+    private static List<NodeGroup> copy(List<NodeGroup> nodes) {
+        Map<NodeGroup, NodeGroup> copies = new IdentityHashMap<>();
+        List<NodeGroup> res = new ArrayList<>(nodes.size());
+        for (NodeGroup node : nodes) {
+            NodeGroup[] dependencies = node.dependencies().stream().map(copies::get).toArray(NodeGroup[]::new);
+            NodeGroup copy = new NodeGroup(node.type(), node.nodeCount(), dependencies);
+            copies.put(node, copy);
+            res.add(copy);
+        }
+        return res;
+    }
+}
@@ -0,0 +1,321 @@
+package org.yah.test.dag;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.yah.test.dag.DagSandbox.*;
+
+class StreamingSchedulerTest {
+
+    private static final int ITEMS = 1000;
+
+    @Test
+    void pipeline() throws InterruptedException {
+        // parse -> transform -> aggregate
+        NodeType[] types = TestGraphs.types(3);
+        NodeGroup parse = new NodeGroup(types[0]), transform = new NodeGroup(types[1], parse), aggregate = new NodeGroup(types[2], transform);
+        List<Integer> received = new ArrayList<>();
+        AtomicLong sum = new AtomicLong();
+        Map<NodeType, StreamingScheduler.StreamTask> tasks = Map.of(
+                types[0], new Source(ITEMS),
+                types[1], (group, from, item, emitter) -> emitter.emit((Integer) item * 2),
+                types[2], new StreamingScheduler.StreamTask() {
+                    @Override
+                    public void accept(NodeGroup group, NodeGroup from, Object item, StreamingScheduler.Emitter emitter) {
+                        assertSame(transform, from);
+                        received.add((Integer) item);
+                    }
+
+                    @Override
+                    public void completed(NodeGroup group, StreamingScheduler.Emitter emitter) {
+                        sum.set(received.stream().mapToLong(i -> i).sum());
+                    }
+                });
+        try (StreamingScheduler scheduler = new StreamingScheduler(8)) {
+            StreamingScheduler.ExecutionReport report = scheduler.execute(List.of(aggregate, transform, parse), tasks::get);
+            assertEquals(3, report.stageCount());
+            assertEquals(2L * ITEMS, report.itemCount());
+        }
+        assertEquals(ITEMS, received.size());
+        for (int i = 0; i < ITEMS; i++)
+            assertEquals(i * 2, (int) received.get(i));
+        assertEquals((long) ITEMS * (ITEMS - 1), sum.get());
+    }
+
+    @Test
+    void fanOutFanIn() throws InterruptedException {
+        NodeType[] types = TestGraphs.types(4);
+        NodeGroup a = new NodeGroup(types[0]), b = new NodeGroup(types[1], a), c = new NodeGroup(types[2], a), d = new NodeGroup(types[3], b, c);
+        StreamingScheduler.StreamTask forward = (group, from, item, emitter) -> emitter.emit(item);
+        Map<NodeGroup, AtomicInteger> receivedFrom = new ConcurrentHashMap<>();
+        AtomicInteger completed = new AtomicInteger();
+        Map<NodeType, StreamingScheduler.StreamTask> tasks = Map.of(
+                types[0], new Source(ITEMS),
+                types[1], forward,
+                types[2], forward,
+                types[3], new StreamingScheduler.StreamTask() {
+                    @Override
+                    public void accept(NodeGroup group, NodeGroup from, Object item, StreamingScheduler.Emitter emitter) {
+                        receivedFrom.computeIfAbsent(from, f -> new AtomicInteger()).incrementAndGet();
+                    }
+
+                    @Override
+                    public void completed(NodeGroup group, StreamingScheduler.Emitter emitter) {
+                        assertEquals(2 * ITEMS, receivedFrom.values().stream().mapToInt(AtomicInteger::get).sum());
+                        completed.incrementAndGet();
+                    }
+                });
+        try (StreamingScheduler scheduler = new StreamingScheduler(4)) {
+            StreamingScheduler.ExecutionReport report = scheduler.execute(List.of(a, b, c, d), tasks::get);
+            assertEquals(3L * ITEMS, report.itemCount());
+        }
+        assertEquals(Map.of(b, ITEMS, c, ITEMS), Map.of(b, receivedFrom.get(b).get(), c, receivedFrom.get(c).get()));
+        assertEquals(1, completed.get());
+    }
+
+    @Test
+    void backpressure() throws InterruptedException {
+        int capacity = 4;
+        NodeType[] types = TestGraphs.types(2);
+        NodeGroup source = new NodeGroup(types[0]), sink = new NodeGroup(types[1], source);
+        AtomicInteger emitted = new AtomicInteger();
+        AtomicInteger consumed = new AtomicInteger();
+        AtomicInteger maxBuffered = new AtomicInteger();
+        Map<NodeType, StreamingScheduler.StreamTask> tasks = Map.of(
+                types[0], new StreamingScheduler.StreamTask() {
+                    @Override
+                    public void produce(NodeGroup group, StreamingScheduler.Emitter emitter) throws InterruptedException {
+                        for (int i = 0; i < 200; i++) {
+                            emitter.emit(i);
+                            emitted.incrementAndGet();
+                        }
+                    }
+
+                    @Override
+                    public void accept(NodeGroup group, NodeGroup from, Object item, StreamingScheduler.Emitter emitter) {
+                        fail("source received an item");
+                    }
+                },
+                types[1], (group, from, item, emitter) -> {
+                    // emitted items are either in the queue or already taken
+                    maxBuffered.accumulateAndGet(emitted.get() - consumed.incrementAndGet(), Math::max);
+                    Thread.sleep(0, 100_000);
+                });
+        try (StreamingScheduler scheduler = new StreamingScheduler(capacity)) {
+            scheduler.execute(List.of(source, sink), tasks::get);
+        }
+        assertEquals(200, consumed.get());
+        assertTrue(maxBuffered.get() <= capacity, () -> maxBuffered.get() + " items buffered");
+    }
+
+    @Test
+    void stagesOverlap() throws InterruptedException {
+        // the source only completes once the last stage received its first item
+        NodeType[] types = TestGraphs.types(3);
+        NodeGroup a = new NodeGroup(types[0]), b = new NodeGroup(types[1], a), c = new NodeGroup(types[2], b);
+        CountDownLatch firstReceived = new CountDownLatch(1);
+        Map<NodeType, StreamingScheduler.StreamTask> tasks = Map.of(
+                types[0], new StreamingScheduler.StreamTask() {
+                    @Override
+                    public void produce(NodeGroup group, StreamingScheduler.Emitter emitter) throws InterruptedException {
+                        emitter.emit(0);
+                        assertTrue(firstReceived.await(10, TimeUnit.SECONDS));
+                        emitter.emit(1);
+                    }
+
+                    @Override
+                    public void accept(NodeGroup group, NodeGroup from, Object item, StreamingScheduler.Emitter emitter) {
+                    }
+                },
+                types[1], (group, from, item, emitter) -> emitter.emit(item),
+                types[2], (group, from, item, emitter) -> firstReceived.countDown());
+        try (ExecutorService executorService = Executors.newCachedThreadPool();
+             StreamingScheduler scheduler = new StreamingScheduler(executorService, 1)) {
+            assertEquals(4L, scheduler.execute(List.of(a, b, c), tasks::get).itemCount());
+        }
+    }
+
+    @Test
+    void externalDependenciesAreNotExecuted() throws InterruptedException {
+        NodeType[] types = TestGraphs.types(3);
+        NodeGroup a = new NodeGroup(types[0]), b = new NodeGroup(types[1], a), c = new NodeGroup(types[2], b);
+        List<Object> received = new ArrayList<>();
+        Map<NodeType, StreamingScheduler.StreamTask> tasks = Map.of(
+                types[0], (group, from, item, emitter) -> fail("external executed"),
+                types[1], new Source(3),
+                types[2], (group, from, item, emitter) -> received.add(item));
+        try (StreamingScheduler scheduler = new StreamingScheduler(2)) {
+            StreamingScheduler.ExecutionReport report = scheduler.execute(List.of(b, c), tasks::get);
+            assertEquals(2, report.stageCount());
+        }
+        assertEquals(List.of(0, 1, 2), received);
+    }
+
+    @Test
+    void failureInterruptsStages() {
+        // the source would block forever on its full queue, and the sink on its empty one
+        NodeType[] types = TestGraphs.types(3);
+        NodeGroup a = new NodeGroup(types[0]), b = new NodeGroup(types[1], a), c = new NodeGroup(types[2], a);
+        Map<NodeType, StreamingScheduler.StreamTask> tasks = Map.of(
+                types[0], new Source(Integer.MAX_VALUE),
+                types[1], (group, from, item, emitter) -> {
+                    if ((Integer) item == 10)
+                        throw new IllegalStateException("failed");
+                },
+                types[2], (group, from, item, emitter) -> {
+                });
+        try (StreamingScheduler scheduler = new StreamingScheduler(2)) {
+            RuntimeException e = assertThrows(RuntimeException.class, () -> scheduler.execute(List.of(a, b, c), tasks::get));
+            assertInstanceOf(IllegalStateException.class, e.getCause());
+            assertTrue(e.getMessage().contains(b.toString()));
+        }
+    }
+
+    @Test
+    void interruptedExecution() throws InterruptedException {
+        // the sink blocks until interrupted, execute must only return once it stopped
+        NodeType[] types = TestGraphs.types(2);
+        NodeGroup a = new NodeGroup(types[0]), b = new NodeGroup(types[1], a);
+        CountDownLatch blocked = new CountDownLatch(1);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger runningAfterReturn = new AtomicInteger(-1);
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Map<NodeType, StreamingScheduler.StreamTask> tasks = Map.of(
+                types[0], new Source(1),
+                types[1], (group, from, item, emitter) -> {
+                    running.incrementAndGet();
+                    try {
+                        blocked.countDown();
+                        new CountDownLatch(1).await();
+                    } finally {
+                        Thread.sleep(0, 1);
+                        running.decrementAndGet();
+                    }
+                });
+        try (StreamingScheduler scheduler = new StreamingScheduler(2)) {
+            Thread caller = new Thread(() -> {
+                try {
+                    scheduler.execute(List.of(a, b), tasks::get);
+                } catch (Throwable e) {
+                    runningAfterReturn.set(running.get());
+                    error.set(e);
+                }
+            });
+            caller.start();
+            assertTrue(blocked.await(10, TimeUnit.SECONDS));
+            caller.interrupt();
+            caller.join(10_000);
+        }
+        assertInstanceOf(InterruptedException.class, error.get());
+        assertEquals(0, runningAfterReturn.get());
+    }
+
+    @Test
+    void rejectedStage() throws InterruptedException {
+        // a single pool thread: the first stage starts and blocks on its queue, the second one is rejected
+        NodeType[] types = TestGraphs.types(2);
+        NodeGroup a = new NodeGroup(types[0]), b = new NodeGroup(types[1], a);
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger runningAfterReturn = new AtomicInteger(-1);
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        StreamingScheduler.StreamTask task = new StreamingScheduler.StreamTask() {
+            @Override
+            public void produce(NodeGroup group, StreamingScheduler.Emitter emitter) throws InterruptedException {
+                running.incrementAndGet();
+                started.countDown();
+                try {
+                    while (true)
+                        emitter.emit(group);
+                } finally {
+                    Thread.sleep(0, 1);
+                    running.decrementAndGet();
+                }
+            }
+
+            @Override
+            public void accept(NodeGroup group, NodeGroup from, Object item, StreamingScheduler.Emitter emitter) throws InterruptedException {
+                running.incrementAndGet();
+                started.countDown();
+                try {
+                    new CountDownLatch(1).await();
+                } finally {
+                    Thread.sleep(0, 1);
+                    running.decrementAndGet();
+                }
+            }
+        };
+        ThreadPoolExecutor executorService = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new SynchronousQueue<>(), new ThreadPoolExecutor.AbortPolicy() {
+            @Override
+            public void rejectedExecution(Runnable r, ThreadPoolExecutor e) {
+                // reject once the first stage runs, not before it even started
+                try {
+                    assertTrue(started.await(10, TimeUnit.SECONDS));
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                super.rejectedExecution(r, e);
+            }
+        });
+        try (StreamingScheduler scheduler = new StreamingScheduler(executorService, 1)) {
+            Thread caller = new Thread(() -> {
+                try {
+                    scheduler.execute(List.of(a, b), type -> task);
+                } catch (Throwable e) {
+                    runningAfterReturn.set(running.get());
+                    error.set(e);
+                }
+            });
+            caller.start();
+            caller.join(10_000);
+            assertFalse(caller.isAlive(), "execute is blocked");
+        } finally {
+            // interrupts a stage left behind instead of waiting for it forever
+            executorService.shutdownNow();
+        }
+        assertInstanceOf(RejectedExecutionException.class, error.get());
+        assertEquals(0, runningAfterReturn.get());
+    }
+
+    @Test
+    void invalidArguments() {
+        NodeType[] types = TestGraphs.types(2);
+        NodeGroup a = new NodeGroup(types[0]), b = new NodeGroup(types[1], a);
+        try (StreamingScheduler scheduler = new StreamingScheduler(2)) {
+            assertThrows(IllegalArgumentException.class, () -> scheduler.execute(List.of(a, b), type -> null));
+        }
+        assertThrows(IllegalArgumentException.class, () -> new StreamingScheduler(0));
+    }
+
+    /**
+     * Emit the integers from 0 to count.
+     */
+    private record Source(int count) implements StreamingScheduler.StreamTask {
+        @Override
+        public void produce(NodeGroup group, StreamingScheduler.Emitter emitter) throws InterruptedException {
+            for (int i = 0; i < count; i++)
+                emitter.emit(i);
+        }
+
+        @Override
+        public void accept(NodeGroup group, NodeGroup from, Object item, StreamingScheduler.Emitter emitter) {
+            fail("source received an item");
+        }
+    }
+}
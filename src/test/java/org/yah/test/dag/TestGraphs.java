@@ -0,0 +1,105 @@
+package org.yah.test.dag;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.yah.test.dag.DagSandbox.*;
+
+public final class TestGraphs {
+
+    private TestGraphs() {
+    }
+
+    /**
+     * Create a random DAG, each group depends on up to {@code maxDependencies} groups created before it.
+     */
+    public static List<NodeGroup> randomDag(Random random, int size, int typeCount, int maxDependencies) {
+        NodeType[] types = types(typeCount);
+        List<NodeGroup> nodes = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            int dependencyCount = nodes.isEmpty() ? 0 : random.nextInt(Math.min(nodes.size(), maxDependencies) + 1);
+            NodeGroup[] dependencies = new NodeGroup[dependencyCount];
+            for (int d = 0; d < dependencyCount; d++) {
+                dependencies[d] = nodes.get(random.nextInt(nodes.size()));
+            }
+            nodes.add(new NodeGroup(types[random.nextInt(typeCount)], random.nextInt(1, 10), dependencies));
+        }
+        return nodes;
+    }
+
+    /**
+     * Create random type level dependencies, a type can only depend on a type with a lower index so the resulting
+     * graph stays acyclic as long as the explicit dependencies follow the same order.
+     */
+    public static Map<NodeType, Set<NodeType>> randomTypeDependencies(Random random, Collection<NodeGroup> nodes, int count) {
+        List<NodeType> types = nodes.stream().map(NodeGroup::type).distinct().sorted().toList();
+        Map<NodeType, Set<NodeType>> res = new HashMap<>();
+        for (int i = 0; i < count && types.size() > 1; i++) {
+            int dependent = random.nextInt(1, types.size());
+            int dependency = random.nextInt(dependent);
+            res.computeIfAbsent(types.get(dependent), t -> new HashSet<>()).add(types.get(dependency));
+        }
+        return res;
+    }
+
+    /**
+     * Same as {@link #randomDag(Random, int, int, int)}, but groups are created ordered by type so that
+     * {@link #randomTypeDependencies(Random, Collection, int)} does not introduce cycles.
+     */
+    public static List<NodeGroup> randomTypedDag(Random random, int size, int typeCount, int maxDependencies) {
+        NodeType[] types = types(typeCount);
+        List<NodeGroup> nodes = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            NodeType type = types[i * typeCount / size];
+            List<NodeGroup> candidates = nodes.stream().filter(n -> n.type() != type).toList();
+            int dependencyCount = candidates.isEmpty() ? 0 : random.nextInt(Math.min(candidates.size(), maxDependencies) + 1);
+            NodeGroup[] dependencies = new NodeGroup[dependencyCount];
+            for (int d = 0; d < dependencyCount; d++) {
+                dependencies[d] = candidates.get(random.nextInt(candidates.size()));
+            }
+            nodes.add(new NodeGroup(type, random.nextInt(1, 10), dependencies));
+        }
+        return nodes;
+    }
+
+    public static NodeType[] types(int count) {
+        NodeType[] types = new NodeType[count];
+        for (int i = 0; i < count; i++) {
+            types[i] = new TestNodeType(String.format("T%03d", i));
+        }
+        return types;
+    }
+
+    /**
+     * Reference depth implementation, recursive walk without memoization.
+     */
+    public static int referenceDepth(NodeGroup node, DependencySupplier dependencySupplier) {
+        int depth = 0;
+        for (NodeGroup dependency : dependencySupplier.apply(node)) {
+            depth = Math.max(depth, 1 + referenceDepth(dependency, dependencySupplier));
+        }
+        return depth;
+    }
+
+    public record TestNodeType(String name) implements NodeType {
+        @Override
+        @Nonnull
+        public String toString() {
+            return name;
+        }
+
+        @Override
+        public int compareTo(NodeType o) {
+            if (o instanceof TestNodeType tnt)
+                return name.compareTo(tnt.name);
+            return NodeType.super.compareTo(o);
+        }
+    }
+}
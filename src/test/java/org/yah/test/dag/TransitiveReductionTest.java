@@ -0,0 +1,82 @@
+package org.yah.test.dag;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.yah.test.dag.DagSandbox.*;
+
+class TransitiveReductionTest {
+
+    @Test
+    void removeRedundantDependencies() {
+        NodeType[] types = TestGraphs.types(4);
+        NodeGroup a = new NodeGroup(types[0]), b = new NodeGroup(types[1], a), c = new NodeGroup(types[2], a, b, b);
+        NodeGroup d = new NodeGroup(types[3], a, c);
+        TransitiveReduction.Reduction reduction = TransitiveReduction.reduce(List.of(a, b, c, d));
+        DependencySupplier supplier = reduction.dependencySupplier();
+        assertEquals(List.of(), supplier.apply(a));
+        assertEquals(List.of(a), supplier.apply(b));
+        assertEquals(List.of(b), supplier.apply(c));
+        assertEquals(List.of(c), supplier.apply(d));
+        assertEquals(6, reduction.edgeCount());
+        assertEquals(3, reduction.reducedEdgeCount());
+        assertEquals(3, reduction.removedEdgeCount());
+
+        // not indexed, original dependencies
+        NodeGroup e = new NodeGroup(types[0], a, b);
+        assertEquals(List.of(a, b), supplier.apply(e));
+    }
+
+    @Test
+    void externalDependencies() {
+        NodeType[] types = TestGraphs.types(3);
+        NodeGroup a = new NodeGroup(types[0]), b = new NodeGroup(types[1], a), c = new NodeGroup(types[2], a, b);
+        DependencySupplier supplier = TransitiveReduction.reduce(List.of(a, c)).dependencySupplier();
+        assertEquals(List.of(b), supplier.apply(c));
+        assertEquals(List.of(a), supplier.apply(b));
+        assertArrayEquals(parallelizedDag(List.of(a, c)), parallelizedDag(List.of(a, c), supplier));
+    }
+
+    @Test
+    void sameClosure() {
+        Random random = new Random(12345);
+        for (int i = 0; i < 10; i++) {
+            // dense graphs use the bitset path, sparse ones the pairwise checks
+            List<NodeGroup> nodes = TestGraphs.randomDag(random, 300, 5, i < 5 ? 4 : 60);
+            TransitiveReduction.Reduction reduction = TransitiveReduction.reduce(nodes);
+            DependencySupplier supplier = reduction.dependencySupplier();
+            assertTrue(reduction.removedEdgeCount() > 0);
+            assertArrayEquals(parallelizedDag(nodes), parallelizedDag(nodes, supplier));
+
+            DagIndex expected = DagIndex.create(nodes), actual = DagIndex.create(nodes, supplier);
+            for (NodeGroup node : nodes) {
+                for (NodeGroup other : nodes)
+                    assertEquals(expected.dependsOn(node, other), actual.dependsOn(node, other));
+                // minimal: no kept dependency is reachable through another one
+                List<NodeGroup> dependencies = List.copyOf(supplier.apply(node));
+                for (NodeGroup dependency : dependencies) {
+                    for (NodeGroup other : dependencies) {
+                        if (other != dependency)
+                            assertFalse(actual.dependsOn(other, dependency));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void shrinkTypeDependencies() {
+        Random random = new Random(12345);
+        List<NodeGroup> nodes = TestGraphs.randomTypedDag(random, 500, 10, 3);
+        DependencySupplier typeSupplier = DependencySupplier.byType(nodes, TestGraphs.randomTypeDependencies(random, nodes, 12));
+        TransitiveReduction.Reduction reduction = TransitiveReduction.reduce(nodes, typeSupplier);
+        assertEquals(CsrGraph.of(nodes, typeSupplier).edgeCount(), reduction.edgeCount());
+        assertEquals(CsrGraph.of(nodes, reduction.dependencySupplier()).edgeCount(), reduction.reducedEdgeCount());
+        assertTrue(reduction.removedEdgeCount() > reduction.edgeCount() / 4,
+                () -> reduction.reducedEdgeCount() + " / " + reduction.edgeCount());
+        assertArrayEquals(parallelizedDag(nodes, typeSupplier), parallelizedDag(nodes, reduction.dependencySupplier()));
+    }
+}